@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.MessageFactory;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.ConnectedNode;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.topic.Publisher;
+import org.ros.node.topic.PublisherListener;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ConnectedNode which needs no ROS master so drivers can be benchmarked in isolation.
+ * <p>
+ * Publishers build real messages from the rosjava message factory and count what is published without sending it.
+ * They are plain classes rather than proxies so a publish does not allocate an argument array.
+ * Parameters are looked up by their last name segment in a map of overrides and otherwise take the default supplied
+ * by the driver. Every other interface the node hands out, such as the log, subscribers and service servers, is a
+ * proxy whose methods do nothing.
+ */
+final class BenchmarkNode {
+
+  private static final GraphName NODE_NAME = GraphName.of("/mock_driver_benchmark");
+  private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<>();
+
+  static {
+    PRIMITIVE_DEFAULTS.put(boolean.class, false);
+    PRIMITIVE_DEFAULTS.put(byte.class, (byte) 0);
+    PRIMITIVE_DEFAULTS.put(short.class, (short) 0);
+    PRIMITIVE_DEFAULTS.put(char.class, '\0');
+    PRIMITIVE_DEFAULTS.put(int.class, 0);
+    PRIMITIVE_DEFAULTS.put(long.class, 0L);
+    PRIMITIVE_DEFAULTS.put(float.class, 0.0f);
+    PRIMITIVE_DEFAULTS.put(double.class, 0.0);
+  }
+
+  private final MessageFactory messageFactory = NodeConfiguration.newPrivate().getTopicMessageFactory();
+  private final Map<String, Object> params = new HashMap<>();
+  private long publishedCount = 0;
+
+  /**
+   * Sets a driver parameter
+   *
+   * @param name The parameter name without its namespace, such as data_file_path
+   * @param value The parameter value
+   */
+  void setParam(String name, Object value) {
+    params.put(name, value);
+  }
+
+  /**
+   * Gets the number of messages published by every publisher of this node
+   */
+  long getPublishedCount() {
+    return publishedCount;
+  }
+
+  /**
+   * Gets the name drivers should resolve their private parameters under
+   */
+  GraphName getName() {
+    return NODE_NAME;
+  }
+
+  /**
+   * Creates the node seen by the drivers
+   */
+  ConnectedNode newConnectedNode() {
+    return stub(ConnectedNode.class, new InvocationHandler() {
+      @Override public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+          case "getName":
+            return NODE_NAME;
+          case "getCurrentTime":
+            return Time.fromMillis(System.currentTimeMillis());
+          case "getParameterTree":
+            return newParameterTree();
+          case "newPublisher":
+            return new CountingPublisher<Object>(args[0].toString(), (String) args[1]);
+          default:
+            return noOp(proxy, method, args);
+        }
+      }
+    });
+  }
+
+  private ParameterTree newParameterTree() {
+    return stub(ParameterTree.class, new InvocationHandler() {
+      @Override public Object invoke(Object proxy, Method method, Object[] args) {
+        if (!method.getName().startsWith("get") || args == null || args.length == 0) {
+          return noOp(proxy, method, args);
+        }
+        String key = args[0].toString();
+        key = key.substring(key.lastIndexOf('/') + 1);
+        if (params.containsKey(key)) {
+          return params.get(key);
+        }
+        return args.length > 1 ? args[1] : null;
+      }
+    });
+  }
+
+  /**
+   * Publisher which builds real messages and counts each publish without sending it
+   */
+  private final class CountingPublisher<T> implements Publisher<T> {
+    private final GraphName topicName;
+    private final String messageType;
+
+    CountingPublisher(String topic, String messageType) {
+      this.topicName = GraphName.of(topic);
+      this.messageType = messageType;
+    }
+
+    @Override public T newMessage() {
+      return messageFactory.newFromType(messageType);
+    }
+
+    @Override public void publish(T message) {
+      publishedCount++;
+    }
+
+    @Override public GraphName getTopicName() {
+      return topicName;
+    }
+
+    @Override public String getTopicMessageType() {
+      return messageType;
+    }
+
+    @Override public boolean hasSubscribers() {
+      return false;
+    }
+
+    @Override public int getNumberOfSubscribers() {
+      return 0;
+    }
+
+    @Override public void setLatchMode(boolean enabled) {
+      // Nothing is sent so there is nothing to latch
+    }
+
+    @Override public boolean getLatchMode() {
+      return false;
+    }
+
+    @Override public void addListener(PublisherListener<T> listener) {
+      // The publisher never registers so listeners are never called
+    }
+
+    @Override public void shutdown(long timeout, TimeUnit unit) {
+      // Nothing to release
+    }
+
+    @Override public void shutdown() {
+      // Nothing to release
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T stub(Class<T> type, InvocationHandler handler) {
+    return (T) Proxy.newProxyInstance(BenchmarkNode.class.getClassLoader(), new Class<?>[] {type}, handler);
+  }
+
+  /**
+   * Handles a call to a proxy method which has no behaviour of its own. Interfaces are answered with another
+   * proxy which does nothing so chained calls such as getLog().info() are safe
+   */
+  private static Object noOp(Object proxy, Method method, Object[] args) {
+    switch (method.getName()) {
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "stub " + method.getDeclaringClass().getSimpleName();
+      default:
+        break;
+    }
+    Class<?> type = method.getReturnType();
+    if (type.isPrimitive()) {
+      return PRIMITIVE_DEFAULTS.get(type);
+    } else if (type.isInterface()) {
+      return stub(type, new InvocationHandler() {
+        @Override public Object invoke(Object proxy, Method method, Object[] args) {
+          return noOp(proxy, method, args);
+        }
+      });
+    }
+    return null;
+  }
+}
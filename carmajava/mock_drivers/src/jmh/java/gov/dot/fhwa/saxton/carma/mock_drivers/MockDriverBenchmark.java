@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.ros.node.ConnectedNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of one call to readAndPublishData for each file driven mock driver, which reads one sample
+ * from the data file and publishes its messages.
+ * <p>
+ * Each driver replays its data file from config/data. A scale above 1 replays a generated copy of the file in which
+ * every sample holds scale copies of each of its rows and the whole file is repeated scale times, so per row costs
+ * and the cost of a longer file both show. The format parameter selects the csv file or its conversion to the binary
+ * replay format and message_pool_depth sets the driver parameter of the same name.
+ * <p>
+ * Scores are in ns per sample. Running with the gc profiler, as the jmh Gradle task does, adds the bytes allocated
+ * per sample as gc.alloc.rate.norm. Publishers only count messages so the figures exclude ROS serialization and
+ * transport.
+ * <p>
+ * Run with ./gradlew :mock_drivers:jmh or select benchmarks and parameters with
+ * ./gradlew :mock_drivers:jmh -PjmhArgs="MockDriverBenchmark -p driver=can,radar -p format=csv,binary"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MockDriverBenchmark {
+
+  private static final Map<String, String> DATA_FILES = new LinkedHashMap<>();
+
+  static {
+    DATA_FILES.put("can", "can.csv");
+    DATA_FILES.put("gnss", "pinpoint.csv");
+    DATA_FILES.put("imu", "imu.csv");
+    DATA_FILES.put("comms", "dsrc.csv");
+    DATA_FILES.put("controller", "srx_controller.csv");
+    DATA_FILES.put("radar", "radar.csv");
+  }
+
+  @Param({"can", "gnss", "imu", "comms", "controller", "radar"})
+  public String driver;
+
+  @Param({"1", "16"})
+  public int scale;
+
+  @Param({"csv"})
+  public String format;
+
+  @Param({"0"})
+  public int messagePoolDepth;
+
+  private Path workDir;
+  private BenchmarkNode node;
+  private AbstractMockDriver mockDriver;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    Path dataFile = Paths.get(System.getProperty("mock_drivers.data_dir", "config/data"), DATA_FILES.get(driver));
+    workDir = Files.createTempDirectory("mock_driver_benchmark");
+    if (scale > 1) {
+      dataFile = writeScaledCopy(dataFile, workDir.resolve("scaled_" + dataFile.getFileName()), scale);
+    }
+    if ("binary".equals(format)) {
+      Path binaryFile = workDir.resolve(dataFile.getFileName() + ".cmdb");
+      BinaryReplayConverter.convert(dataFile, binaryFile, 0);
+      dataFile = binaryFile;
+    } else if (!"csv".equals(format)) {
+      throw new IllegalArgumentException("Unknown data file format " + format);
+    }
+
+    node = new BenchmarkNode();
+    node.setParam("data_file_path", dataFile.toString());
+    node.setParam("message_pool_depth", messagePoolDepth);
+    ConnectedNode connectedNode = node.newConnectedNode();
+    mockDriver = newDriver(driver, connectedNode);
+    mockDriver.onStart(connectedNode);
+    if (mockDriver.reader == null) {
+      throw new IllegalStateException(driver + " driver could not open " + dataFile);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    mockDriver.onInterruption();
+    long published = node.getPublishedCount();
+    deleteWorkDir(workDir);
+    if (published == 0) {
+      throw new IllegalStateException(driver + " driver published no messages");
+    }
+  }
+
+  @Benchmark
+  public void readAndPublishSample() {
+    mockDriver.readAndPublishData();
+  }
+
+  private AbstractMockDriver newDriver(String type, ConnectedNode connectedNode) {
+    switch (type) {
+      case "can":
+        return new MockCANDriver(connectedNode, node.getName());
+      case "gnss":
+        return new MockGnssDriver(connectedNode, node.getName());
+      case "imu":
+        return new MockImuDriver(connectedNode, node.getName());
+      case "comms":
+        return new MockCommsDriver(connectedNode, node.getName());
+      case "controller":
+        return new MockControllerDriver(connectedNode, node.getName());
+      case "radar":
+        return new MockRadarDriver(connectedNode, node.getName());
+      default:
+        throw new IllegalArgumentException("Unknown driver " + type);
+    }
+  }
+
+  /**
+   * Writes a copy of a data file in which every sample repeats each of its rows and the samples themselves are
+   * repeated, renumbering the sample ids so they stay unique
+   *
+   * @param source The csv data file
+   * @param target The file to write
+   * @param scale The number of copies of each row within a sample and of the whole file
+   * @return The target path
+   * @throws IOException If either file could not be accessed
+   */
+  static Path writeScaledCopy(Path source, Path target, int scale) throws IOException {
+    String header;
+    Map<String, List<String>> samples = new LinkedHashMap<>();
+    try (BufferedReader in = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+      header = in.readLine();
+      String line;
+      while ((line = in.readLine()) != null) {
+        int split = line.indexOf(',');
+        if (split < 0) {
+          continue;
+        }
+        String id = line.substring(0, split);
+        List<String> rows = samples.get(id);
+        if (rows == null) {
+          rows = new ArrayList<>();
+          samples.put(id, rows);
+        }
+        rows.add(line.substring(split));
+      }
+    }
+    try (BufferedWriter out = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+      out.write(header);
+      out.newLine();
+      long sampleId = 0;
+      for (int pass = 0; pass < scale; pass++) {
+        for (List<String> rows: samples.values()) {
+          for (String row: rows) {
+            for (int copy = 0; copy < scale; copy++) {
+              out.write(Long.toString(sampleId));
+              out.write(row);
+              out.newLine();
+            }
+          }
+          sampleId++;
+        }
+      }
+    }
+    return target;
+  }
+
+  private static void deleteWorkDir(Path dir) throws IOException {
+    if (dir == null) {
+      return;
+    }
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+      for (Path file: files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+}
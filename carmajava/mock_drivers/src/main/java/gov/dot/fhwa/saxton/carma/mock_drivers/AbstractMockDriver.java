@@ -18,8 +18,11 @@ package gov.dot.fhwa.saxton.carma.mock_drivers;
 
 import cav_msgs.DriverStatus;
 import cav_srvs.*;
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
 import org.apache.commons.logging.Log;
 import org.ros.message.MessageFactory;
+import org.ros.message.Time;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.NodeConfiguration;
@@ -27,9 +30,8 @@ import org.ros.node.parameter.ParameterTree;
 import org.ros.node.service.ServiceResponseBuilder;
 import org.ros.node.service.ServiceServer;
 import org.ros.node.topic.Publisher;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -37,9 +39,22 @@ import java.util.List;
  * Abstract implementation of a simulated driver. Reads a simulated data file and publishes the data.
  */
 public abstract class AbstractMockDriver implements IMockDriver {
+  /**
+   * The number of messages a rosjava publisher can hold queued for serialization. One more message may be in the
+   * middle of being written out, so buffers shared with published messages must not be refilled until more than
+   * PUBLISHER_QUEUE_DEPTH + 1 later messages have been published
+   */
+  protected static final int PUBLISHER_QUEUE_DEPTH = 16;
+  /**
+   * The smallest depth a message pool may have. Pooled messages are only refilled once the publisher can no longer
+   * hold them, either queued or being written out
+   */
+  protected static final int MIN_MESSAGE_POOL_DEPTH = PUBLISHER_QUEUE_DEPTH + 2;
+
   protected final ConnectedNode connectedNode;
   protected final NodeConfiguration nodeConfiguration = NodeConfiguration.newPrivate();
   protected final MessageFactory messageFactory = nodeConfiguration.getTopicMessageFactory();
+  protected final DriverMetrics metrics = new DriverMetrics(nodeConfiguration.getMessageSerializationFactory());
 
   protected final Log log;
   protected final ParameterTree params;
@@ -48,6 +63,15 @@ public abstract class AbstractMockDriver implements IMockDriver {
   // Parameters
   protected final String rosRunID;
   protected final String dataFilePath;
+  protected final boolean preloadData;
+  protected final int preloadMaxMb;
+  protected final int prefetchDepth;
+  protected final int timestampCol;
+  protected final double replayRate;
+  protected final double publishRate;
+  protected final long spinThresholdNanos;
+  protected final double statusRate;
+  protected final int messagePoolDepth;
 
   // Topics
   // Published
@@ -60,23 +84,57 @@ public abstract class AbstractMockDriver implements IMockDriver {
   protected final ServiceServer<GetDriverStatusRequest, GetDriverStatusResponse> getStatusService;
 
   protected final String delimiter = ","; // Comma for csv file
-  protected RandomAccessFile reader = null;
+  protected DataSampleSource reader = null;
+  protected PrefetchingSampleReader prefetchReader = null;
+  private long reportedStallCount = 0;
+  private long lastStallReportTime = 0;
+  private AllocationMeter allocationMeter = null;
+  private long lastAllocationReportTime = 0;
+  private long replayStartNanos = 0;
+  private double replayStartTimestamp = 0;
   protected byte driverStatus = cav_msgs.DriverStatus.OFF;
+  private DriverStatus cachedStatusMsg = null;
+  protected SimClock simClock = null;
 
   /**
    * Constructor establishes the publishers and subscribers for the ROS network.
+   * The driver's private parameters and services are resolved under driverName rather than the node's own name,
+   * so several drivers hosted by one node keep the names they would have as separate nodes.
    *
    * @param connectedNode the ros node which this driver provides implementations for
+   * @param driverName the fully resolved name of this driver
    */
-  public AbstractMockDriver(ConnectedNode connectedNode) {
+  public AbstractMockDriver(ConnectedNode connectedNode, GraphName driverName) {
     this.connectedNode = connectedNode;
     log = connectedNode.getLog();
     params = connectedNode.getParameterTree();
-    this.graphName = connectedNode.getName();
+    this.graphName = driverName;
 
     // Parameters
     rosRunID = params.getString("/run_id");
-    dataFilePath = params.getString("~/data_file_path");
+    dataFilePath = params.getString(privateName("data_file_path"));
+    preloadData = params.getBoolean(privateName("preload_data"), false);
+    preloadMaxMb = params.getInteger(privateName("preload_max_mb"), 256);
+    prefetchDepth = params.getInteger(privateName("prefetch_depth"), 0);
+    timestampCol = params.getInteger(privateName("timestamp_col"), -1);
+    replayRate = params.getDouble(privateName("rate"), 1.0);
+    publishRate = params.getDouble(privateName("publish_rate"), 0.0);
+    spinThresholdNanos = params.getInteger(privateName("spin_threshold_us"), 200) * 1000L;
+    statusRate = params.getDouble(privateName("status_rate"), 10.0);
+    int requestedPoolDepth = params.getInteger(privateName("message_pool_depth"), 0);
+    if (requestedPoolDepth > 0 && requestedPoolDepth < MIN_MESSAGE_POOL_DEPTH) {
+      log.warn(getGraphName() + " message_pool_depth of " + requestedPoolDepth + " would refill messages still held "
+        + "by the publisher. Using " + MIN_MESSAGE_POOL_DEPTH + " instead");
+      requestedPoolDepth = MIN_MESSAGE_POOL_DEPTH;
+    }
+    messagePoolDepth = requestedPoolDepth;
+    if (params.getBoolean(privateName("measure_allocation"), false)) {
+      allocationMeter = new AllocationMeter();
+      if (!allocationMeter.isSupported()) {
+        log.warn(getGraphName() + " cannot measure allocations on this JVM");
+        allocationMeter = null;
+      }
+    }
 
     // Topics
     // Published
@@ -85,14 +143,14 @@ public abstract class AbstractMockDriver implements IMockDriver {
 
     // Service
     // Server
-    bindService = connectedNode.newServiceServer("~/bind", cav_srvs.Bind._TYPE,
+    bindService = connectedNode.newServiceServer(privateName("bind"), cav_srvs.Bind._TYPE,
       new ServiceResponseBuilder<BindRequest, BindResponse>() {
         @Override public void build(cav_srvs.BindRequest request, cav_srvs.BindResponse response) {
           log.info("Request for bind received");
         }
       });
     getApiService = connectedNode
-      .newServiceServer("~/get_driver_api", cav_srvs.GetDriverApi._TYPE,
+      .newServiceServer(privateName("get_driver_api"), cav_srvs.GetDriverApi._TYPE,
         new ServiceResponseBuilder<cav_srvs.GetDriverApiRequest, cav_srvs.GetDriverApiResponse>() {
           @Override public void build(cav_srvs.GetDriverApiRequest request,
             cav_srvs.GetDriverApiResponse response) {
@@ -103,7 +161,7 @@ public abstract class AbstractMockDriver implements IMockDriver {
             response.setApiList(FQNs);
           }
         });
-    getStatusService = connectedNode.newServiceServer("~/get_status", GetDriverStatus._TYPE,
+    getStatusService = connectedNode.newServiceServer(privateName("get_status"), GetDriverStatus._TYPE,
       new ServiceResponseBuilder<GetDriverStatusRequest, GetDriverStatusResponse>() {
         @Override public void build(GetDriverStatusRequest request,
           GetDriverStatusResponse response) {
@@ -119,11 +177,17 @@ public abstract class AbstractMockDriver implements IMockDriver {
    */
   @Override public void onStart(ConnectedNode connectedNode) {
     try {
-      reader = new RandomAccessFile(dataFilePath, "r");
-      driverStatus = cav_msgs.DriverStatus.OPERATIONAL;
-    } catch (FileNotFoundException e) {
-      log.warn(getGraphName() + " could not find file " + dataFilePath + ".No data published " + e.getMessage());
-      driverStatus = cav_msgs.DriverStatus.DEGRADED;
+      reader = openDataSource(dataFilePath);
+      ColumnLayout layout = new ColumnLayout(reader.getColumnNames());
+      if (layout.getColumnCount() != getExpectedColCount()) {
+        log.info(getGraphName() + " data file has " + layout.getColumnCount() + " columns rather than "
+          + getExpectedColCount() + ". Columns will be bound by their header names");
+      }
+      bindColumns(layout);
+      setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+    } catch (IOException e) {
+      log.warn(getGraphName() + " could not open file " + dataFilePath + ". No data published " + e.getMessage());
+      setDriverStatus(cav_msgs.DriverStatus.DEGRADED);
     }
   }
 
@@ -142,62 +206,261 @@ public abstract class AbstractMockDriver implements IMockDriver {
     if (reader == null) {
       return;
     }
+    if (allocationMeter != null) {
+      allocationMeter.begin();
+    }
     try {
-      List<String[]> data = new LinkedList<>();
-      String dataLine;
-      String[] elements;
-      boolean exitBeforeEOF = false;
-      int prevSampleIndex = -1;
-      int currentSampleIndex;
-      long prevLineIndex = reader.getFilePointer();
-
-      while((dataLine = reader.readLine()) != null) {
-        // Skip the header line of all data files
-        if (prevLineIndex == 0) {
-          prevLineIndex = reader.getFilePointer();
-          continue;
-        }
-        // separate on delimiter
-        elements = dataLine.split(delimiter);
-        // Update sample index
-        if (elements.length != getExpectedColCount()) {
-          log.warn(
-            "Publish data requested for " + getGraphName() + " with incorrect number of data elements. "
-              + "The required number of data elements is " + getExpectedColCount());
-          continue; // Skip this invalid line
-        }
-
-        currentSampleIndex = Integer.parseInt(elements[getSampleIdIdx()]);
-        //If this is the first sample
-        if (prevSampleIndex == -1) {
-          prevSampleIndex = currentSampleIndex;
-        }
-        // If the end of this sample set then exit the loop
-        if (currentSampleIndex != prevSampleIndex) {
-          exitBeforeEOF = true;
-          break;
-        }
-        data.add(elements);
+      boolean firstSample = reader.isAtFirstSample();
+      long readStart = System.nanoTime();
+      DataSample sample = reader.nextSample();
+      long readNanos = System.nanoTime() - readStart;
+      reportPrefetchStalls();
+      if (sample == null) {
+        return;
       }
-      if (!exitBeforeEOF) {
-        reader.seek(0);
+      if (isTimestampDriven() && sample.getRowCount() > 0 && !waitForSampleTime(sample, firstSample)) {
+        return;
       }
-      publishData(data);
+      long publishStart = System.nanoTime();
+      publishData(sample);
+      metrics.recordSample(readNanos, System.nanoTime() - publishStart);
 
     } catch (IOException e) {
       closeDataFile();
       reader = null;
       // Log warning if the node failed to read data in the file. All publishing will be stopped in this case as the file may be corrupt.
       log.warn(getGraphName() + " failed to read data file. No data will be published " + e.getMessage());
-      driverStatus = cav_msgs.DriverStatus.FAULT;
+      setDriverStatus(cav_msgs.DriverStatus.FAULT);
+    } finally {
+      // Cycles which return early still close their section so every begin has a matching end
+      if (allocationMeter != null) {
+        allocationMeter.end();
+        reportAllocation();
+      }
+    }
+  }
+
+  @Override public void setSimClock(SimClock clock) {
+    this.simClock = clock;
+  }
+
+  @Override public DriverMetrics getMetrics() {
+    return metrics;
+  }
+
+  @Override public DiagnosticStatus getDiagnosticStatus() {
+    List<KeyValue> extraValues = new ArrayList<>();
+    addDiagnosticValues(extraValues);
+    byte status = driverStatus;
+    return metrics.summarize(messageFactory, getGraphName().toString(),
+      status == cav_msgs.DriverStatus.FAULT || status == cav_msgs.DriverStatus.DEGRADED, extraValues);
+  }
+
+  /**
+   * Adds driver specific figures to the diagnostic status of this driver.
+   * The default implementation reports waits on the prefetch thread when prefetching is enabled
+   * @param values The list to append values to
+   */
+  protected void addDiagnosticValues(List<KeyValue> values) {
+    if (prefetchReader != null) {
+      addDiagnosticValue(values, "prefetch_stalls", Long.toString(prefetchReader.getStallCount()));
+      addDiagnosticValue(values, "prefetch_ready", Integer.toString(prefetchReader.getReadyCount()));
+    }
+  }
+
+  /**
+   * Appends a key value pair to a list of diagnostic values
+   * @param values The list to append to
+   * @param key The key
+   * @param value The value
+   */
+  protected void addDiagnosticValue(List<KeyValue> values, String key, String value) {
+    DriverMetrics.addValue(messageFactory, values, key, value);
+  }
+
+  /**
+   * Publishes a message and counts it in this driver's metrics
+   * @param publisher The publisher to send the message on
+   * @param message The message
+   * @param <T> The message type
+   */
+  protected <T> void publish(Publisher<T> publisher, T message) {
+    metrics.countMessage(publisher, message);
+    publisher.publish(message);
+  }
+
+  /**
+   * Gets the time used to stamp messages. This is the simulated time when a simulated clock is set
+   */
+  protected Time getCurrentTime() {
+    return simClock != null ? simClock.now() : connectedNode.getCurrentTime();
+  }
+
+  /**
+   * Gets a monotonic time in ns for driving simulations and measuring simulated intervals.
+   * Follows the simulated clock when one is set and System.nanoTime otherwise
+   */
+  protected long getClockNanos() {
+    return simClock != null ? simClock.nowNanos() : System.nanoTime();
+  }
+
+  /**
+   * Returns true if publication is paced by the recorded timestamps in the data file rather than a fixed delay
+   */
+  protected boolean isTimestampDriven() {
+    return timestampCol >= 0;
+  }
+
+  /**
+   * Waits until the recorded offset of the provided sample, scaled by the rate parameter, has passed since the
+   * start of the current pass through the data file. A rate of 0 or less publishes as fast as possible.
+   * A simulated clock scales the wait by its speedup. A free running clock does not wait, as the scheduler paces
+   * the driver in simulated time.
+   *
+   * @param sample The sample about to be published. Its timestamp is read from the first row
+   * @param firstSample True if this is the first sample in the file, which restarts the replay timeline
+   * @return False if the wait was interrupted
+   */
+  private boolean waitForSampleTime(DataSample sample, boolean firstSample) {
+    double timestamp = sample.getDouble(0, timestampCol);
+    if (firstSample || replayStartNanos == 0) {
+      replayStartNanos = System.nanoTime();
+      replayStartTimestamp = timestamp;
+      return true;
+    }
+    if (replayRate <= 0 || (simClock != null && simClock.isFreeRunning())) {
+      return true;
+    }
+    double speedup = simClock != null ? simClock.getSpeedup() : 1.0;
+    long targetNanos = replayStartNanos + (long) ((timestamp - replayStartTimestamp) / (replayRate * speedup) * 1e9);
+    try {
+      DeadlineTimer.waitUntil(targetNanos, spinThresholdNanos);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Opens the source of simulated data for this driver.
+   * The number of columns is taken from the file itself and drivers locate their columns through bindColumns.
+   * Files in the binary replay format are memory mapped, all other files are read as csv files which may be gzip
+   * compressed. If the prefetch_depth parameter is positive csv files are read that many samples ahead on a
+   * separate thread.
+   * If the preload_data parameter is set the whole file is parsed into memory unless it would need more than
+   * preload_max_mb megabytes, in which case the driver streams from the file instead.
+   *
+   * @param filePath The path to the data file
+   * @return The opened data source
+   * @throws IOException If the file could not be opened
+   */
+  protected DataSampleSource openDataSource(String filePath) throws IOException {
+    DataSampleSource source;
+    if (MappedBinarySampleSource.isBinaryReplayFile(filePath)) {
+      source = new MappedBinarySampleSource(filePath, 0);
+    } else {
+      SampleReader sampleReader;
+      if (GzipSampleReader.isGzipFile(filePath)) {
+        sampleReader = new GzipSampleReader(filePath, getSampleIdIdx(), delimiter.charAt(0));
+      } else {
+        sampleReader = new IndexedSampleReader(filePath, getSampleIdIdx(), delimiter.charAt(0));
+      }
+      if (prefetchDepth > 0) {
+        sampleReader = prefetchReader = new PrefetchingSampleReader(sampleReader, prefetchDepth,
+          getGraphName() + "_prefetch");
+      }
+      source = new CsvSampleSource(sampleReader, delimiter, 0, log, getGraphName().toString());
+    }
+    if (!preloadData) {
+      return source;
+    }
+    InMemorySampleStore store = InMemorySampleStore.load(source, preloadMaxMb * 1024L * 1024L);
+    if (store == null) {
+      log.info(getGraphName() + " data file " + filePath + " exceeds the preload limit of " + preloadMaxMb
+        + " MB. Data will be streamed from disk");
+      return source;
+    }
+    source.close();
+    log.info(getGraphName() + " preloaded " + store.getSampleCount() + " samples from " + filePath);
+    return store;
+  }
+
+  /**
+   * Logs how often the publishing loop waited on the prefetch thread. Reports are limited to one every 10 seconds
+   */
+  private void reportPrefetchStalls() {
+    if (prefetchReader == null || prefetchReader.getStallCount() == reportedStallCount) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    if (now - lastStallReportTime < 10000) {
+      return;
+    }
+    log.warn(getGraphName() + " waited on data prefetch " + prefetchReader.getStallCount() + " times for "
+      + prefetchReader.getStallNanos() / 1000000 + " ms in total. Prefetch depth is " + prefetchReader.getDepth()
+      + " with " + prefetchReader.getReadyCount() + " samples ready");
+    reportedStallCount = prefetchReader.getStallCount();
+    lastStallReportTime = now;
+  }
+
+  /**
+   * Logs the mean bytes allocated by each read and publish cycle, including cycles which waited for their sample
+   * time. Reports are limited to one every 10 seconds and cover the cycles since the previous report
+   */
+  private void reportAllocation() {
+    long now = System.currentTimeMillis();
+    if (now - lastAllocationReportTime < 10000) {
+      return;
+    }
+    if (lastAllocationReportTime != 0) {
+      log.info(getGraphName() + " allocated " + allocationMeter.getMeanBytes() + " bytes per cycle over "
+        + allocationMeter.getSectionCount() + " cycles with a message pool depth of " + messagePoolDepth);
+    }
+    allocationMeter.reset();
+    lastAllocationReportTime = now;
+  }
+
+  /**
+   * Creates a pool of messages for the provided publisher sized by the message_pool_depth parameter.
+   * Positive depths below MIN_MESSAGE_POOL_DEPTH have already been raised to it
+   * @param publisher The publisher the messages will be sent on
+   * @param <T> The message type
+   * @return The message pool. With a depth of 0 the pool allocates a new message on every call
+   */
+  protected <T> MessagePool<T> newMessagePool(Publisher<T> publisher) {
+    return new MessagePool<>(publisher, messagePoolDepth);
+  }
+
+  /**
+   * Creates storage for the elements of a list field of pooled messages. Elements are only reused when
+   * message_pool_depth is positive
+   * @param elementType The ROS type of the list elements
+   * @param <E> The element type
+   * @return The element pool
+   */
+  protected <E> MessageListPool<E> newMessageListPool(String elementType) {
+    return new MessageListPool<>(messageFactory, elementType, messagePoolDepth > 0);
+  }
+
+  /**
+   * Gets the driver status message for the current status.
+   * The message is built once and reused until the status changes. A changed status gets a new message instance
+   * as earlier instances may still be queued for serialization by the publisher.
+   * @return The driver status message
+   */
+  protected synchronized DriverStatus getDriverStatus() {
+    if (cachedStatusMsg == null || cachedStatusMsg.getStatus() != driverStatus) {
+      cachedStatusMsg = buildDriverStatus();
     }
+    return cachedStatusMsg;
   }
 
   /**
    * Helper function to build a driver status message
    * @return The driver status message
    */
-  protected DriverStatus getDriverStatus() {
+  private DriverStatus buildDriverStatus() {
     cav_msgs.DriverStatus driverStatusMsg = discoveryPub.newMessage();
     driverStatusMsg.setName(getGraphName().toString());
     driverStatusMsg.setStatus(driverStatus);
@@ -256,6 +519,25 @@ public abstract class AbstractMockDriver implements IMockDriver {
     discoveryPub.publish(getDriverStatus());
   }
 
+  /**
+   * Sets the status of this driver. A change of status is published immediately rather than waiting for the next
+   * heartbeat
+   * @param status The new status. One of the cav_msgs.DriverStatus constants
+   */
+  protected void setDriverStatus(byte status) {
+    synchronized (this) {
+      if (status == driverStatus) {
+        return;
+      }
+      driverStatus = status;
+    }
+    publishDriverStatus();
+  }
+
+  @Override public long getStatusPeriodNanos() {
+    return statusRate > 0 ? (long) (1e9 / statusRate) : 0;
+  }
+
   /**
    * Safely closes the opened data file
    */
@@ -274,13 +556,40 @@ public abstract class AbstractMockDriver implements IMockDriver {
   }
 
   /**
-   * Publishes the provided data array
-   * @param data The data to be published usually provided as a direct line from a data file
+   * Resolves a name in this driver's private namespace. Equivalent to a ~/ name when the driver has a node to itself
+   * @param name The name relative to the driver
+   * @return The fully resolved name
+   */
+  protected GraphName privateName(String name) {
+    return graphName.join(name);
+  }
+
+  /**
+   * Resolves the columns this driver reads against the columns of the opened data file.
+   * Called once the data file is open and before any call to publishData. The default implementation does nothing
+   * @param layout The columns of the data file
+   */
+  protected void bindColumns(ColumnLayout layout) {}
+
+  /**
+   * Compiles a column schema against the columns of the data file
+   * @param schema The schema declaring how columns populate the target
+   * @param layout The columns of the data file
+   * @param <T> The type populated from each row
+   * @return The compiled schema
+   */
+  protected <T> ColumnSchema.Compiled<T> compileSchema(ColumnSchema<T> schema, ColumnLayout layout) {
+    return schema.compile(layout, log, getGraphName().toString());
+  }
+
+  /**
+   * Publishes the provided data sample
+   * @param sample The data to be published. Holds every row of a data file sharing one sample id
    */
-  protected abstract void publishData(List<String[]> data);
+  protected abstract void publishData(DataSample sample);
 
   /**
-   * Gets the expected number of row elements in a data line
+   * Gets the number of row elements in a data line of the driver's default file layout
    * @return The number of expected elements
    */
   protected abstract short getExpectedColCount();
@@ -299,7 +608,32 @@ public abstract class AbstractMockDriver implements IMockDriver {
 
   @Override public abstract List<String> getDriverAPI();
 
+  /**
+   * Gets the delay in ms between publications.
+   * When the timestamp_col parameter is set the delay is 0 as readAndPublishData waits for each sample's recorded time
+   */
   @Override public long getPublishDelay() {
+    return getPublishPeriodNanos() / 1000000;
+  }
+
+  /**
+   * Gets the period in ns between publications.
+   * The publish_rate parameter in Hz overrides the driver's fixed delay when it is positive
+   */
+  @Override public long getPublishPeriodNanos() {
+    if (isTimestampDriven()) {
+      return 0;
+    }
+    if (publishRate > 0) {
+      return (long) (1e9 / publishRate);
+    }
+    return getFixedPublishDelay() * 1000000;
+  }
+
+  /**
+   * Gets the delay in ms between publications when the driver is not paced by recorded timestamps
+   */
+  protected long getFixedPublishDelay() {
     return 100;
   }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the bytes allocated by the current thread across a section of code.
+ * <p>
+ * Relies on the HotSpot extension of ThreadMXBean. On JVMs without it, or with allocation tracking disabled,
+ * isSupported returns false and nothing is recorded.
+ */
+public class AllocationMeter {
+
+  private final com.sun.management.ThreadMXBean threadBean;
+  private long startBytes = 0;
+  private long totalBytes = 0;
+  private long sectionCount = 0;
+
+  /**
+   * Constructor enables thread allocation tracking if the JVM supports it
+   */
+  public AllocationMeter() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean hotspotBean = null;
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      hotspotBean = (com.sun.management.ThreadMXBean) bean;
+      if (hotspotBean.isThreadAllocatedMemorySupported() && !hotspotBean.isThreadAllocatedMemoryEnabled()) {
+        hotspotBean.setThreadAllocatedMemoryEnabled(true);
+      }
+      if (!hotspotBean.isThreadAllocatedMemoryEnabled()) {
+        hotspotBean = null;
+      }
+    }
+    this.threadBean = hotspotBean;
+  }
+
+  /**
+   * Returns true if allocations can be measured on this JVM
+   */
+  public boolean isSupported() {
+    return threadBean != null;
+  }
+
+  /**
+   * Marks the start of a measured section on the current thread
+   */
+  public void begin() {
+    if (threadBean != null) {
+      startBytes = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+  }
+
+  /**
+   * Marks the end of a measured section. Must be called on the thread which called begin
+   */
+  public void end() {
+    if (threadBean != null) {
+      totalBytes += threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - startBytes;
+      sectionCount++;
+    }
+  }
+
+  /**
+   * Gets the number of measured sections since the last reset
+   */
+  public long getSectionCount() {
+    return sectionCount;
+  }
+
+  /**
+   * Gets the mean number of bytes allocated per measured section since the last reset
+   */
+  public long getMeanBytes() {
+    return sectionCount == 0 ? 0 : totalBytes / sectionCount;
+  }
+
+  /**
+   * Clears the recorded totals
+   */
+  public void reset() {
+    totalBytes = 0;
+    sectionCount = 0;
+  }
+}
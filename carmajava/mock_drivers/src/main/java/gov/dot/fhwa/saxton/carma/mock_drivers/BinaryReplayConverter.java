@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Converts csv driver data files into the binary columnar replay format described by BinaryReplayFormat.
+ * <p>
+ * The conversion streams the csv file twice. The first pass infers the type of each column and counts rows and
+ * samples so the layout of the output file can be fixed. The second pass writes each value directly to its column.
+ * Memory use is therefore independent of the size of the input.
+ * <p>
+ * Usage:
+ * BinaryReplayConverter input.csv output.cmdb [sample id column]
+ * BinaryReplayConverter input_directory output_directory [sample id column]
+ */
+public class BinaryReplayConverter {
+
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final String DELIMITER = ",";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("Usage: BinaryReplayConverter <input csv or directory> <output file or directory> [sample id column]");
+      System.exit(1);
+    }
+    Path input = Paths.get(args[0]);
+    Path output = Paths.get(args[1]);
+    int sampleIdCol = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+    if (Files.isDirectory(input)) {
+      Files.createDirectories(output);
+      try (DirectoryStream<Path> csvFiles = Files.newDirectoryStream(input, "*.csv")) {
+        for (Path csvFile: csvFiles) {
+          String name = csvFile.getFileName().toString();
+          Path binaryFile = output.resolve(name.substring(0, name.length() - 4) + BinaryReplayFormat.FILE_EXTENSION);
+          printSummary(csvFile, binaryFile, convert(csvFile, binaryFile, sampleIdCol));
+        }
+      }
+    } else {
+      printSummary(input, output, convert(input, output, sampleIdCol));
+    }
+  }
+
+  private static void printSummary(Path input, Path output, Summary summary) {
+    System.out.println("Converted " + input + " to " + output + " (" + summary.getRowCount() + " rows, "
+      + summary.getSampleCount() + " samples)");
+    if (summary.getSkippedRowCount() > 0) {
+      System.err.println("Skipped " + summary.getSkippedRowCount() + " rows with the wrong number of columns in "
+        + input);
+    }
+  }
+
+  /**
+   * Converts a single csv data file
+   *
+   * @param input The csv file. The first line must be the header
+   * @param output The binary file to write
+   * @param sampleIdCol The column holding the sample id
+   * @return The number of rows and samples written and rows skipped
+   * @throws IOException If the input could not be read or the output could not be written
+   */
+  public static Summary convert(Path input, Path output, int sampleIdCol) throws IOException {
+    // First pass. Infer column types and count rows and samples
+    String[] names;
+    ColumnType[] types;
+    long rowCount = 0;
+    int sampleCount = 0;
+    try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+      String header = in.readLine();
+      if (header == null) {
+        throw new IOException(input + " is empty");
+      }
+      names = header.split(DELIMITER, -1);
+      types = null;
+      String prevId = null;
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] elements = line.split(DELIMITER);
+        if (types == null && !line.isEmpty()) {
+          // The data rows define the column count. Headers are not always kept in sync with them
+          names = Arrays.copyOf(names, elements.length);
+          for (int i = 0; i < names.length; i++) {
+            if (names[i] == null) {
+              names[i] = "column " + i;
+            }
+          }
+          types = new ColumnType[names.length];
+        }
+        if (elements.length != names.length) {
+          continue;
+        }
+        for (int i = 0; i < elements.length; i++) {
+          types[i] = ColumnType.widen(types[i], elements[i]);
+        }
+        String id = elements[sampleIdCol].trim();
+        if (!id.equals(prevId)) {
+          sampleCount++;
+          prevId = id;
+        }
+        rowCount++;
+      }
+    }
+    if (types == null) {
+      types = new ColumnType[names.length];
+    }
+    for (int i = 0; i < types.length; i++) {
+      if (types[i] == null) {
+        types[i] = ColumnType.STRING; // No rows to infer from
+      }
+    }
+
+    // Fix the file layout
+    byte[][] nameBytes = new byte[names.length][];
+    long descriptorsSize = 0;
+    for (int i = 0; i < names.length; i++) {
+      nameBytes[i] = names[i].trim().getBytes(StandardCharsets.UTF_8);
+      descriptorsSize += 1 + 8 + 2 + nameBytes[i].length;
+    }
+    long sampleTableOffset = BinaryReplayFormat.align(BinaryReplayFormat.HEADER_SIZE + descriptorsSize);
+    long[] colOffsets = new long[names.length];
+    long nextOffset = sampleTableOffset + (long) sampleCount * 8;
+    for (int i = 0; i < names.length; i++) {
+      colOffsets[i] = BinaryReplayFormat.align(nextOffset);
+      nextOffset = colOffsets[i] + rowCount * types[i].getWidth();
+    }
+    long heapOffset = BinaryReplayFormat.align(nextOffset);
+    long skippedRowCount = 0;
+
+    // Second pass. Write every value into its column
+    try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING);
+      BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+
+      RegionWriter sampleTable = new RegionWriter(out, sampleTableOffset);
+      RegionWriter[] columns = new RegionWriter[names.length];
+      for (int i = 0; i < columns.length; i++) {
+        columns[i] = new RegionWriter(out, colOffsets[i]);
+      }
+      RegionWriter heap = new RegionWriter(out, heapOffset);
+
+      in.readLine(); // Header
+      String prevId = null;
+      long row = 0;
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] elements = line.split(DELIMITER);
+        if (elements.length != names.length) {
+          if (!line.isEmpty()) {
+            skippedRowCount++;
+          }
+          continue;
+        }
+        String id = elements[sampleIdCol].trim();
+        if (!id.equals(prevId)) {
+          sampleTable.buffer(8).putLong(row);
+          prevId = id;
+        }
+        for (int i = 0; i < elements.length; i++) {
+          writeValue(columns[i], heap, types[i], elements[i].trim());
+        }
+        row++;
+      }
+
+      sampleTable.flush();
+      for (RegionWriter column: columns) {
+        column.flush();
+      }
+      long heapLength = heap.flush() - heapOffset;
+      if (heapLength > Integer.MAX_VALUE) {
+        throw new IOException("String data in " + input + " exceeds the 2GB limit of the replay format");
+      }
+
+      // Header and column descriptors
+      RegionWriter header = new RegionWriter(out, 0);
+      header.buffer(BinaryReplayFormat.HEADER_SIZE)
+        .putInt(BinaryReplayFormat.MAGIC)
+        .putInt(BinaryReplayFormat.VERSION)
+        .putLong(rowCount)
+        .putInt(names.length)
+        .putInt(sampleCount)
+        .putLong(sampleTableOffset)
+        .putLong(heapOffset)
+        .putLong(heapLength);
+      for (int i = 0; i < names.length; i++) {
+        header.buffer(1 + 8 + 2)
+          .put(types[i].getCode())
+          .putLong(colOffsets[i])
+          .putShort((short) nameBytes[i].length);
+        header.write(nameBytes[i]);
+      }
+      header.flush();
+    }
+    return new Summary(rowCount, sampleCount, skippedRowCount);
+  }
+
+  private static void writeValue(RegionWriter column, RegionWriter heap, ColumnType type, String value)
+    throws IOException {
+    switch (type) {
+      case BOOLEAN:
+        column.buffer(1).put(Boolean.parseBoolean(value) ? (byte) 1 : (byte) 0);
+        break;
+      case BYTE:
+        column.buffer(1).put((byte) Double.parseDouble(value));
+        break;
+      case DOUBLE:
+        column.buffer(8).putDouble(Double.parseDouble(value));
+        break;
+      case STRING:
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        column.buffer(8).putLong(heap.regionPosition());
+        heap.buffer(4).putInt(bytes.length);
+        heap.write(bytes);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported column type " + type);
+    }
+  }
+
+  /**
+   * The counts of a completed conversion
+   */
+  public static final class Summary {
+    private final long rowCount;
+    private final int sampleCount;
+    private final long skippedRowCount;
+
+    Summary(long rowCount, int sampleCount, long skippedRowCount) {
+      this.rowCount = rowCount;
+      this.sampleCount = sampleCount;
+      this.skippedRowCount = skippedRowCount;
+    }
+
+    /**
+     * Gets the number of rows written
+     */
+    public long getRowCount() {
+      return rowCount;
+    }
+
+    /**
+     * Gets the number of samples written
+     */
+    public int getSampleCount() {
+      return sampleCount;
+    }
+
+    /**
+     * Gets the number of non empty rows left out because they did not have one value per column
+     */
+    public long getSkippedRowCount() {
+      return skippedRowCount;
+    }
+  }
+
+  /**
+   * Buffers sequential writes to one region of the output file
+   */
+  private static class RegionWriter {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(BinaryReplayFormat.BYTE_ORDER);
+    private final long regionStart;
+    private long filePos;
+
+    RegionWriter(FileChannel channel, long offset) {
+      this.channel = channel;
+      this.regionStart = offset;
+      this.filePos = offset;
+    }
+
+    /**
+     * Gets the buffer with room for at least the requested number of bytes
+     */
+    ByteBuffer buffer(int bytes) throws IOException {
+      if (buffer.remaining() < bytes) {
+        flush();
+      }
+      return buffer;
+    }
+
+    void write(byte[] bytes) throws IOException {
+      if (bytes.length > buffer.capacity()) {
+        flush();
+        ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+        while (wrapped.hasRemaining()) {
+          filePos += channel.write(wrapped, filePos);
+        }
+      } else {
+        buffer(bytes.length).put(bytes);
+      }
+    }
+
+    /**
+     * Gets the offset from the start of this region the next written byte will land at
+     */
+    long regionPosition() {
+      return filePos + buffer.position() - regionStart;
+    }
+
+    /**
+     * Writes all buffered bytes to the file
+     * @return The file offset following the last written byte
+     */
+    long flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        filePos += channel.write(buffer, filePos);
+      }
+      buffer.clear();
+      return filePos;
+    }
+  }
+}
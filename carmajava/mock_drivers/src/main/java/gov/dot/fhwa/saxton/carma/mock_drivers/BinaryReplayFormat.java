@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.nio.ByteOrder;
+
+/**
+ * Layout of the binary columnar replay files which can be used in place of csv data files.
+ * <p>
+ * All values are little endian.
+ * <pre>
+ * Header
+ *   int    MAGIC
+ *   int    VERSION
+ *   long   row count
+ *   int    column count
+ *   int    sample count
+ *   long   offset of the sample table
+ *   long   offset of the string heap
+ *   long   length of the string heap
+ * Column descriptors, one per column
+ *   byte   column type code
+ *   long   offset of the column data
+ *   short  length of the column name in bytes
+ *   byte[] UTF-8 column name
+ * Sample table
+ *   long[] index of the first row of each sample
+ * Column data, each column starting on an 8 byte boundary
+ *   BOOLEAN and BYTE columns hold one byte per row, DOUBLE columns 8 bytes per row
+ *   STRING columns hold a long offset per row into the string heap
+ * String heap
+ *   int length followed by the UTF-8 bytes of each string
+ * </pre>
+ * Each column is stored contiguously so it can be memory mapped on its own.
+ */
+public final class BinaryReplayFormat {
+
+  public static final int MAGIC = 0x42444D43; // "CMDB" read as little endian
+  public static final int VERSION = 1;
+  public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+  public static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4 + 8 + 8 + 8;
+  public static final int COLUMN_ALIGNMENT = 8;
+  public static final String FILE_EXTENSION = ".cmdb";
+
+  private BinaryReplayFormat() {}
+
+  /**
+   * Rounds the provided offset up to the next column boundary
+   */
+  static long align(long offset) {
+    return (offset + COLUMN_ALIGNMENT - 1) & ~(long) (COLUMN_ALIGNMENT - 1);
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.Random;
+
+/**
+ * Produces BSM payloads for a fleet of simulated vehicles driving through an intersection.
+ * <p>
+ * Payloads are copies of a UPER encoded J2735 MessageFrame holding a BasicSafetyMessage whose core data fields are
+ * patched in place. The temporary id, message count, second mark, position, speed and heading of each vehicle are
+ * overwritten bit by bit at their fixed offsets, so no ASN.1 encoding happens while publishing. Every vehicle owns a
+ * ring of preallocated payload buffers which are reused in turn as messages are handed to the publisher.
+ * <p>
+ * Vehicles drive straight through the intersection on one of its four approaches and wrap around to the start of
+ * their approach once they have driven legLength past the center.
+ */
+public class BsmTrafficGenerator {
+
+  // Bit offsets of the BSM core data fields. The MessageFrame header of message id and length takes 3 bytes
+  private static final int BODY_BIT = 24;
+  private static final int MSG_CNT_BIT = BODY_BIT + 3;
+  private static final int ID_BIT = BODY_BIT + 10;
+  private static final int SEC_MARK_BIT = BODY_BIT + 42;
+  private static final int LAT_BIT = BODY_BIT + 58;
+  private static final int LONG_BIT = BODY_BIT + 89;
+  private static final int SPEED_BIT = BODY_BIT + 172;
+  private static final int HEADING_BIT = BODY_BIT + 185;
+  private static final int MIN_PAYLOAD_BITS = HEADING_BIT + 15;
+
+  private static final long LAT_OFFSET = 900000000L;
+  private static final long LONG_OFFSET = 1799999999L;
+  private static final double METERS_PER_DEGREE = 111320.0;
+  private static final double LANE_WIDTH = 3.7;
+
+  private final int vehicleCount;
+  private final int bufferDepth;
+  private final double centerLat;
+  private final double centerLon;
+  private final double metersPerLonDegree;
+  private final double legLength;
+
+  private final byte[][] payloads;
+  private final int[] ids;
+  private final int[] msgCounts;
+  private final int[] nextBuffers;
+  private final int[] approaches;
+  private final double[] distances;
+  private final double[] speeds;
+  private final long[] lastUpdateMillis;
+
+  /**
+   * Constructor copies the template into every payload buffer and places the vehicles
+   *
+   * @param template A UPER encoded MessageFrame holding a BSM
+   * @param vehicleCount The number of simulated vehicles
+   * @param bufferDepth The number of payload buffers each vehicle cycles through
+   * @param centerLat The latitude of the intersection in degrees
+   * @param centerLon The longitude of the intersection in degrees
+   * @param legLength The length in m of each approach before and after the intersection
+   * @param seed The seed for vehicle ids, speeds and placement
+   * @throws IllegalArgumentException If the template is too short to hold the BSM core data
+   */
+  public BsmTrafficGenerator(byte[] template, int vehicleCount, int bufferDepth, double centerLat, double centerLon,
+    double legLength, long seed) {
+    if (template.length * 8 < MIN_PAYLOAD_BITS) {
+      throw new IllegalArgumentException("BSM template of " + template.length + " bytes is too short");
+    }
+    this.vehicleCount = Math.max(0, vehicleCount);
+    this.bufferDepth = Math.max(1, bufferDepth);
+    this.centerLat = centerLat;
+    this.centerLon = centerLon;
+    this.metersPerLonDegree = METERS_PER_DEGREE * Math.cos(Math.toRadians(centerLat));
+    this.legLength = legLength;
+
+    Random random = new Random(seed);
+    payloads = new byte[this.vehicleCount * this.bufferDepth][];
+    for (int i = 0; i < payloads.length; i++) {
+      payloads[i] = template.clone();
+    }
+    ids = new int[this.vehicleCount];
+    msgCounts = new int[this.vehicleCount];
+    nextBuffers = new int[this.vehicleCount];
+    approaches = new int[this.vehicleCount];
+    distances = new double[this.vehicleCount];
+    speeds = new double[this.vehicleCount];
+    lastUpdateMillis = new long[this.vehicleCount];
+    for (int i = 0; i < this.vehicleCount; i++) {
+      ids[i] = random.nextInt();
+      msgCounts[i] = random.nextInt(128);
+      approaches[i] = random.nextInt(4);
+      distances[i] = -legLength + random.nextDouble() * 2.0 * legLength;
+      speeds[i] = 5.0 + random.nextDouble() * 15.0;
+    }
+  }
+
+  /**
+   * Moves a vehicle to the provided time and writes its state into its next payload buffer
+   *
+   * @param vehicle The vehicle index
+   * @param nowMillis The current time in ms since the epoch
+   * @return The payload. It is rewritten after bufferDepth further calls for the same vehicle
+   */
+  public byte[] nextPayload(int vehicle, long nowMillis) {
+    if (lastUpdateMillis[vehicle] != 0) {
+      distances[vehicle] += speeds[vehicle] * (nowMillis - lastUpdateMillis[vehicle]) / 1000.0;
+      if (distances[vehicle] > legLength) {
+        distances[vehicle] -= 2.0 * legLength;
+      }
+    }
+    lastUpdateMillis[vehicle] = nowMillis;
+    msgCounts[vehicle] = (msgCounts[vehicle] + 1) % 128;
+
+    // Approaches head north, east, south and west, keeping to the right of the center line
+    int approach = approaches[vehicle];
+    double headingRad = approach * Math.PI / 2.0;
+    double along = distances[vehicle];
+    double right = LANE_WIDTH / 2.0;
+    double north = Math.cos(headingRad) * along - Math.sin(headingRad) * right;
+    double east = Math.sin(headingRad) * along + Math.cos(headingRad) * right;
+
+    byte[] payload = payloads[vehicle * bufferDepth + nextBuffers[vehicle]];
+    nextBuffers[vehicle] = (nextBuffers[vehicle] + 1) % bufferDepth;
+    writeBits(payload, MSG_CNT_BIT, 7, msgCounts[vehicle]);
+    writeBits(payload, ID_BIT, 32, ids[vehicle] & 0xFFFFFFFFL);
+    writeBits(payload, SEC_MARK_BIT, 16, nowMillis % 60000);
+    writeBits(payload, LAT_BIT, 31, Math.round((centerLat + north / METERS_PER_DEGREE) * 1e7) + LAT_OFFSET);
+    writeBits(payload, LONG_BIT, 32, Math.round((centerLon + east / metersPerLonDegree) * 1e7) + LONG_OFFSET);
+    writeBits(payload, SPEED_BIT, 13, Math.round(speeds[vehicle] / 0.02));
+    writeBits(payload, HEADING_BIT, 15, Math.round(approach * 90.0 / 0.0125));
+    return payload;
+  }
+
+  /**
+   * Writes the low width bits of value most significant bit first starting at bit offset
+   */
+  static void writeBits(byte[] data, int offset, int width, long value) {
+    for (int i = 0; i < width; i++) {
+      int bit = offset + i;
+      int mask = 0x80 >>> (bit & 7);
+      if (((value >>> (width - 1 - i)) & 1) != 0) {
+        data[bit >>> 3] |= mask;
+      } else {
+        data[bit >>> 3] &= ~mask;
+      }
+    }
+  }
+
+  public int getVehicleCount() {
+    return vehicleCount;
+  }
+
+  public int getBufferDepth() {
+    return bufferDepth;
+  }
+}
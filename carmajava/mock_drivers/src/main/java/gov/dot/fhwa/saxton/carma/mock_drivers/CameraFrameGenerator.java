@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * Pre-renders a short looping animation of camera frames so publishing a frame involves no pixel work.
+ * <p>
+ * Frames show a color gradient crossed by a bright band which moves a little each frame, so consumers see
+ * changing content with realistic payload sizes. Every frame is rendered once at construction into its own buffer
+ * and those buffers are then handed out in rotation.
+ */
+public class CameraFrameGenerator {
+
+  private final int width;
+  private final int height;
+  private final String encoding;
+  private final int bytesPerPixel;
+  private final byte[][] frames;
+  private int nextFrameIdx = 0;
+
+  /**
+   * Constructor renders every frame of the loop
+   *
+   * @param width The image width in pixels
+   * @param height The image height in pixels
+   * @param encoding The sensor_msgs/Image encoding. One of rgb8, bgr8, rgba8, bgra8, mono8 or mono16
+   * @param frameCount The number of frames in the loop
+   * @throws IllegalArgumentException If the encoding is not supported
+   */
+  public CameraFrameGenerator(int width, int height, String encoding, int frameCount) {
+    this.width = width;
+    this.height = height;
+    this.encoding = encoding;
+    this.bytesPerPixel = getBytesPerPixel(encoding);
+    this.frames = new byte[Math.max(1, frameCount)][];
+    for (int i = 0; i < frames.length; i++) {
+      frames[i] = render(i);
+    }
+  }
+
+  /**
+   * Gets the number of bytes in a pixel of an encoding
+   * @throws IllegalArgumentException If the encoding is not supported
+   */
+  public static int getBytesPerPixel(String encoding) {
+    switch (encoding) {
+      case "mono8":
+        return 1;
+      case "mono16":
+        return 2;
+      case "rgb8":
+      case "bgr8":
+        return 3;
+      case "rgba8":
+      case "bgra8":
+        return 4;
+      default:
+        throw new IllegalArgumentException("Unsupported image encoding " + encoding);
+    }
+  }
+
+  /**
+   * Renders frame number frameIdx of the loop
+   */
+  private byte[] render(int frameIdx) {
+    byte[] pixels = new byte[getStep() * height];
+    int bandWidth = Math.max(1, width / 16);
+    int bandStart = frameIdx * width / frames.length;
+    boolean bgr = encoding.startsWith("bgr");
+    int index = 0;
+    for (int y = 0; y < height; y++) {
+      int green = y * 255 / Math.max(1, height - 1);
+      for (int x = 0; x < width; x++) {
+        int red = x * 255 / Math.max(1, width - 1);
+        int blue = ((x - bandStart + width) % width) < bandWidth ? 255 : 64;
+        index = writePixel(pixels, index, bytesPerPixel, bgr, red, green, blue);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Writes one pixel in the layout of an encoding
+   *
+   * @param pixels The image buffer
+   * @param index The position of the pixel's first byte
+   * @param bytesPerPixel The pixel size of the encoding as given by getBytesPerPixel
+   * @param bgr True if three and four byte pixels store blue first
+   * @return The position following the pixel
+   */
+  static int writePixel(byte[] pixels, int index, int bytesPerPixel, boolean bgr, int red, int green, int blue) {
+    switch (bytesPerPixel) {
+      case 1:
+        pixels[index++] = (byte) luminance(red, green, blue);
+        break;
+      case 2:
+        // Little endian to match an is_bigendian value of 0
+        int mono16 = luminance(red, green, blue) * 257;
+        pixels[index++] = (byte) mono16;
+        pixels[index++] = (byte) (mono16 >> 8);
+        break;
+      default:
+        pixels[index++] = (byte) (bgr ? blue : red);
+        pixels[index++] = (byte) green;
+        pixels[index++] = (byte) (bgr ? red : blue);
+        if (bytesPerPixel == 4) {
+          pixels[index++] = (byte) 255;
+        }
+        break;
+    }
+    return index;
+  }
+
+  private static int luminance(int red, int green, int blue) {
+    return (299 * red + 587 * green + 114 * blue) / 1000;
+  }
+
+  /**
+   * Gets the pixels of the next frame in the loop. The buffer is shared by every pass through the loop and must
+   * not be modified
+   */
+  public byte[] nextFrame() {
+    byte[] frame = frames[nextFrameIdx];
+    nextFrameIdx = (nextFrameIdx + 1) % frames.length;
+    return frame;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public String getEncoding() {
+    return encoding;
+  }
+
+  /**
+   * Gets the length of an image row in bytes
+   */
+  public int getStep() {
+    return width * bytesPerPixel;
+  }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Maps the column names in the header of a data file to their indices.
+ * <p>
+ * Names are normalized before comparison. Text in parentheses, such as a unit, is dropped, letters are lower cased
+ * and every run of other characters becomes a single underscore. The header column "speed (m/s)" is therefore
+ * found as "speed" and "Brake Position" as "brake_position".
+ * <p>
+ * A first line containing a numeric name is taken to be a row of data rather than a header. Such files, and blank
+ * header entries, can only be bound by position.
+ */
+public class ColumnLayout {
+
+  private final List<String> columnNames;
+  private final Map<String, Integer> indexByName = new HashMap<>();
+  private final boolean hasHeader;
+
+  /**
+   * Constructor
+   *
+   * @param columnNames The names of the columns in file order. Blank names can only be bound by position
+   */
+  public ColumnLayout(List<String> columnNames) {
+    this.columnNames = Collections.unmodifiableList(columnNames);
+    boolean numericName = false;
+    for (String name: columnNames) {
+      numericName |= isNumber(name.trim());
+    }
+    hasHeader = !numericName;
+    for (int i = 0; i < columnNames.size(); i++) {
+      String name = normalize(columnNames.get(i));
+      if (!name.isEmpty() && !indexByName.containsKey(name)) {
+        indexByName.put(name, i);
+      }
+    }
+  }
+
+  /**
+   * Normalizes a column name for comparison
+   * @param name The column name as written in a header or schema
+   * @return The normalized name. Empty if the name has no letters or digits outside of parentheses
+   */
+  public static String normalize(String name) {
+    StringBuilder normalized = new StringBuilder(name.length());
+    int depth = 0;
+    boolean pendingSeparator = false;
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth = Math.max(0, depth - 1);
+      } else if (depth == 0) {
+        if (Character.isLetterOrDigit(c)) {
+          if (pendingSeparator && normalized.length() > 0) {
+            normalized.append('_');
+          }
+          pendingSeparator = false;
+          normalized.append(c);
+        } else {
+          pendingSeparator = true;
+        }
+        continue;
+      }
+      pendingSeparator = true;
+    }
+    return normalized.toString().toLowerCase(Locale.ROOT);
+  }
+
+  private static boolean isNumber(String text) {
+    if (text.isEmpty()) {
+      return false;
+    }
+    try {
+      Double.parseDouble(text);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns true if the first line of the file names its columns
+   */
+  public boolean hasHeader() {
+    return hasHeader;
+  }
+
+  /**
+   * Gets the number of columns in the file
+   */
+  public int getColumnCount() {
+    return columnNames.size();
+  }
+
+  /**
+   * Gets the names of the columns as written in the header
+   */
+  public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  /**
+   * Finds a column by name
+   * @param name The column name. It is normalized before the lookup
+   * @return The index of the first column with the name or -1 if there is none
+   */
+  public int find(String name) {
+    Integer index = indexByName.get(normalize(name));
+    return index == null ? -1 : index;
+  }
+
+  /**
+   * Finds a column by name, falling back to a position only when the file does not name the column at that
+   * position. A header which names a different column there means the file has been reordered or trimmed, so the
+   * position is not used
+   * @param name The column name
+   * @param defaultCol The index of the column in the driver's default layout
+   * @return The column index or -1 if the name is not found and the default position cannot be used
+   */
+  public int resolve(String name, int defaultCol) {
+    int index = find(name);
+    if (index >= 0) {
+      return index;
+    }
+    if (defaultCol < 0 || defaultCol >= columnNames.size()) {
+      return -1;
+    }
+    return !hasHeader || normalize(columnNames.get(defaultCol)).isEmpty() ? defaultCol : -1;
+  }
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Declares how the named columns of a data file populate the fields of a target object, usually a message.
+ * <p>
+ * Each binding names a column and gives the column's index in the driver's default layout, which is used when the
+ * file's header does not contain the name. A schema is compiled against the ColumnLayout of an opened file into an
+ * array of accessors with the column indices fixed, so applying it to a row costs one typed read and one setter
+ * call per bound column.
+ *
+ * @param <T> The type populated from each row
+ */
+public class ColumnSchema<T> {
+
+  public interface BooleanSetter<T> {
+    void set(T target, boolean value);
+  }
+
+  public interface ByteSetter<T> {
+    void set(T target, byte value);
+  }
+
+  public interface ShortSetter<T> {
+    void set(T target, short value);
+  }
+
+  public interface IntSetter<T> {
+    void set(T target, int value);
+  }
+
+  public interface DoubleSetter<T> {
+    void set(T target, double value);
+  }
+
+  public interface StringSetter<T> {
+    void set(T target, String value);
+  }
+
+  /**
+   * Sets one element of an array field such as a covariance matrix
+   */
+  public interface IndexedDoubleSetter<T> {
+    void set(T target, int index, double value);
+  }
+
+  /**
+   * Copies one column of a row into the target
+   */
+  public interface Accessor<T> {
+    void apply(DataSample sample, int row, T target);
+  }
+
+  private abstract static class Binding<T> {
+    final String name;
+    final int defaultCol;
+    final int count;
+
+    Binding(String name, int defaultCol, int count) {
+      this.name = name;
+      this.defaultCol = defaultCol;
+      this.count = count;
+    }
+
+    /**
+     * Creates the accessor of one bound column
+     * @param col The index of the column in the opened file
+     * @param index The position of the column within the bound range
+     */
+    abstract Accessor<T> accessor(int col, int index);
+  }
+
+  private final List<Binding<T>> bindings = new ArrayList<>();
+
+  /**
+   * Binds a boolean column to a field of the target
+   * @param name The column name
+   * @param defaultCol The index of the column in the default layout
+   * @param setter Sets the field
+   * @return This schema
+   */
+  public ColumnSchema<T> bindBoolean(String name, int defaultCol, final BooleanSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, 1) {
+      @Override Accessor<T> accessor(final int col, int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, sample.getBoolean(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Binds a byte column to a field of the target
+   * @param name The column name
+   * @param defaultCol The index of the column in the default layout
+   * @param setter Sets the field
+   * @return This schema
+   */
+  public ColumnSchema<T> bindByte(String name, int defaultCol, final ByteSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, 1) {
+      @Override Accessor<T> accessor(final int col, int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, sample.getByte(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Binds a short column to a field of the target
+   * @param name The column name
+   * @param defaultCol The index of the column in the default layout
+   * @param setter Sets the field
+   * @return This schema
+   */
+  public ColumnSchema<T> bindShort(String name, int defaultCol, final ShortSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, 1) {
+      @Override Accessor<T> accessor(final int col, int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, sample.getShort(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Binds an int column to a field of the target
+   * @param name The column name
+   * @param defaultCol The index of the column in the default layout
+   * @param setter Sets the field
+   * @return This schema
+   */
+  public ColumnSchema<T> bindInt(String name, int defaultCol, final IntSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, 1) {
+      @Override Accessor<T> accessor(final int col, int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, sample.getInt(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Binds a double column to a field of the target
+   * @param name The column name
+   * @param defaultCol The index of the column in the default layout
+   * @param setter Sets the field
+   * @return This schema
+   */
+  public ColumnSchema<T> bindDouble(String name, int defaultCol, final DoubleSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, 1) {
+      @Override Accessor<T> accessor(final int col, int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, sample.getDouble(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Binds a string column to a field of the target
+   * @param name The column name
+   * @param defaultCol The index of the column in the default layout
+   * @param setter Sets the field
+   * @return This schema
+   */
+  public ColumnSchema<T> bindString(String name, int defaultCol, final StringSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, 1) {
+      @Override Accessor<T> accessor(final int col, int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, sample.getString(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Binds consecutive columns to the elements of an array field. Only the first column of the range needs a name
+   * @param name The name of the first column
+   * @param defaultCol The index of the first column in the default layout
+   * @param count The number of columns in the range
+   * @param setter Sets an element of the array
+   * @return This schema
+   */
+  public ColumnSchema<T> bindDoubleRange(String name, int defaultCol, int count, final IndexedDoubleSetter<T> setter) {
+    bindings.add(new Binding<T>(name, defaultCol, count) {
+      @Override Accessor<T> accessor(final int col, final int index) {
+        return new Accessor<T>() {
+          @Override public void apply(DataSample sample, int row, T target) {
+            setter.set(target, index, sample.getDouble(row, col));
+          }
+        };
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Resolves every binding against the columns of a file.
+   * Bindings whose name is not in the header fall back to their default position when the file has no header or
+   * leaves that position unnamed. Bindings which cannot be resolved either way are left out, so the matching fields
+   * keep whatever value the target already holds.
+   *
+   * @param layout The columns of the opened file
+   * @param log The log used to report bindings which were not found by name
+   * @param sourceName The name used to identify the data source in log messages
+   * @return The compiled schema
+   */
+  public Compiled<T> compile(ColumnLayout layout, Log log, String sourceName) {
+    List<Accessor<T>> accessors = new ArrayList<>();
+    List<String> positional = new ArrayList<>();
+    List<String> missing = new ArrayList<>();
+    for (Binding<T> binding: bindings) {
+      int col = layout.find(binding.name);
+      if (col < 0) {
+        col = layout.resolve(binding.name, binding.defaultCol);
+        if (col < 0) {
+          missing.add(binding.name);
+          continue;
+        }
+        positional.add(binding.name + "@" + col);
+      }
+      int count = Math.min(binding.count, layout.getColumnCount() - col);
+      if (count < binding.count) {
+        missing.add(binding.name + " elements " + count + " to " + (binding.count - 1));
+      }
+      for (int i = 0; i < count; i++) {
+        accessors.add(binding.accessor(col + i, i));
+      }
+    }
+    if (!positional.isEmpty()) {
+      log.info(sourceName + " bound columns by position as their names were not in the header: " + positional);
+    }
+    if (!missing.isEmpty()) {
+      log.warn(sourceName + " data file has no columns for " + missing + ". These fields will not be populated");
+    }
+    return new Compiled<>(accessors);
+  }
+
+  /**
+   * A schema resolved against the columns of one file
+   *
+   * @param <T> The type populated from each row
+   */
+  public static class Compiled<T> {
+    private final Accessor<T>[] accessors;
+
+    @SuppressWarnings("unchecked")
+    private Compiled(List<Accessor<T>> accessors) {
+      this.accessors = accessors.toArray(new Accessor[accessors.size()]);
+    }
+
+    /**
+     * Copies every bound column of a row into the target
+     * @param sample The sample holding the row
+     * @param row The row to copy
+     * @param target The object to populate
+     */
+    public void apply(DataSample sample, int row, T target) {
+      for (Accessor<T> accessor: accessors) {
+        accessor.apply(sample, row, target);
+      }
+    }
+
+    /**
+     * Gets the number of columns copied by apply
+     */
+    public int getBoundColumnCount() {
+      return accessors.length;
+    }
+  }
+}
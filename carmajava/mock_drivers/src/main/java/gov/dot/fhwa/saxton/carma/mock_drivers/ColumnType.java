@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.math.BigDecimal;
+
+/**
+ * The value types which can be stored in a column of a binary replay file
+ */
+public enum ColumnType {
+  BOOLEAN((byte) 0, 1),
+  BYTE((byte) 1, 1),
+  DOUBLE((byte) 2, 8),
+  STRING((byte) 3, 8); // Offset into the string heap
+
+  private final byte code;
+  private final int width;
+
+  ColumnType(byte code, int width) {
+    this.code = code;
+    this.width = width;
+  }
+
+  /**
+   * Gets the code used to identify this type in a binary replay file
+   */
+  public byte getCode() {
+    return code;
+  }
+
+  /**
+   * Gets the number of bytes each value of this type occupies in a column
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Gets the column type identified by the provided code
+   * @param code The code read from a binary replay file
+   * @return The matching column type
+   * @throws IllegalArgumentException If the code is not recognized
+   */
+  public static ColumnType fromCode(byte code) {
+    for (ColumnType type: values()) {
+      if (type.code == code) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unrecognized column type code: " + code);
+  }
+
+  /**
+   * Gets the narrowest type which can hold both the values already seen in a column and the provided value
+   * @param current The type inferred from the previous values or null if this is the first value
+   * @param value The next value in the column
+   * @return The type to use for the column
+   */
+  public static ColumnType widen(ColumnType current, String value) {
+    ColumnType valueType = inferType(value.trim());
+    if (current == null || current == valueType) {
+      return valueType;
+    }
+    if (current == STRING || valueType == STRING || current == BOOLEAN || valueType == BOOLEAN) {
+      return STRING;
+    }
+    return DOUBLE; // Mix of BYTE and DOUBLE
+  }
+
+  /**
+   * Formats a DOUBLE column value as text. Integral values are written without a fraction, so integer columns such
+   * as sample ids stay parsable as integers, and no value is written in scientific notation.
+   *
+   * @param value The value to format
+   * @return The text of the value
+   */
+  public static String formatDouble(double value) {
+    String text = Double.toString(value);
+    if (text.indexOf('E') == -1) {
+      return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+    return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+  }
+
+  /**
+   * Converts a DOUBLE column value to an integer. Only values whose text the csv sources would parse as an integer
+   * are accepted, so replaying a converted file fails in the same places as replaying the csv file.
+   *
+   * @param value The value to convert
+   * @return The integer value
+   * @throws NumberFormatException If the value has a fraction or more than 18 digits
+   */
+  public static long toLong(double value) {
+    if (value != Math.rint(value) || Math.abs(value) >= 1e18) {
+      throw new NumberFormatException("Invalid integer: " + formatDouble(value));
+    }
+    return (long) value;
+  }
+
+  /**
+   * Checks that an integer read from a column fits the type requested by the caller, as the csv sources do
+   *
+   * @param value The value read
+   * @param min The smallest value of the requested type
+   * @param max The largest value of the requested type
+   * @param typeName The name of the requested type used in the error message
+   * @return The value
+   * @throws NumberFormatException If the value is out of range
+   */
+  public static long checkRange(long value, long min, long max, String typeName) {
+    if (value < min || value > max) {
+      throw new NumberFormatException("Value out of range for " + typeName + ": " + value);
+    }
+    return value;
+  }
+
+  /**
+   * Infers the type of a single value.
+   * A value is only narrowed to BOOLEAN, BYTE or DOUBLE when the stored value formats back to exactly the same text,
+   * so reading a converted column as a string returns what was in the source file.
+   */
+  private static ColumnType inferType(String value) {
+    if (value.equals("true") || value.equals("false")) {
+      return BOOLEAN;
+    }
+    double d;
+    try {
+      d = Double.parseDouble(value);
+    } catch (NumberFormatException e) {
+      return STRING;
+    }
+    if (d == Math.rint(d) && d >= Byte.MIN_VALUE && d <= Byte.MAX_VALUE && Byte.toString((byte) d).equals(value)) {
+      return BYTE;
+    }
+    return formatDouble(d).equals(value) ? DOUBLE : STRING;
+  }
+}
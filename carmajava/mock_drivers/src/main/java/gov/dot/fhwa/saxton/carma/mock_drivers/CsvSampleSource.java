@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads data samples from a csv data file through a SampleReader.
+ * Samples are tokenized in place by a reused CsvSampleTokenizer, so each returned sample is only valid until the
+ * next call to nextSample. Rows which do not have the expected number of columns, by default the number of columns
+ * in the header, are skipped with a warning.
+ */
+public class CsvSampleSource implements DataSampleSource {
+
+  private final SampleReader reader;
+  private final CsvSampleTokenizer tokenizer;
+  private final int expectedColCount;
+  private final List<String> columnNames;
+  private final Log log;
+  private final String sourceName;
+
+  /**
+   * Constructor
+   *
+   * @param reader The reader providing the raw sample groups of the file
+   * @param delimiter The column delimiter
+   * @param expectedColCount The number of columns each row must have. 0 or less uses the number of header columns
+   * @param log The log used to report invalid rows
+   * @param sourceName The name used to identify this source in log messages
+   * @throws IOException If the header of the file could not be read
+   */
+  public CsvSampleSource(SampleReader reader, String delimiter, int expectedColCount, Log log, String sourceName)
+    throws IOException {
+    this.reader = reader;
+    this.log = log;
+    this.sourceName = sourceName;
+    this.columnNames = Collections.unmodifiableList(Arrays.asList(reader.getHeaderLine().split(delimiter, -1)));
+    this.expectedColCount = expectedColCount > 0 ? expectedColCount : columnNames.size();
+    this.tokenizer = new CsvSampleTokenizer(delimiter.charAt(0), this.expectedColCount);
+  }
+
+  @Override public DataSample nextSample() throws IOException {
+    ByteBuffer sample = reader.nextSample();
+    if (sample == null) {
+      return null;
+    }
+    tokenizer.tokenize(sample.array(), sample.arrayOffset(), sample.limit());
+    if (tokenizer.getInvalidRowCount() > 0) {
+      log.warn(
+        "Publish data requested for " + sourceName + " with incorrect number of data elements in "
+          + tokenizer.getInvalidRowCount() + " rows. The required number of data elements is " + expectedColCount);
+    }
+    return tokenizer;
+  }
+
+  @Override public boolean isAtFirstSample() {
+    return reader.isAtFirstSample();
+  }
+
+  @Override public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  @Override public void close() throws IOException {
+    reader.close();
+  }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits the raw bytes of a csv sample group into rows and columns without creating intermediate objects.
+ * <p>
+ * Tokenizing only records where each column starts and ends in the byte buffer, and the typed accessors parse
+ * values directly from those bytes. All working arrays are reused between samples so steady state replay does not
+ * allocate. Rows are split the same way as String.split, so trailing empty columns are not counted.
+ * <p>
+ * Doubles with at most 15 significant digits and small exponents are parsed exactly. Longer values are accumulated
+ * in a long and may differ from Double.parseDouble in the last bit or two.
+ */
+public class CsvSampleTokenizer implements DataSample {
+
+  private static final int MAX_EXACT_DIGITS = 15;
+  private static final int MAX_MANTISSA_DIGITS = 18;
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  private final byte delimiter;
+  private final int colCount;
+
+  private byte[] data;
+  private int rowCount = 0;
+  private int[] colStarts;
+  private int[] colEnds;
+  private int invalidRowCount = 0;
+  private final String[] lastStrings;
+
+  /**
+   * Constructor
+   *
+   * @param delimiter The column delimiter
+   * @param colCount The number of columns each valid row must have
+   */
+  public CsvSampleTokenizer(char delimiter, int colCount) {
+    this.delimiter = (byte) delimiter;
+    this.colCount = colCount;
+    this.colStarts = new int[16 * colCount];
+    this.colEnds = new int[16 * colCount];
+    this.lastStrings = new String[colCount];
+  }
+
+  /**
+   * Tokenizes the rows held in the provided byte range. Rows without the expected number of columns are dropped.
+   * The bytes must not change while this sample is in use.
+   *
+   * @param bytes The buffer holding the sample group
+   * @param offset The index of the first byte of the group
+   * @param length The number of bytes in the group
+   */
+  public void tokenize(byte[] bytes, int offset, int length) {
+    data = bytes;
+    rowCount = 0;
+    invalidRowCount = 0;
+    int end = offset + length;
+    int lineStart = offset;
+    while (lineStart < end) {
+      int lineEnd = lineStart;
+      while (lineEnd < end && bytes[lineEnd] != '\n') {
+        lineEnd++;
+      }
+      int contentEnd = lineEnd;
+      if (contentEnd > lineStart && bytes[contentEnd - 1] == '\r') {
+        contentEnd--;
+      }
+      if (contentEnd > lineStart) {
+        tokenizeRow(lineStart, contentEnd);
+      }
+      lineStart = lineEnd + 1;
+    }
+  }
+
+  private void tokenizeRow(int start, int end) {
+    ensureRowCapacity(rowCount + 1);
+    int base = rowCount * colCount;
+    int col = 0;
+    int nonEmptyCols = 0;
+    int colStart = start;
+    for (int i = start; i <= end; i++) {
+      if (i == end || data[i] == delimiter) {
+        if (col < colCount) {
+          colStarts[base + col] = colStart;
+          colEnds[base + col] = i;
+        }
+        col++;
+        if (i > colStart) {
+          nonEmptyCols = col;
+        }
+        colStart = i + 1;
+      }
+    }
+    // Match String.split which discards trailing empty columns
+    if (nonEmptyCols != colCount) {
+      invalidRowCount++;
+      return;
+    }
+    rowCount++;
+  }
+
+  private void ensureRowCapacity(int rows) {
+    if (rows * colCount > colStarts.length) {
+      int newRows = Math.max(rows, 2 * colStarts.length / colCount);
+      colStarts = Arrays.copyOf(colStarts, newRows * colCount);
+      colEnds = Arrays.copyOf(colEnds, newRows * colCount);
+    }
+  }
+
+  /**
+   * Gets the number of rows dropped from the last tokenized sample because they had the wrong number of columns
+   */
+  public int getInvalidRowCount() {
+    return invalidRowCount;
+  }
+
+  @Override public int getRowCount() {
+    return rowCount;
+  }
+
+  @Override public int getColCount() {
+    return colCount;
+  }
+
+  private int start(int row, int col) {
+    int i = colStarts[row * colCount + col];
+    int end = colEnds[row * colCount + col];
+    while (i < end && data[i] == ' ') {
+      i++;
+    }
+    return i;
+  }
+
+  private int end(int row, int col) {
+    int start = start(row, col); // Stops a value of only spaces from being trimmed past its start
+    int i = colEnds[row * colCount + col];
+    while (i > start && data[i - 1] == ' ') {
+      i--;
+    }
+    return i;
+  }
+
+  @Override public boolean getBoolean(int row, int col) {
+    int start = start(row, col);
+    int end = end(row, col);
+    return end - start == 4
+      && (data[start] | 0x20) == 't'
+      && (data[start + 1] | 0x20) == 'r'
+      && (data[start + 2] | 0x20) == 'u'
+      && (data[start + 3] | 0x20) == 'e';
+  }
+
+  @Override public byte getByte(int row, int col) {
+    long value = getLong(row, col);
+    if (value < Byte.MIN_VALUE || value > Byte.MAX_VALUE) {
+      throw new NumberFormatException("Value out of range for byte: " + getString(row, col));
+    }
+    return (byte) value;
+  }
+
+  @Override public short getShort(int row, int col) {
+    long value = getLong(row, col);
+    if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+      throw new NumberFormatException("Value out of range for short: " + getString(row, col));
+    }
+    return (short) value;
+  }
+
+  @Override public int getInt(int row, int col) {
+    long value = getLong(row, col);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new NumberFormatException("Value out of range for int: " + getString(row, col));
+    }
+    return (int) value;
+  }
+
+  private long getLong(int row, int col) {
+    int i = start(row, col);
+    int end = end(row, col);
+    boolean negative = false;
+    if (i < end && (data[i] == '-' || data[i] == '+')) {
+      negative = data[i] == '-';
+      i++;
+    }
+    if (i == end || end - i > 18) {
+      throw new NumberFormatException("Invalid integer: " + getString(row, col));
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      int digit = data[i] - '0';
+      if (digit < 0 || digit > 9) {
+        throw new NumberFormatException("Invalid integer: " + getString(row, col));
+      }
+      value = value * 10 + digit;
+    }
+    return negative ? -value : value;
+  }
+
+  @Override public double getDouble(int row, int col) {
+    int i = start(row, col);
+    int end = end(row, col);
+    boolean negative = false;
+    if (i < end && (data[i] == '-' || data[i] == '+')) {
+      negative = data[i] == '-';
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0; // Significant digits accumulated in the mantissa
+    int exponent = 0;
+    boolean seenDigit = false;
+    boolean seenPoint = false;
+    for (; i < end; i++) {
+      byte b = data[i];
+      if (b >= '0' && b <= '9') {
+        seenDigit = true;
+        if (digits < MAX_MANTISSA_DIGITS) {
+          if (mantissa != 0 || b != '0') {
+            digits++;
+          }
+          mantissa = mantissa * 10 + (b - '0');
+          if (seenPoint) {
+            exponent--;
+          }
+        } else if (!seenPoint) {
+          exponent++; // Digits beyond the mantissa precision only scale the value
+        }
+      } else if (b == '.' && !seenPoint) {
+        seenPoint = true;
+      } else {
+        break;
+      }
+    }
+    if (i < end && seenDigit && (data[i] == 'e' || data[i] == 'E')) {
+      i++;
+      boolean negativeExponent = false;
+      if (i < end && (data[i] == '-' || data[i] == '+')) {
+        negativeExponent = data[i] == '-';
+        i++;
+      }
+      int explicitExponent = 0;
+      boolean seenExponentDigit = false;
+      for (; i < end && data[i] >= '0' && data[i] <= '9'; i++) {
+        explicitExponent = Math.min(explicitExponent * 10 + (data[i] - '0'), 10000);
+        seenExponentDigit = true;
+      }
+      if (!seenExponentDigit) {
+        seenDigit = false;
+      }
+      exponent += negativeExponent ? -explicitExponent : explicitExponent;
+    }
+    if (!seenDigit || i != end) {
+      // Not a plain decimal number (NaN, Infinity or malformed) so defer to the standard parser
+      return Double.parseDouble(getString(row, col));
+    }
+
+    double value;
+    if (mantissa == 0) {
+      value = 0.0;
+    } else if (exponent < -300 || exponent > 300) {
+      return Double.parseDouble(getString(row, col)); // Subnormal or overflowing values
+    } else if (exponent >= -22 && exponent <= 22) {
+      // Exact when the mantissa holds at most MAX_EXACT_DIGITS digits
+      value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    } else {
+      value = exponent < 0 ? mantissa / Math.pow(10, -exponent) : mantissa * Math.pow(10, exponent);
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Gets the text of a column.
+   * The string last returned for each column is cached, so repeated values such as message types do not allocate.
+   */
+  @Override public String getString(int row, int col) {
+    int start = start(row, col);
+    int end = end(row, col);
+    String last = lastStrings[col];
+    if (last != null && last.length() == end - start) {
+      boolean same = true;
+      for (int i = 0; i < end - start; i++) {
+        if (last.charAt(i) != data[start + i]) {
+          same = false;
+          break;
+        }
+      }
+      if (same) {
+        return last;
+      }
+    }
+    String value = new String(data, start, end - start, StandardCharsets.UTF_8);
+    lastStrings[col] = value;
+    return value;
+  }
+}
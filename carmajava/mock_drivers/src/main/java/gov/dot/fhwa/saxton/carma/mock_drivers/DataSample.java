@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * A group of data rows which share a sample id and are published together during one call to readAndPublishData.
+ * Implementations expose typed accessors so drivers can read values without going through intermediate strings.
+ * A sample is only valid until the next sample is read from its source.
+ */
+public interface DataSample {
+
+  /**
+   * Gets the number of rows in this sample
+   * @return The row count
+   */
+  int getRowCount();
+
+  /**
+   * Gets the number of columns in each row of this sample
+   * @return The column count
+   */
+  int getColCount();
+
+  boolean getBoolean(int row, int col);
+
+  byte getByte(int row, int col);
+
+  short getShort(int row, int col);
+
+  int getInt(int row, int col);
+
+  double getDouble(int row, int col);
+
+  String getString(int row, int col);
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A source of data samples for a mock driver. Sources loop forever, returning the first sample again after the last.
+ */
+public interface DataSampleSource extends Closeable {
+
+  /**
+   * Reads the next sample, wrapping around to the first sample after the last one
+   * @return The next sample or null if the source holds no samples
+   * @throws IOException If the underlying data could not be read
+   */
+  DataSample nextSample() throws IOException;
+
+  /**
+   * Returns true if the next call to nextSample will return the first sample of the source
+   */
+  boolean isAtFirstSample();
+
+  /**
+   * Gets the names of the data columns as given by the data file header
+   */
+  List<String> getColumnNames();
+}
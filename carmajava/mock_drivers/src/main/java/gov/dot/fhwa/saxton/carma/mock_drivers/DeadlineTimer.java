@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop against absolute deadlines so its period does not drift with the time spent doing work.
+ * <p>
+ * Deadlines advance by the period from the previous deadline rather than from the end of the work. Waiting parks
+ * the thread until shortly before the deadline and then spins on System.nanoTime, giving sub millisecond precision
+ * without the granularity of Thread.sleep.
+ * <p>
+ * A cycle overruns when its work finishes after the following deadline. Missed slots are skipped rather than run
+ * back to back, so the loop keeps its phase. Lateness is how far past its deadline a cycle actually started.
+ */
+public class DeadlineTimer {
+
+  private final long spinThresholdNanos;
+
+  private long nextDeadline = 0;
+  private long cycleCount = 0;
+  private long overrunCount = 0;
+  private long skippedSlotCount = 0;
+  private long lastLatenessNanos = 0;
+  private long maxLatenessNanos = 0;
+  private long totalLatenessNanos = 0;
+
+  /**
+   * Constructor
+   *
+   * @param spinThresholdNanos How long before a deadline to stop parking the thread and start spinning
+   */
+  public DeadlineTimer(long spinThresholdNanos) {
+    this.spinThresholdNanos = spinThresholdNanos;
+  }
+
+  /**
+   * Waits until the provided System.nanoTime value.
+   * The thread is parked until spinThresholdNanos before the deadline and spins for the remainder.
+   *
+   * @param deadline The System.nanoTime value to wait for
+   * @param spinThresholdNanos How long before the deadline to start spinning
+   * @throws InterruptedException If the thread is interrupted while waiting
+   */
+  public static void waitUntil(long deadline, long spinThresholdNanos) throws InterruptedException {
+    long remaining = deadline - System.nanoTime();
+    while (remaining > 0) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (remaining > spinThresholdNanos) {
+        LockSupport.parkNanos(remaining - spinThresholdNanos);
+      }
+      remaining = deadline - System.nanoTime();
+    }
+  }
+
+  /**
+   * Sets the first deadline to now
+   */
+  public void start() {
+    nextDeadline = System.nanoTime();
+  }
+
+  /**
+   * Waits for the current deadline and records how late the wait returned
+   *
+   * @throws InterruptedException If the thread is interrupted while waiting
+   */
+  public void awaitDeadline() throws InterruptedException {
+    waitUntil(nextDeadline, spinThresholdNanos);
+    lastLatenessNanos = System.nanoTime() - nextDeadline;
+    maxLatenessNanos = Math.max(maxLatenessNanos, lastLatenessNanos);
+    totalLatenessNanos += lastLatenessNanos;
+    cycleCount++;
+  }
+
+  /**
+   * Advances the deadline by one period once the work of a cycle is done.
+   * If the new deadline has already passed the cycle is counted as an overrun and the missed slots are skipped.
+   *
+   * @param periodNanos The period of the loop. A period of 0 or less makes the next deadline now
+   */
+  public void scheduleNext(long periodNanos) {
+    long now = System.nanoTime();
+    if (periodNanos <= 0) {
+      nextDeadline = now;
+      return;
+    }
+    nextDeadline += periodNanos;
+    if (nextDeadline - now < 0) {
+      overrunCount++;
+      long missed = (now - nextDeadline) / periodNanos + 1;
+      skippedSlotCount += missed;
+      nextDeadline += missed * periodNanos;
+    }
+  }
+
+  /**
+   * Gets the System.nanoTime value of the next deadline
+   */
+  public long getNextDeadline() {
+    return nextDeadline;
+  }
+
+  /**
+   * Gets the number of cycles which have waited for their deadline
+   */
+  public long getCycleCount() {
+    return cycleCount;
+  }
+
+  /**
+   * Gets the number of cycles whose work ran past the following deadline
+   */
+  public long getOverrunCount() {
+    return overrunCount;
+  }
+
+  /**
+   * Gets the number of deadlines skipped because of overruns
+   */
+  public long getSkippedSlotCount() {
+    return skippedSlotCount;
+  }
+
+  /**
+   * Gets how late in nanoseconds the most recent cycle started
+   */
+  public long getLastLatenessNanos() {
+    return lastLatenessNanos;
+  }
+
+  /**
+   * Gets the latest start in nanoseconds of any cycle
+   */
+  public long getMaxLatenessNanos() {
+    return maxLatenessNanos;
+  }
+
+  /**
+   * Gets the mean lateness in nanoseconds of all cycles
+   */
+  public long getMeanLatenessNanos() {
+    return cycleCount == 0 ? 0 : totalLatenessNanos / cycleCount;
+  }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import diagnostic_msgs.DiagnosticStatus;
+import diagnostic_msgs.KeyValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.ros.message.MessageFactory;
+import org.ros.message.MessageSerializationFactory;
+import org.ros.message.MessageSerializer;
+import org.ros.node.topic.Publisher;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the performance figures of one mock driver and summarizes them as a DiagnosticStatus.
+ * <p>
+ * Message counts are kept per topic. Serializing every message just to learn its size would cost as much as
+ * publishing it, so only one message in SIZE_SAMPLE_INTERVAL is serialized and byte rates are the message rate times
+ * the mean sampled size. Read, publish and cycle times and the lateness of each cycle against its deadline are held
+ * in LatencyHistograms. Rates and percentiles in a summary cover the window since the previous summary.
+ */
+public class DriverMetrics {
+
+  static final int SIZE_SAMPLE_INTERVAL = 64;
+
+  /**
+   * Counters for a single published topic
+   */
+  static final class TopicMetrics {
+    final String topic;
+    final String messageType;
+    final AtomicLong messages = new AtomicLong();
+    private long sampledMessages = 0;
+    private long sampledBytes = 0;
+    private MessageSerializer<Object> serializer = null;
+    private ChannelBuffer sizeBuffer = null;
+    private long reportedMessages = 0;
+
+    TopicMetrics(String topic, String messageType) {
+      this.topic = topic;
+      this.messageType = messageType;
+    }
+
+    /**
+     * Serializes a message into a scratch buffer to learn its size on the wire
+     */
+    synchronized void sampleSize(MessageSerializationFactory factory, Object message) {
+      if (serializer == null) {
+        serializer = factory.newMessageSerializer(messageType);
+        sizeBuffer = ChannelBuffers.dynamicBuffer(ByteOrder.LITTLE_ENDIAN, 1024);
+      }
+      sizeBuffer.clear();
+      serializer.serialize(message, sizeBuffer);
+      sampledBytes += sizeBuffer.writerIndex();
+      sampledMessages++;
+    }
+
+    synchronized long getMeanSize() {
+      return sampledMessages == 0 ? 0 : sampledBytes / sampledMessages;
+    }
+  }
+
+  private final MessageSerializationFactory serializationFactory;
+  private final Map<Publisher<?>, TopicMetrics> topics = new ConcurrentHashMap<>();
+  private final AtomicLong samples = new AtomicLong();
+  private final LatencyHistogram readTime = new LatencyHistogram();
+  private final LatencyHistogram publishTime = new LatencyHistogram();
+  private final LatencyHistogram cycleTime = new LatencyHistogram();
+  private final LatencyHistogram lateness = new LatencyHistogram();
+  private volatile long overrunCount = 0;
+  private volatile long skippedSlotCount = 0;
+
+  private long lastSummaryNanos = System.nanoTime();
+  private long reportedSamples = 0;
+  private long reportedOverruns = 0;
+
+  /**
+   * Constructor
+   *
+   * @param serializationFactory The factory used to serialize the messages whose size is sampled
+   */
+  public DriverMetrics(MessageSerializationFactory serializationFactory) {
+    this.serializationFactory = serializationFactory;
+  }
+
+  /**
+   * Counts a message about to be published on the provided publisher
+   *
+   * @param publisher The publisher sending the message
+   * @param message The message. It must not be modified while this call runs
+   */
+  public void countMessage(Publisher<?> publisher, Object message) {
+    TopicMetrics metrics = topics.get(publisher);
+    if (metrics == null) {
+      topics.putIfAbsent(publisher,
+        new TopicMetrics(publisher.getTopicName().toString(), publisher.getTopicMessageType()));
+      metrics = topics.get(publisher);
+    }
+    if (metrics.messages.getAndIncrement() % SIZE_SAMPLE_INTERVAL == 0) {
+      metrics.sampleSize(serializationFactory, message);
+    }
+  }
+
+  /**
+   * Records a sample read from a data file and published
+   *
+   * @param readNanos The time spent reading and parsing the sample
+   * @param publishNanos The time spent building and publishing its messages
+   */
+  public void recordSample(long readNanos, long publishNanos) {
+    samples.incrementAndGet();
+    readTime.recordNanos(readNanos);
+    publishTime.recordNanos(publishNanos);
+  }
+
+  /**
+   * Records a sample produced by a simulation rather than read from a file
+   *
+   * @param publishNanos The time spent generating and publishing the sample
+   */
+  public void recordGeneratedSample(long publishNanos) {
+    samples.incrementAndGet();
+    publishTime.recordNanos(publishNanos);
+  }
+
+  /**
+   * Records one publication cycle run by the scheduler
+   *
+   * @param durationNanos The time the cycle took
+   * @param latenessNanos How late the cycle started against its deadline
+   * @param overruns The total number of overruns of the driver's deadline timer
+   * @param skippedSlots The total number of publication slots skipped by the driver's deadline timer
+   */
+  public void recordCycle(long durationNanos, long latenessNanos, long overruns, long skippedSlots) {
+    cycleTime.recordNanos(durationNanos);
+    lateness.recordNanos(latenessNanos);
+    overrunCount = overruns;
+    skippedSlotCount = skippedSlots;
+  }
+
+  /**
+   * Gets the number of samples published since the driver started
+   */
+  public long getSampleCount() {
+    return samples.get();
+  }
+
+  /**
+   * Gets the number of publication cycles which overran their period since the driver started
+   */
+  public long getOverrunCount() {
+    return overrunCount;
+  }
+
+  /**
+   * Gets the number of messages published on a topic since the driver started
+   *
+   * @param topic The fully resolved topic name
+   * @return The message count. 0 if the driver has not published on the topic
+   */
+  public long getMessageCount(String topic) {
+    for (TopicMetrics metrics: topics.values()) {
+      if (metrics.topic.equals(topic)) {
+        return metrics.messages.get();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Summarizes the window since the previous call and starts a new window
+   *
+   * @param messageFactory The factory for the diagnostic messages
+   * @param name The driver name
+   * @param faulted True if the driver reports a degraded or faulted status
+   * @param extraValues Additional driver specific values appended to the summary
+   * @return The diagnostic status of the driver
+   */
+  public synchronized DiagnosticStatus summarize(MessageFactory messageFactory, String name, boolean faulted,
+    List<KeyValue> extraValues) {
+    long now = System.nanoTime();
+    double seconds = Math.max(1e-9, (now - lastSummaryNanos) / 1e9);
+    lastSummaryNanos = now;
+
+    List<KeyValue> values = new ArrayList<>();
+    long sampleTotal = samples.get();
+    addValue(messageFactory, values, "samples_per_s", format((sampleTotal - reportedSamples) / seconds));
+    reportedSamples = sampleTotal;
+    for (TopicMetrics topic: topics.values()) {
+      long messageTotal = topic.messages.get();
+      double messageRate = (messageTotal - topic.reportedMessages) / seconds;
+      topic.reportedMessages = messageTotal;
+      addValue(messageFactory, values, topic.topic + " messages_per_s", format(messageRate));
+      addValue(messageFactory, values, topic.topic + " bytes_per_s", format(messageRate * topic.getMeanSize()));
+    }
+    addHistogram(messageFactory, values, "read_us", readTime);
+    addHistogram(messageFactory, values, "publish_us", publishTime);
+    addHistogram(messageFactory, values, "cycle_us", cycleTime);
+    addHistogram(messageFactory, values, "jitter_us", lateness);
+    long overruns = overrunCount;
+    addValue(messageFactory, values, "overruns", Long.toString(overruns));
+    addValue(messageFactory, values, "skipped_slots", Long.toString(skippedSlotCount));
+    values.addAll(extraValues);
+
+    DiagnosticStatus status = messageFactory.newFromType(DiagnosticStatus._TYPE);
+    status.setName(name);
+    status.setHardwareId("mock_driver");
+    if (faulted) {
+      status.setLevel(DiagnosticStatus.ERROR);
+      status.setMessage("Driver is not operational");
+    } else if (overruns > reportedOverruns) {
+      status.setLevel(DiagnosticStatus.WARN);
+      status.setMessage((overruns - reportedOverruns) + " publish periods overrun");
+    } else {
+      status.setLevel(DiagnosticStatus.OK);
+      status.setMessage("OK");
+    }
+    reportedOverruns = overruns;
+    status.setValues(values);
+    return status;
+  }
+
+  private static void addHistogram(MessageFactory messageFactory, List<KeyValue> values, String key,
+    LatencyHistogram histogram) {
+    if (histogram.getCount() == 0) {
+      return;
+    }
+    addValue(messageFactory, values, key + " p50", Long.toString(histogram.getPercentileMicros(0.5)));
+    addValue(messageFactory, values, key + " p99", Long.toString(histogram.getPercentileMicros(0.99)));
+    addValue(messageFactory, values, key + " max", Long.toString(histogram.getMaxMicros()));
+    histogram.reset();
+  }
+
+  /**
+   * Appends a key value pair to a diagnostic value list
+   */
+  static void addValue(MessageFactory messageFactory, List<KeyValue> values, String key, String value) {
+    KeyValue keyValue = messageFactory.newFromType(KeyValue._TYPE);
+    keyValue.setKey(key);
+    keyValue.setValue(value);
+    values.add(keyValue);
+  }
+
+  private static String format(double value) {
+    return String.format("%.1f", value);
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the sample groups of a gzip compressed data file.
+ * <p>
+ * Compressed files can not be indexed for random access, so the file is decompressed sequentially and reopened
+ * when its end is reached. The first row of the following group is read to detect the end of each group and is
+ * carried over to the next call.
+ */
+public class GzipSampleReader implements SampleReader {
+
+  private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+  private static final int INITIAL_LINE_CAPACITY = 4 * 1024;
+
+  private final String filePath;
+  private final int sampleIdCol;
+  private final byte delimiter;
+
+  private InputStream in;
+  private final byte[] streamBuffer = new byte[STREAM_BUFFER_SIZE];
+  private int streamPos = 0;
+  private int streamLimit = 0;
+  private String headerLine;
+  private boolean atFirstSample = true;
+  private boolean hasDataRows = false;
+
+  private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+  private int lineLength = 0;
+  private boolean hasPendingLine = false;
+  private byte[] group = new byte[INITIAL_LINE_CAPACITY];
+  private int groupLength = 0;
+
+  /**
+   * Opens a gzip compressed data file
+   *
+   * @param filePath The path to the file
+   * @param sampleIdCol The column holding the sample id
+   * @param delimiter The column delimiter
+   * @throws IOException If the file could not be opened
+   */
+  public GzipSampleReader(String filePath, int sampleIdCol, char delimiter) throws IOException {
+    this.filePath = filePath;
+    this.sampleIdCol = sampleIdCol;
+    this.delimiter = (byte) delimiter;
+    open();
+  }
+
+  /**
+   * Checks whether the provided file starts with the gzip magic number
+   *
+   * @param filePath The file to check
+   * @return True if the file is gzip compressed
+   * @throws IOException If the file could not be read
+   */
+  public static boolean isGzipFile(String filePath) throws IOException {
+    try (InputStream file = new FileInputStream(filePath)) {
+      return file.read() == 0x1f && file.read() == 0x8b;
+    }
+  }
+
+  private void open() throws IOException {
+    in = new GZIPInputStream(new FileInputStream(filePath), STREAM_BUFFER_SIZE);
+    streamPos = 0;
+    streamLimit = 0;
+    atFirstSample = true;
+    hasPendingLine = false;
+    if (readLine()) {
+      int length = lineLength;
+      while (length > 0 && line[length - 1] == '\r') {
+        length--;
+      }
+      headerLine = new String(line, 0, length, StandardCharsets.UTF_8);
+    } else {
+      headerLine = "";
+    }
+  }
+
+  /**
+   * Reads the next line including its terminator into the line buffer
+   * @return False if the end of the file was reached before any bytes were read
+   */
+  private boolean readLine() throws IOException {
+    lineLength = 0;
+    while (true) {
+      if (streamPos == streamLimit) {
+        streamLimit = in.read(streamBuffer, 0, streamBuffer.length);
+        streamPos = 0;
+        if (streamLimit <= 0) {
+          streamLimit = 0;
+          return lineLength > 0;
+        }
+      }
+      int end = streamPos;
+      while (end < streamLimit && streamBuffer[end] != '\n') {
+        end++;
+      }
+      boolean foundNewline = end < streamLimit;
+      if (foundNewline) {
+        end++; // Keep the terminator
+      }
+      int count = end - streamPos;
+      if (lineLength + count > line.length) {
+        line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + count));
+      }
+      System.arraycopy(streamBuffer, streamPos, line, lineLength, count);
+      lineLength += count;
+      streamPos = end;
+      if (foundNewline) {
+        return true;
+      }
+    }
+  }
+
+  private boolean isBlankLine() {
+    for (int i = 0; i < lineLength; i++) {
+      if (line[i] != '\n' && line[i] != '\r') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the text of the sample id column of the line buffer
+   * @return The id or Long.MIN_VALUE if the column is missing or not an integer
+   */
+  private long lineSampleId() {
+    int col = 0;
+    int i = 0;
+    while (i < lineLength && col < sampleIdCol) {
+      if (line[i++] == delimiter) {
+        col++;
+      }
+    }
+    while (i < lineLength && line[i] == ' ') {
+      i++;
+    }
+    boolean negative = i < lineLength && line[i] == '-';
+    if (negative) {
+      i++;
+    }
+    long id = 0;
+    boolean seenDigit = false;
+    for (; i < lineLength && line[i] >= '0' && line[i] <= '9'; i++) {
+      id = id * 10 + (line[i] - '0');
+      seenDigit = true;
+    }
+    return seenDigit ? (negative ? -id : id) : Long.MIN_VALUE;
+  }
+
+  private void appendLineToGroup() {
+    if (groupLength + lineLength > group.length) {
+      group = Arrays.copyOf(group, Math.max(group.length * 2, groupLength + lineLength));
+    }
+    System.arraycopy(line, 0, group, groupLength, lineLength);
+    groupLength += lineLength;
+  }
+
+  @Override public ByteBuffer nextSample() throws IOException {
+    groupLength = 0;
+    long groupId = Long.MIN_VALUE;
+    if (hasPendingLine) {
+      appendLineToGroup();
+      groupId = lineSampleId();
+      hasPendingLine = false;
+    }
+    atFirstSample = false;
+    while (true) {
+      if (!readLine()) {
+        if (groupLength > 0) {
+          // The end of the file closes the current group. Start over for the next call
+          in.close();
+          open();
+          return ByteBuffer.wrap(group, 0, groupLength);
+        }
+        if (!hasDataRows) {
+          return null; // Only a header
+        }
+        in.close();
+        open();
+        atFirstSample = false;
+        continue;
+      }
+      if (isBlankLine()) {
+        continue;
+      }
+      hasDataRows = true;
+      long id = lineSampleId();
+      if (groupLength == 0) {
+        groupId = id;
+      } else if (id != Long.MIN_VALUE && id != groupId) {
+        hasPendingLine = true;
+        return ByteBuffer.wrap(group, 0, groupLength);
+      }
+      appendLineToGroup();
+    }
+  }
+
+  @Override public boolean isAtFirstSample() {
+    return atFirstSample;
+  }
+
+  @Override public String getHeaderLine() {
+    return headerLine;
+  }
+
+  @Override public void close() throws IOException {
+    in.close();
+  }
+}
@@ -16,6 +16,7 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import diagnostic_msgs.DiagnosticStatus;
 import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 
@@ -27,6 +28,13 @@ import java.util.List;
  */
 public interface IMockDriver {
 
+  /**
+   * Sets the simulated clock which paces this driver and stamps its messages.
+   * Must be called before onStart. Drivers without a simulated clock follow the node's wall clock
+   * @param clock The shared simulated clock
+   */
+  void setSimClock(SimClock clock);
+
   /**
    * Function which should be called in the onStart function of a containing ROS Node
    * @param connectedNode The node which is being started
@@ -58,6 +66,23 @@ public interface IMockDriver {
    */
   void publishDriverStatus();
 
+  /**
+   * Gets the period in ns between heartbeat publications of this driver's status.
+   * A period of 0 means the status is only published when it changes
+   */
+  long getStatusPeriodNanos();
+
+  /**
+   * Gets the performance metrics of this driver. The scheduler records each publication cycle in them
+   */
+  DriverMetrics getMetrics();
+
+  /**
+   * Summarizes the performance of this driver since the previous call
+   * @return The diagnostic status of this driver
+   */
+  DiagnosticStatus getDiagnosticStatus();
+
   /**
    * Gets a list of topics names representing the api of this driver
    */
@@ -67,4 +92,10 @@ public interface IMockDriver {
    * Gets the delay in ms between when data should be published from this driver
    */
   long getPublishDelay();
+
+  /**
+   * Gets the period in ns between when data should be published from this driver.
+   * A period of 0 means the driver paces itself inside readAndPublishData
+   */
+  long getPublishPeriodNanos();
 }
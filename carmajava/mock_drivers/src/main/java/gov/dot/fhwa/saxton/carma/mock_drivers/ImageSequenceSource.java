@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Replays a directory of numbered PNG or JPEG frames in file name order as raw image buffers.
+ * <p>
+ * Frames are decoded ahead of the consumer by a pool of worker threads. Decodes are queued in file order and at
+ * most queueDepth of them are outstanding, so frames come out in sequence however the workers interleave while
+ * memory stays bounded. The consumer never waits on a decode. When the oldest frame is not decoded yet nextFrame
+ * returns null and counts a dropped frame, and that frame is handed out on a later call instead.
+ * <p>
+ * If the directory or its parent holds a KITTI style timestamps.txt file the recorded frame rate is derived from
+ * it. Lines may be either date times such as 2011-09-26 13:02:25.964389445 or plain seconds.
+ */
+public class ImageSequenceSource implements Closeable {
+
+  public static final String TIMESTAMP_FILE = "timestamps.txt";
+  private static final DateTimeFormatter KITTI_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSSSS");
+
+  /**
+   * A decoded frame in the source's encoding
+   */
+  public static class Frame {
+    private final int width;
+    private final int height;
+    private final byte[] data;
+
+    Frame(int width, int height, byte[] data) {
+      this.width = width;
+      this.height = height;
+      this.data = data;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    /**
+     * Gets the pixels of the frame. Rows are packed without padding
+     */
+    public byte[] getData() {
+      return data;
+    }
+  }
+
+  private final File[] files;
+  private final String encoding;
+  private final int bytesPerPixel;
+  private final int queueDepth;
+  private final ExecutorService decodeExecutor;
+  private final Deque<Future<Frame>> pending = new ArrayDeque<>();
+  private final double recordedFrameRate;
+  private int nextFileIdx = 0;
+  private int nextDecodeIdx = 0;
+  private long droppedFrameCount = 0;
+  private final AtomicLong decodeCount = new AtomicLong();
+  private final AtomicLong decodeNanos = new AtomicLong();
+  private final AtomicLong maxDecodeNanos = new AtomicLong();
+
+  /**
+   * Constructor starts decoding the first frames of the directory
+   *
+   * @param directory The directory holding the frames
+   * @param encoding The sensor_msgs/Image encoding frames are converted to
+   * @param threads The number of decode threads
+   * @param queueDepth The number of frames decoded or being decoded ahead of the consumer
+   * @param threadName The prefix of the decode thread names
+   * @throws IOException If the directory holds no frames
+   * @throws IllegalArgumentException If the encoding is not supported
+   */
+  public ImageSequenceSource(String directory, String encoding, int threads, int queueDepth, final String threadName)
+    throws IOException {
+    File dir = new File(directory);
+    File[] found = dir.listFiles(new FilenameFilter() {
+      @Override public boolean accept(File dir, String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+      }
+    });
+    if (found == null || found.length == 0) {
+      throw new IOException(directory + " holds no .png or .jpg frames");
+    }
+    Arrays.sort(found);
+    this.files = found;
+    this.encoding = encoding;
+    this.bytesPerPixel = CameraFrameGenerator.getBytesPerPixel(encoding);
+    this.recordedFrameRate = readRecordedFrameRate(dir);
+
+    int threadCount = Math.max(1, threads);
+    this.queueDepth = Math.max(threadCount, queueDepth);
+    final AtomicInteger threadNumber = new AtomicInteger();
+    this.decodeExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, threadName + "_" + threadNumber.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    for (int i = 0; i < this.queueDepth; i++) {
+      scheduleDecode();
+    }
+  }
+
+  /**
+   * Derives the frame rate from the timestamps file next to or above the frames
+   *
+   * @return The mean frame rate in Hz or 0 if there is no usable timestamps file
+   */
+  private static double readRecordedFrameRate(File dir) {
+    File stamps = new File(dir, TIMESTAMP_FILE);
+    if (!stamps.isFile() && dir.getAbsoluteFile().getParentFile() != null) {
+      stamps = new File(dir.getAbsoluteFile().getParentFile(), TIMESTAMP_FILE);
+    }
+    if (!stamps.isFile()) {
+      return 0;
+    }
+    try {
+      List<String> lines = Files.readAllLines(stamps.toPath(), StandardCharsets.UTF_8);
+      while (!lines.isEmpty() && lines.get(lines.size() - 1).trim().isEmpty()) {
+        lines.remove(lines.size() - 1);
+      }
+      if (lines.size() < 2) {
+        return 0;
+      }
+      double seconds = secondsBetween(lines.get(0).trim(), lines.get(lines.size() - 1).trim());
+      return seconds > 0 ? (lines.size() - 1) / seconds : 0;
+    } catch (IOException | DateTimeParseException | NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  private static double secondsBetween(String first, String last) {
+    if (first.indexOf(' ') < 0) {
+      return Double.parseDouble(last) - Double.parseDouble(first);
+    }
+    Duration duration = Duration.between(LocalDateTime.parse(first, KITTI_TIME), LocalDateTime.parse(last, KITTI_TIME));
+    return duration.toNanos() / 1e9;
+  }
+
+  /**
+   * Queues the decode of the next file in the cycle
+   */
+  private void scheduleDecode() {
+    final File file = files[nextDecodeIdx];
+    nextDecodeIdx = (nextDecodeIdx + 1) % files.length;
+    pending.addLast(decodeExecutor.submit(new Callable<Frame>() {
+      @Override public Frame call() throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+          throw new IOException("No image decoder for " + file);
+        }
+        Frame frame = new Frame(image.getWidth(), image.getHeight(), toEncoding(image));
+        recordDecode(System.nanoTime() - start);
+        return frame;
+      }
+    }));
+  }
+
+  private void recordDecode(long nanos) {
+    decodeCount.incrementAndGet();
+    decodeNanos.addAndGet(nanos);
+    long max = maxDecodeNanos.get();
+    while (nanos > max && !maxDecodeNanos.compareAndSet(max, nanos)) {
+      max = maxDecodeNanos.get();
+    }
+  }
+
+  /**
+   * Converts a decoded image to packed pixels of the source's encoding.
+   * The common byte rasters produced by the PNG and JPEG readers are converted without unpacking each pixel to an int
+   */
+  private byte[] toEncoding(BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int type = image.getType();
+    if (type == BufferedImage.TYPE_3BYTE_BGR && bytesPerPixel == 3) {
+      byte[] raster = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+      if (encoding.equals("bgr8")) {
+        return raster;
+      }
+      for (int i = 0; i + 2 < raster.length; i += 3) {
+        byte blue = raster[i];
+        raster[i] = raster[i + 2];
+        raster[i + 2] = blue;
+      }
+      return raster;
+    }
+    if (type == BufferedImage.TYPE_BYTE_GRAY && encoding.equals("mono8")) {
+      return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+
+    byte[] pixels = new byte[width * height * bytesPerPixel];
+    int[] row = new int[width];
+    boolean bgr = encoding.startsWith("bgr");
+    int index = 0;
+    for (int y = 0; y < height; y++) {
+      image.getRGB(0, y, width, 1, row, 0, width);
+      for (int x = 0; x < width; x++) {
+        int rgb = row[x];
+        index = CameraFrameGenerator.writePixel(pixels, index, bytesPerPixel, bgr,
+          (rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+      }
+    }
+    return pixels;
+  }
+
+  /**
+   * Takes the next frame if it has been decoded
+   *
+   * @return The next frame or null if it is still being decoded
+   * @throws IOException If the frame could not be decoded
+   * @throws InterruptedException If the thread is interrupted
+   */
+  public Frame nextFrame() throws IOException, InterruptedException {
+    Future<Frame> head = pending.peekFirst();
+    if (head == null || !head.isDone()) {
+      droppedFrameCount++;
+      return null;
+    }
+    pending.removeFirst();
+    nextFileIdx = (nextFileIdx + 1) % files.length;
+    scheduleDecode();
+    try {
+      return head.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+  }
+
+  /**
+   * Returns true if the next frame handed out is the first file of the directory
+   */
+  public boolean isAtFirstFrame() {
+    return nextFileIdx == 0;
+  }
+
+  /**
+   * Gets the number of frames which are decoded and waiting for the consumer
+   */
+  public int getReadyFrameCount() {
+    int ready = 0;
+    for (Future<Frame> frame : pending) {
+      if (!frame.isDone()) {
+        break;
+      }
+      ready++;
+    }
+    return ready;
+  }
+
+  /**
+   * Gets the frame rate recorded in the timestamps file or 0 if there is none
+   */
+  public double getRecordedFrameRate() {
+    return recordedFrameRate;
+  }
+
+  public int getFileCount() {
+    return files.length;
+  }
+
+  public String getEncoding() {
+    return encoding;
+  }
+
+  public int getStep(Frame frame) {
+    return frame.getWidth() * bytesPerPixel;
+  }
+
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  /**
+   * Gets the number of calls to nextFrame which found the next frame still being decoded
+   */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
+  public long getDecodeCount() {
+    return decodeCount.get();
+  }
+
+  /**
+   * Gets the mean time in ns to read, decode and convert a frame
+   */
+  public long getMeanDecodeNanos() {
+    long count = decodeCount.get();
+    return count == 0 ? 0 : decodeNanos.get() / count;
+  }
+
+  public long getMaxDecodeNanos() {
+    return maxDecodeNanos.get();
+  }
+
+  @Override public void close() {
+    decodeExecutor.shutdownNow();
+    pending.clear();
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Holds every sample of a data source in memory as primitive column arrays.
+ * <p>
+ * The store is loaded once at startup by reading its source twice. The first pass infers the type of each column
+ * and counts rows, so the memory required can be checked against a ceiling before anything is stored. Types are
+ * inferred by ColumnType the same way as for binary replay files, so numeric and boolean columns are only used when
+ * getString returns exactly the text of the source.
+ * The second pass copies each value into a boolean[], byte[], double[] or String[] column.
+ * Replay is then a walk over sample indices with no reading or parsing.
+ */
+public class InMemorySampleStore implements DataSampleSource {
+
+  private static final int STRING_OVERHEAD_BYTES = 48;
+
+  private final List<String> columnNames;
+  private final ColumnType[] types;
+  private final Object[] columns;
+  private final int[] sampleFirstRows; // Holds one extra entry marking the end of the last sample
+  private final int sampleCount;
+  private final StoredSample sample = new StoredSample();
+  private int nextSampleIdx = 0;
+
+  private InMemorySampleStore(List<String> columnNames, ColumnType[] types, int rowCount, int sampleCount) {
+    this.columnNames = columnNames;
+    this.types = types;
+    this.sampleCount = sampleCount;
+    this.sampleFirstRows = new int[sampleCount + 1];
+    this.columns = new Object[types.length];
+    for (int col = 0; col < types.length; col++) {
+      switch (types[col]) {
+        case BOOLEAN:
+          columns[col] = new boolean[rowCount];
+          break;
+        case BYTE:
+          columns[col] = new byte[rowCount];
+          break;
+        case DOUBLE:
+          columns[col] = new double[rowCount];
+          break;
+        default:
+          columns[col] = new String[rowCount];
+          break;
+      }
+    }
+  }
+
+  /**
+   * Loads every sample of a source into memory.
+   * The source must be positioned at its first sample and is left there when this function returns.
+   *
+   * @param source The source to read
+   * @param maxBytes The most memory the loaded columns may use
+   * @return The loaded store or null if the data would need more than maxBytes of memory
+   * @throws IOException If the source could not be read
+   */
+  public static InMemorySampleStore load(DataSampleSource source, long maxBytes) throws IOException {
+    // First pass. Infer column types and size the store
+    ColumnType[] types = null;
+    long rowCount = 0;
+    long[] stringBytes = null;
+    int sampleCount = 0;
+    DataSample sample;
+    do {
+      sample = source.nextSample();
+      if (sample == null) {
+        break;
+      }
+      if (types == null) {
+        types = new ColumnType[sample.getColCount()];
+        stringBytes = new long[types.length];
+      }
+      for (int row = 0; row < sample.getRowCount(); row++) {
+        for (int col = 0; col < types.length; col++) {
+          String value = sample.getString(row, col);
+          types[col] = ColumnType.widen(types[col], value);
+          stringBytes[col] += STRING_OVERHEAD_BYTES + 2L * value.length();
+        }
+      }
+      rowCount += sample.getRowCount();
+      sampleCount++;
+    } while (!source.isAtFirstSample());
+
+    if (types == null) {
+      types = new ColumnType[source.getColumnNames().size()];
+    }
+    long requiredBytes = 4L * (sampleCount + 1);
+    for (int col = 0; col < types.length; col++) {
+      if (types[col] == null) {
+        types[col] = ColumnType.STRING;
+      }
+      if (types[col] == ColumnType.STRING) {
+        requiredBytes += 8 * rowCount + (stringBytes == null ? 0 : stringBytes[col]);
+      } else {
+        requiredBytes += types[col].getWidth() * rowCount;
+      }
+    }
+    if (requiredBytes > maxBytes || rowCount > Integer.MAX_VALUE) {
+      return null;
+    }
+
+    // Second pass. Copy every value into its column
+    InMemorySampleStore store =
+      new InMemorySampleStore(source.getColumnNames(), types, (int) rowCount, sampleCount);
+    int nextRow = 0;
+    for (int s = 0; s < sampleCount; s++) {
+      sample = source.nextSample();
+      store.sampleFirstRows[s] = nextRow;
+      for (int row = 0; row < sample.getRowCount(); row++, nextRow++) {
+        for (int col = 0; col < types.length; col++) {
+          store.copyValue(sample, row, col, nextRow);
+        }
+      }
+    }
+    store.sampleFirstRows[sampleCount] = nextRow;
+    return store;
+  }
+
+  private void copyValue(DataSample source, int sourceRow, int col, int row) {
+    switch (types[col]) {
+      case BOOLEAN:
+        ((boolean[]) columns[col])[row] = source.getBoolean(sourceRow, col);
+        break;
+      case BYTE:
+        ((byte[]) columns[col])[row] = (byte) source.getDouble(sourceRow, col);
+        break;
+      case DOUBLE:
+        ((double[]) columns[col])[row] = source.getDouble(sourceRow, col);
+        break;
+      default:
+        ((String[]) columns[col])[row] = source.getString(sourceRow, col);
+        break;
+    }
+  }
+
+  /**
+   * Gets the number of samples held in the store
+   */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  @Override public DataSample nextSample() {
+    if (sampleCount == 0) {
+      return null;
+    }
+    sample.firstRow = sampleFirstRows[nextSampleIdx];
+    sample.rowCount = sampleFirstRows[nextSampleIdx + 1] - sample.firstRow;
+    nextSampleIdx = (nextSampleIdx + 1) % sampleCount;
+    return sample;
+  }
+
+  @Override public boolean isAtFirstSample() {
+    return nextSampleIdx == 0;
+  }
+
+  @Override public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  @Override public void close() {
+    // Nothing to release
+  }
+
+  /**
+   * View of the rows of the current sample in the stored columns
+   */
+  private class StoredSample implements DataSample {
+    int firstRow;
+    int rowCount;
+
+    @Override public int getRowCount() {
+      return rowCount;
+    }
+
+    @Override public int getColCount() {
+      return types.length;
+    }
+
+    @Override public boolean getBoolean(int row, int col) {
+      switch (types[col]) {
+        case BOOLEAN:
+          return ((boolean[]) columns[col])[firstRow + row];
+        case STRING:
+          return Boolean.parseBoolean(getString(row, col));
+        default:
+          return false; // Numbers are not boolean text, matching the csv sources
+      }
+    }
+
+    @Override public byte getByte(int row, int col) {
+      return (byte) ColumnType.checkRange(getLongValue(row, col), Byte.MIN_VALUE, Byte.MAX_VALUE, "byte");
+    }
+
+    @Override public short getShort(int row, int col) {
+      return (short) ColumnType.checkRange(getLongValue(row, col), Short.MIN_VALUE, Short.MAX_VALUE, "short");
+    }
+
+    @Override public int getInt(int row, int col) {
+      return (int) ColumnType.checkRange(getLongValue(row, col), Integer.MIN_VALUE, Integer.MAX_VALUE, "int");
+    }
+
+    private long getLongValue(int row, int col) {
+      switch (types[col]) {
+        case BYTE:
+          return ((byte[]) columns[col])[firstRow + row];
+        case DOUBLE:
+          return ColumnType.toLong(((double[]) columns[col])[firstRow + row]);
+        default:
+          return Long.parseLong(getString(row, col)); // Rejects boolean text as the csv sources do
+      }
+    }
+
+    @Override public double getDouble(int row, int col) {
+      switch (types[col]) {
+        case BYTE:
+          return ((byte[]) columns[col])[firstRow + row];
+        case DOUBLE:
+          return ((double[]) columns[col])[firstRow + row];
+        default:
+          return Double.parseDouble(getString(row, col)); // Rejects boolean text as the csv sources do
+      }
+    }
+
+    @Override public String getString(int row, int col) {
+      switch (types[col]) {
+        case BOOLEAN:
+          return Boolean.toString(getBoolean(row, col));
+        case BYTE:
+          return Byte.toString(getByte(row, col));
+        case DOUBLE:
+          return ColumnType.formatDouble(getDouble(row, col));
+        default:
+          return ((String[]) columns[col])[firstRow + row];
+      }
+    }
+  }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the sample groups of a driver data file through an index built when the file is opened.
+ * <p>
+ * The file is scanned once to record the byte offset and length of every group of consecutive rows sharing a
+ * sample id. Each call to nextSample then costs a single positional read from the file channel into a reusable
+ * buffer, and wrapping around to the first sample only resets the sample index.
+ * The first line of the file is treated as a header and is never returned.
+ */
+public class IndexedSampleReader implements SampleReader {
+
+  private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+  private static final int INITIAL_INDEX_CAPACITY = 256;
+
+  private final FileChannel channel;
+  private final int sampleIdCol;
+  private final byte delimiter;
+
+  private long[] sampleOffsets = new long[INITIAL_INDEX_CAPACITY];
+  private int[] sampleLengths = new int[INITIAL_INDEX_CAPACITY];
+  private int sampleCount = 0;
+  private int headerLength = 0;
+  private int nextSampleIdx = 0;
+  private ByteBuffer sampleBuffer;
+
+  /**
+   * Opens and indexes a data file
+   *
+   * @param filePath The path to the data file
+   * @param sampleIdCol The column holding the sample id
+   * @param delimiter The column delimiter
+   * @throws IOException If the file could not be opened or read
+   */
+  public IndexedSampleReader(String filePath, int sampleIdCol, char delimiter) throws IOException {
+    this.channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+    this.sampleIdCol = sampleIdCol;
+    this.delimiter = (byte) delimiter;
+    try {
+      buildIndex();
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    int maxLength = 0;
+    for (int i = 0; i < sampleCount; i++) {
+      maxLength = Math.max(maxLength, sampleLengths[i]);
+    }
+    sampleBuffer = ByteBuffer.allocate(maxLength);
+  }
+
+  /**
+   * Scans the file once recording where each sample group starts and how long it is
+   */
+  private void buildIndex() throws IOException {
+    ByteBuffer scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+    long filePos = 0;
+    long lineStart = 0;
+    boolean headerSkipped = false;
+    long groupStart = -1;
+    long groupId = 0;
+
+    // Per line parsing state for the sample id column
+    int col = 0;
+    long id = 0;
+    boolean negative = false;
+    boolean idValid = true;
+    boolean idSeen = false;
+    boolean blankLine = true;
+
+    while (channel.read(scanBuffer, filePos) > 0 || scanBuffer.position() > 0) {
+      scanBuffer.flip();
+      int count = scanBuffer.remaining();
+      for (int i = 0; i < count; i++) {
+        byte b = scanBuffer.get(i);
+        if (b == '\n') {
+          long lineEnd = filePos + i + 1;
+          if (!headerSkipped) {
+            headerSkipped = true;
+            headerLength = (int) lineEnd;
+          } else if (!blankLine) {
+            boolean hasId = idSeen && idValid;
+            long lineId = negative ? -id : id;
+            if (groupStart == -1) {
+              groupStart = lineStart;
+              groupId = lineId;
+            } else if (hasId && lineId != groupId) {
+              addSample(groupStart, lineStart);
+              groupStart = lineStart;
+              groupId = lineId;
+            }
+          }
+          lineStart = lineEnd;
+          col = 0;
+          id = 0;
+          negative = false;
+          idValid = true;
+          idSeen = false;
+          blankLine = true;
+          continue;
+        }
+        if (b != '\r') {
+          blankLine = false;
+        }
+        if (b == delimiter) {
+          col++;
+        } else if (col == sampleIdCol && b != '\r' && b != ' ') {
+          if (b >= '0' && b <= '9') {
+            id = id * 10 + (b - '0');
+            idSeen = true;
+          } else if (b == '-' && !idSeen) {
+            negative = true;
+          } else {
+            idValid = false;
+          }
+        }
+      }
+      filePos += count;
+      scanBuffer.clear();
+    }
+
+    // A final line without a trailing newline
+    if (headerSkipped && !blankLine) {
+      long lineId = negative ? -id : id;
+      if (groupStart == -1) {
+        groupStart = lineStart;
+      } else if (idSeen && idValid && lineId != groupId) {
+        addSample(groupStart, lineStart);
+        groupStart = lineStart;
+      }
+    }
+    if (groupStart != -1) {
+      addSample(groupStart, filePos);
+    }
+  }
+
+  private void addSample(long start, long end) {
+    if (sampleCount == sampleOffsets.length) {
+      sampleOffsets = Arrays.copyOf(sampleOffsets, sampleCount * 2);
+      sampleLengths = Arrays.copyOf(sampleLengths, sampleCount * 2);
+    }
+    sampleOffsets[sampleCount] = start;
+    sampleLengths[sampleCount] = (int) (end - start);
+    sampleCount++;
+  }
+
+  @Override public ByteBuffer nextSample() throws IOException {
+    if (sampleCount == 0) {
+      return null;
+    }
+    long offset = sampleOffsets[nextSampleIdx];
+    int length = sampleLengths[nextSampleIdx];
+    nextSampleIdx = (nextSampleIdx + 1) % sampleCount;
+
+    sampleBuffer.clear();
+    sampleBuffer.limit(length);
+    while (sampleBuffer.hasRemaining()) {
+      int read = channel.read(sampleBuffer, offset + sampleBuffer.position());
+      if (read < 0) {
+        throw new IOException("Data file was truncated after it was indexed");
+      }
+    }
+    sampleBuffer.flip();
+    return sampleBuffer;
+  }
+
+  @Override public String getHeaderLine() throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(headerLength);
+    while (header.hasRemaining()) {
+      if (channel.read(header, header.position()) < 0) {
+        break;
+      }
+    }
+    int length = header.position();
+    while (length > 0 && (header.get(length - 1) == '\n' || header.get(length - 1) == '\r')) {
+      length--;
+    }
+    return new String(header.array(), 0, length, StandardCharsets.UTF_8);
+  }
+
+  @Override public boolean isAtFirstSample() {
+    return nextSampleIdx == 0;
+  }
+
+  /**
+   * Moves the reader back to the first sample in the file
+   */
+  public void rewind() {
+    nextSampleIdx = 0;
+  }
+
+  /**
+   * Gets the number of sample groups found in the file
+   */
+  public int getSampleCount() {
+    return sampleCount;
+  }
+
+  @Override public void close() throws IOException {
+    channel.close();
+  }
+}
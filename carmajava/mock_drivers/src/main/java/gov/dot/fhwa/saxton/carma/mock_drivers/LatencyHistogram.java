@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.Arrays;
+
+/**
+ * A fixed size histogram of latencies with microsecond resolution and roughly 12 percent bucket precision.
+ * <p>
+ * Each power of two range of microseconds is split into 8 linear buckets, so recording a value is a few integer
+ * operations and the histogram covers more than a month in 320 counters. Percentiles report the upper bound of
+ * the bucket they fall in. All functions are synchronized so values may be recorded and read from different threads.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS - 21) * SUB_BUCKETS;
+
+  private final long[] counts = new long[BUCKET_COUNT];
+  private long count = 0;
+  private long totalMicros = 0;
+  private long maxMicros = 0;
+
+  /**
+   * Records a latency
+   * @param nanos The latency in ns. Negative values are recorded as 0
+   */
+  public synchronized void recordNanos(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+    counts[Math.min(bucketOf(micros), BUCKET_COUNT - 1)]++;
+    count++;
+    totalMicros += micros;
+    maxMicros = Math.max(maxMicros, micros);
+  }
+
+  private static int bucketOf(long micros) {
+    if (micros < SUB_BUCKETS) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  /**
+   * Gets the latency in us which the provided fraction of recorded values do not exceed
+   * @param fraction The percentile as a fraction between 0 and 1
+   * @return The upper bound of the bucket holding the percentile or 0 if nothing was recorded
+   */
+  public synchronized long getPercentileMicros(double fraction) {
+    if (count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return Math.min(upperBoundOf(i), maxMicros);
+      }
+    }
+    return maxMicros;
+  }
+
+  public synchronized long getCount() {
+    return count;
+  }
+
+  public synchronized long getMeanMicros() {
+    return count == 0 ? 0 : totalMicros / count;
+  }
+
+  public synchronized long getMaxMicros() {
+    return maxMicros;
+  }
+
+  /**
+   * Gets a one line summary of the count, mean and tail percentiles
+   */
+  public synchronized String summary() {
+    return "n=" + count + " mean=" + getMeanMicros() + "us p50=" + getPercentileMicros(0.5) + "us p99="
+      + getPercentileMicros(0.99) + "us max=" + maxMicros + "us";
+  }
+
+  public synchronized void reset() {
+    Arrays.fill(counts, 0);
+    count = 0;
+    totalMicros = 0;
+    maxMicros = 0;
+  }
+}
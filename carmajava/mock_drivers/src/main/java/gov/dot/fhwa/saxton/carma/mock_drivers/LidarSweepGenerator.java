@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Generates synthetic spinning lidar sweeps by casting every beam of the sensor into a simple scene.
+ * <p>
+ * The scene is a flat ground plane below the sensor, a ring of building walls around it and a few vehicle sized
+ * boxes, one of which drives back and forth ahead of the sensor. Each sweep is an organized cloud of beams by
+ * columns with x, y, z and intensity stored as little endian 32 bit floats. Beams which hit nothing within range
+ * are stored as NaN points.
+ * <p>
+ * Sweeps are written into a ring of preallocated buffers, split by beam across a pool of worker threads. A buffer
+ * is refilled once every bufferCount sweeps, so the ring must be deeper than the number of sweeps which can be
+ * waiting on the publisher or the caller must copy each sweep before publishing it. The ranges and intensities of
+ * the beam closest to horizontal form a planar scan of the same sweep.
+ */
+public class LidarSweepGenerator {
+
+  public static final int POINT_STEP = 16;
+  public static final int X_OFFSET = 0;
+  public static final int Y_OFFSET = 4;
+  public static final int Z_OFFSET = 8;
+  public static final int INTENSITY_OFFSET = 12;
+
+  private static final double WALL_RADIUS = 45.0;
+  private static final double WALL_HEIGHT = 12.0;
+  private static final float GROUND_INTENSITY = 20.0f;
+  private static final float WALL_INTENSITY = 60.0f;
+  private static final float VEHICLE_INTENSITY = 120.0f;
+
+  // Static boxes as min x, min y, min z, max x, max y, max z relative to the ground below the sensor
+  private static final double[][] PARKED_VEHICLES = {
+    {-12.0, 4.0, 0.0, -7.5, 6.0, 1.5},
+    {8.0, -7.0, 0.0, 12.5, -5.0, 1.6},
+    {-20.0, -4.5, 0.0, -15.5, -2.5, 3.2}
+  };
+  private static final double[] LEAD_VEHICLE_SIZE = {4.6, 1.9, 1.5};
+
+  private final int beamCount;
+  private final int columnCount;
+  private final double maxRange;
+  private final double sensorHeight;
+  private final int scanBeam;
+
+  private final double[] sinElevation;
+  private final double[] cosElevation;
+  private final double[] sinAzimuth;
+  private final double[] cosAzimuth;
+
+  private final Sweep[] sweeps;
+  private int nextSweepIdx = 0;
+  private final ExecutorService workers;
+  private final int chunkCount;
+
+  /**
+   * Constructor precomputes the beam directions and allocates the sweep buffers
+   *
+   * @param beamCount The number of lasers stacked vertically
+   * @param horizontalResolutionDeg The azimuth step between columns in degrees
+   * @param minElevationDeg The elevation of the lowest beam in degrees
+   * @param maxElevationDeg The elevation of the highest beam in degrees
+   * @param maxRange The longest range in m which returns a point
+   * @param sensorHeight The height in m of the sensor above the ground
+   * @param threadCount The number of worker threads filling each sweep
+   * @param bufferCount The number of sweeps in the ring of preallocated buffers
+   */
+  public LidarSweepGenerator(int beamCount, double horizontalResolutionDeg, double minElevationDeg,
+    double maxElevationDeg, double maxRange, double sensorHeight, int threadCount, int bufferCount) {
+    this.beamCount = Math.max(1, beamCount);
+    this.columnCount = Math.max(1, (int) Math.round(360.0 / horizontalResolutionDeg));
+    this.maxRange = maxRange;
+    this.sensorHeight = sensorHeight;
+
+    sinElevation = new double[this.beamCount];
+    cosElevation = new double[this.beamCount];
+    int closestToHorizontal = 0;
+    for (int beam = 0; beam < this.beamCount; beam++) {
+      double elevationDeg = this.beamCount == 1 ? minElevationDeg
+        : minElevationDeg + (maxElevationDeg - minElevationDeg) * beam / (this.beamCount - 1);
+      double elevation = Math.toRadians(elevationDeg);
+      sinElevation[beam] = Math.sin(elevation);
+      cosElevation[beam] = Math.cos(elevation);
+      if (Math.abs(sinElevation[beam]) < Math.abs(sinElevation[closestToHorizontal])) {
+        closestToHorizontal = beam;
+      }
+    }
+    scanBeam = closestToHorizontal;
+
+    sinAzimuth = new double[columnCount];
+    cosAzimuth = new double[columnCount];
+    for (int col = 0; col < columnCount; col++) {
+      double azimuth = getAngleMin() + col * getAngleIncrement();
+      sinAzimuth[col] = Math.sin(azimuth);
+      cosAzimuth[col] = Math.cos(azimuth);
+    }
+
+    sweeps = new Sweep[Math.max(1, bufferCount)];
+    for (int i = 0; i < sweeps.length; i++) {
+      sweeps[i] = new Sweep(this.beamCount * columnCount * POINT_STEP, columnCount);
+    }
+
+    chunkCount = Math.max(1, Math.min(threadCount, this.beamCount));
+    workers = Executors.newFixedThreadPool(chunkCount, new ThreadFactory() {
+      private int count = 0;
+
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "lidar_sweep_" + count++);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Fills the next buffer of the ring with a sweep of the scene
+   *
+   * @param timeSeconds The scene time of the sweep which positions the moving vehicle
+   * @return The generated sweep. Valid until the ring wraps back around to it
+   * @throws InterruptedException If the thread is interrupted while waiting on the workers
+   */
+  public Sweep generate(double timeSeconds) throws InterruptedException {
+    final Sweep sweep = sweeps[nextSweepIdx];
+    nextSweepIdx = (nextSweepIdx + 1) % sweeps.length;
+
+    // The lead vehicle drives back and forth in the lane ahead of the sensor
+    double leadX = 18.0 + 8.0 * Math.sin(0.3 * timeSeconds);
+    final double[][] vehicles = new double[PARKED_VEHICLES.length + 1][];
+    System.arraycopy(PARKED_VEHICLES, 0, vehicles, 0, PARKED_VEHICLES.length);
+    vehicles[PARKED_VEHICLES.length] = new double[] {
+      leadX - LEAD_VEHICLE_SIZE[0] / 2, -LEAD_VEHICLE_SIZE[1] / 2, 0.0,
+      leadX + LEAD_VEHICLE_SIZE[0] / 2, LEAD_VEHICLE_SIZE[1] / 2, LEAD_VEHICLE_SIZE[2]};
+
+    List<Callable<Void>> tasks = new ArrayList<>(chunkCount);
+    for (int chunk = 0; chunk < chunkCount; chunk++) {
+      final int firstBeam = chunk * beamCount / chunkCount;
+      final int lastBeam = (chunk + 1) * beamCount / chunkCount;
+      tasks.add(new Callable<Void>() {
+        @Override public Void call() {
+          fillBeams(sweep, vehicles, firstBeam, lastBeam);
+          return null;
+        }
+      });
+    }
+    for (Future<Void> result: workers.invokeAll(tasks)) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException("Lidar sweep generation failed", e.getCause());
+      }
+    }
+    return sweep;
+  }
+
+  /**
+   * Casts the beams in [firstBeam, lastBeam) for every column of the sweep
+   */
+  private void fillBeams(Sweep sweep, double[][] vehicles, int firstBeam, int lastBeam) {
+    ByteBuffer data = ByteBuffer.wrap(sweep.data).order(ByteOrder.LITTLE_ENDIAN);
+    for (int beam = firstBeam; beam < lastBeam; beam++) {
+      double dz = sinElevation[beam];
+      int index = beam * columnCount * POINT_STEP;
+      for (int col = 0; col < columnCount; col++, index += POINT_STEP) {
+        double dx = cosElevation[beam] * cosAzimuth[col];
+        double dy = cosElevation[beam] * sinAzimuth[col];
+
+        double range = maxRange;
+        float intensity = Float.NaN;
+
+        // Ground plane
+        if (dz < 0) {
+          double t = -sensorHeight / dz;
+          if (t < range) {
+            range = t;
+            intensity = GROUND_INTENSITY;
+          }
+        }
+        // Building walls on a circle around the sensor
+        double horizontal = cosElevation[beam];
+        if (horizontal > 1e-9) {
+          double t = WALL_RADIUS / horizontal;
+          double z = sensorHeight + t * dz;
+          if (t < range && z >= 0 && z <= WALL_HEIGHT) {
+            range = t;
+            intensity = WALL_INTENSITY;
+          }
+        }
+        // Vehicles
+        for (double[] box: vehicles) {
+          double t = intersectBox(box, dx, dy, dz);
+          if (t < range) {
+            range = t;
+            intensity = VEHICLE_INTENSITY;
+          }
+        }
+
+        if (Float.isNaN(intensity)) {
+          data.putFloat(index + X_OFFSET, Float.NaN);
+          data.putFloat(index + Y_OFFSET, Float.NaN);
+          data.putFloat(index + Z_OFFSET, Float.NaN);
+          data.putFloat(index + INTENSITY_OFFSET, 0.0f);
+        } else {
+          data.putFloat(index + X_OFFSET, (float) (range * dx));
+          data.putFloat(index + Y_OFFSET, (float) (range * dy));
+          data.putFloat(index + Z_OFFSET, (float) (range * dz));
+          data.putFloat(index + INTENSITY_OFFSET, intensity);
+        }
+        if (beam == scanBeam) {
+          sweep.ranges[col] = Float.isNaN(intensity) ? Float.POSITIVE_INFINITY : (float) range;
+          sweep.intensities[col] = Float.isNaN(intensity) ? 0.0f : intensity;
+        }
+      }
+    }
+  }
+
+  /**
+   * Slab intersection of a ray from the sensor with a box whose z is measured from the ground
+   * @return The distance along the ray to the box or positive infinity if it is missed
+   */
+  private double intersectBox(double[] box, double dx, double dy, double dz) {
+    double tNear = 0.0;
+    double tFar = Double.POSITIVE_INFINITY;
+    for (int axis = 0; axis < 3; axis++) {
+      double origin = axis == 2 ? sensorHeight : 0.0;
+      double direction = axis == 0 ? dx : axis == 1 ? dy : dz;
+      if (Math.abs(direction) < 1e-12) {
+        if (origin < box[axis] || origin > box[axis + 3]) {
+          return Double.POSITIVE_INFINITY;
+        }
+        continue;
+      }
+      double t1 = (box[axis] - origin) / direction;
+      double t2 = (box[axis + 3] - origin) / direction;
+      tNear = Math.max(tNear, Math.min(t1, t2));
+      tFar = Math.min(tFar, Math.max(t1, t2));
+      if (tNear > tFar) {
+        return Double.POSITIVE_INFINITY;
+      }
+    }
+    return tNear;
+  }
+
+  /**
+   * Stops the worker threads
+   */
+  public void shutdown() {
+    workers.shutdownNow();
+  }
+
+  public int getBeamCount() {
+    return beamCount;
+  }
+
+  public int getColumnCount() {
+    return columnCount;
+  }
+
+  public int getPointCount() {
+    return beamCount * columnCount;
+  }
+
+  public double getMaxRange() {
+    return maxRange;
+  }
+
+  public float getAngleMin() {
+    return (float) -Math.PI;
+  }
+
+  public float getAngleIncrement() {
+    return (float) (2 * Math.PI / columnCount);
+  }
+
+  /**
+   * A generated sweep. The point data is laid out as a PointCloud2 data field of beams by columns
+   */
+  public static class Sweep {
+    private final byte[] data;
+    private final float[] ranges;
+    private final float[] intensities;
+
+    Sweep(int byteCount, int columnCount) {
+      data = new byte[byteCount];
+      ranges = new float[columnCount];
+      intensities = new float[columnCount];
+    }
+
+    public byte[] getData() {
+      return data;
+    }
+
+    /**
+     * Gets the ranges of the beam closest to horizontal. Columns without a return hold positive infinity
+     */
+    public float[] getRanges() {
+      return ranges;
+    }
+
+    public float[] getIntensities() {
+      return intensities;
+    }
+  }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Replays a binary columnar replay file by memory mapping it.
+ * <p>
+ * Each column is mapped read only on its own and values are read directly from the mapped buffers,
+ * so there is no parsing cost and startup does not depend on file size. Because the mappings are backed by the
+ * page cache, several driver processes replaying the same file share a single copy of it in memory.
+ */
+public class MappedBinarySampleSource implements DataSampleSource {
+
+  private final long rowCount;
+  private final int sampleCount;
+  private final ColumnType[] types;
+  private final List<String> columnNames;
+  private final ByteBuffer sampleTable;
+  private final ByteBuffer[] columns;
+  private final ByteBuffer stringHeap;
+  private final MappedSample sample = new MappedSample();
+  private int nextSampleIdx = 0;
+
+  /**
+   * Opens and maps a binary replay file
+   *
+   * @param filePath The path to the file
+   * @param expectedColCount The number of columns the driver expects. 0 or less accepts any number of columns
+   * @throws IOException If the file could not be mapped or is not a valid replay file
+   */
+  public MappedBinarySampleSource(String filePath, int expectedColCount) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      ByteBuffer header = read(channel, 0, BinaryReplayFormat.HEADER_SIZE);
+      if (header.getInt() != BinaryReplayFormat.MAGIC) {
+        throw new IOException(filePath + " is not a binary replay file");
+      }
+      int version = header.getInt();
+      if (version != BinaryReplayFormat.VERSION) {
+        throw new IOException(filePath + " has unsupported replay format version " + version);
+      }
+      rowCount = header.getLong();
+      int colCount = header.getInt();
+      sampleCount = header.getInt();
+      long sampleTableOffset = header.getLong();
+      long heapOffset = header.getLong();
+      long heapLength = header.getLong();
+      if (expectedColCount > 0 && colCount != expectedColCount) {
+        throw new IOException(filePath + " has " + colCount + " columns but " + expectedColCount + " are required");
+      }
+
+      types = new ColumnType[colCount];
+      columns = new ByteBuffer[colCount];
+      List<String> names = new ArrayList<>(colCount);
+      long descriptorPos = BinaryReplayFormat.HEADER_SIZE;
+      for (int i = 0; i < colCount; i++) {
+        ByteBuffer descriptor = read(channel, descriptorPos, 1 + 8 + 2);
+        types[i] = ColumnType.fromCode(descriptor.get());
+        long colOffset = descriptor.getLong();
+        int nameLength = descriptor.getShort() & 0xFFFF;
+        ByteBuffer name = read(channel, descriptorPos + 11, nameLength);
+        names.add(new String(name.array(), 0, nameLength, StandardCharsets.UTF_8));
+        descriptorPos += 11 + nameLength;
+        columns[i] = map(channel, colOffset, rowCount * types[i].getWidth());
+      }
+      columnNames = Collections.unmodifiableList(names);
+      sampleTable = map(channel, sampleTableOffset, (long) sampleCount * 8);
+      stringHeap = map(channel, heapOffset, heapLength);
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(BinaryReplayFormat.BYTE_ORDER);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw new IOException("Binary replay file is truncated");
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Binary replay file region of " + length + " bytes is too large to map");
+    }
+    if (length == 0) {
+      return ByteBuffer.allocate(0).order(BinaryReplayFormat.BYTE_ORDER);
+    }
+    return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(BinaryReplayFormat.BYTE_ORDER);
+  }
+
+  /**
+   * Checks whether the provided file starts with the binary replay file magic number
+   *
+   * @param filePath The file to check
+   * @return True if the file is a binary replay file
+   * @throws IOException If the file could not be read
+   */
+  public static boolean isBinaryReplayFile(String filePath) throws IOException {
+    Path path = Paths.get(filePath);
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() < 4) {
+        return false;
+      }
+      return read(channel, 0, 4).getInt() == BinaryReplayFormat.MAGIC;
+    }
+  }
+
+  @Override public DataSample nextSample() {
+    if (sampleCount == 0) {
+      return null;
+    }
+    long firstRow = sampleTable.getLong(nextSampleIdx * 8);
+    long endRow = nextSampleIdx + 1 < sampleCount ? sampleTable.getLong((nextSampleIdx + 1) * 8) : rowCount;
+    nextSampleIdx = (nextSampleIdx + 1) % sampleCount;
+    sample.firstRow = (int) firstRow;
+    sample.rowCount = (int) (endRow - firstRow);
+    return sample;
+  }
+
+  @Override public boolean isAtFirstSample() {
+    return nextSampleIdx == 0;
+  }
+
+  @Override public List<String> getColumnNames() {
+    return columnNames;
+  }
+
+  @Override public void close() {
+    // Mappings are released when the buffers are garbage collected
+  }
+
+  /**
+   * View of the rows of the current sample in the mapped columns
+   */
+  private class MappedSample implements DataSample {
+    int firstRow;
+    int rowCount;
+
+    @Override public int getRowCount() {
+      return rowCount;
+    }
+
+    @Override public int getColCount() {
+      return types.length;
+    }
+
+    @Override public boolean getBoolean(int row, int col) {
+      switch (types[col]) {
+        case BOOLEAN:
+          return columns[col].get(firstRow + row) != 0;
+        case BYTE:
+        case DOUBLE:
+          return false; // Numbers are not boolean text, matching the csv sources
+        default:
+          return Boolean.parseBoolean(getString(row, col));
+      }
+    }
+
+    @Override public byte getByte(int row, int col) {
+      return (byte) ColumnType.checkRange(getLongValue(row, col), Byte.MIN_VALUE, Byte.MAX_VALUE, "byte");
+    }
+
+    @Override public short getShort(int row, int col) {
+      return (short) ColumnType.checkRange(getLongValue(row, col), Short.MIN_VALUE, Short.MAX_VALUE, "short");
+    }
+
+    @Override public int getInt(int row, int col) {
+      return (int) ColumnType.checkRange(getLongValue(row, col), Integer.MIN_VALUE, Integer.MAX_VALUE, "int");
+    }
+
+    private long getLongValue(int row, int col) {
+      switch (types[col]) {
+        case BYTE:
+          return columns[col].get(firstRow + row);
+        case DOUBLE:
+          return ColumnType.toLong(columns[col].getDouble((firstRow + row) * 8));
+        default:
+          return Long.parseLong(getString(row, col)); // Rejects boolean text as the csv sources do
+      }
+    }
+
+    @Override public double getDouble(int row, int col) {
+      switch (types[col]) {
+        case BYTE:
+          return columns[col].get(firstRow + row);
+        case DOUBLE:
+          return columns[col].getDouble((firstRow + row) * 8);
+        default:
+          return Double.parseDouble(getString(row, col)); // Rejects boolean text as the csv sources do
+      }
+    }
+
+    @Override public String getString(int row, int col) {
+      switch (types[col]) {
+        case BOOLEAN:
+          return Boolean.toString(getBoolean(row, col));
+        case BYTE:
+          return Byte.toString(getByte(row, col));
+        case DOUBLE:
+          return ColumnType.formatDouble(getDouble(row, col));
+        default:
+          int offset = (int) columns[col].getLong((firstRow + row) * 8);
+          int length = stringHeap.getInt(offset);
+          byte[] bytes = new byte[length];
+          for (int i = 0; i < length; i++) {
+            bytes[i] = stringHeap.get(offset + 4 + i);
+          }
+          return new String(bytes, StandardCharsets.UTF_8);
+      }
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Replays a directory of binary point files, one file per lidar sweep, in file name order.
+ * <p>
+ * Files use the KITTI velodyne layout of x, y, z and intensity as little endian 32 bit floats per point, which is
+ * the point layout of LidarSweepGenerator. Each file is memory mapped so its bytes can back a PointCloud2 data
+ * field directly without parsing the points. A background thread maps the upcoming files and loads their pages
+ * into memory ahead of the consumer. A stall is counted whenever the consumer needs a file which is not loaded
+ * yet, except for the very first one.
+ */
+public class MappedPointFileSource implements Closeable {
+
+  public static final String FILE_EXTENSION = ".bin";
+
+  private final File[] files;
+  private final int prefetchDepth;
+  private final ExecutorService prefetchExecutor;
+  private final Deque<Future<MappedByteBuffer>> pending = new ArrayDeque<>();
+  private int nextFileIdx = 0;
+  private int nextPrefetchIdx = 0;
+  private boolean firstRequest = true;
+  private long stallCount = 0;
+  private long stallNanos = 0;
+
+  /**
+   * Constructor starts mapping the first files of the directory
+   *
+   * @param directory The directory holding the point files
+   * @param prefetchDepth The number of files mapped and loaded ahead of the consumer
+   * @param threadName The name of the prefetch thread
+   * @throws IOException If the directory holds no point files
+   */
+  public MappedPointFileSource(String directory, int prefetchDepth, String threadName) throws IOException {
+    File[] found = new File(directory).listFiles(new FilenameFilter() {
+      @Override public boolean accept(File dir, String name) {
+        return name.endsWith(FILE_EXTENSION);
+      }
+    });
+    if (found == null || found.length == 0) {
+      throw new IOException(directory + " holds no " + FILE_EXTENSION + " point files");
+    }
+    Arrays.sort(found);
+    this.files = found;
+    this.prefetchDepth = Math.max(1, prefetchDepth);
+    this.prefetchExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, threadName);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    for (int i = 0; i < this.prefetchDepth; i++) {
+      schedulePrefetch();
+    }
+  }
+
+  /**
+   * Starts mapping the next file in the cycle on the prefetch thread
+   */
+  private void schedulePrefetch() {
+    final File file = files[nextPrefetchIdx];
+    nextPrefetchIdx = (nextPrefetchIdx + 1) % files.length;
+    pending.addLast(prefetchExecutor.submit(new Callable<MappedByteBuffer>() {
+      @Override public MappedByteBuffer call() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+          MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+          buffer.order(ByteOrder.LITTLE_ENDIAN);
+          buffer.load();
+          return buffer;
+        }
+      }
+    }));
+  }
+
+  /**
+   * Gets the points of the next sweep, wrapping back to the first file after the last
+   *
+   * @return The mapped file positioned at its first point in little endian order
+   * @throws IOException If the file could not be mapped
+   * @throws InterruptedException If the thread is interrupted while waiting on the prefetch thread
+   */
+  public MappedByteBuffer nextSweep() throws IOException, InterruptedException {
+    Future<MappedByteBuffer> head = pending.removeFirst();
+    nextFileIdx = (nextFileIdx + 1) % files.length;
+    schedulePrefetch();
+    long start = System.nanoTime();
+    boolean stalled = !head.isDone() && !firstRequest;
+    firstRequest = false;
+    try {
+      return head.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    } finally {
+      if (stalled) {
+        stallCount++;
+        stallNanos += System.nanoTime() - start;
+      }
+    }
+  }
+
+  /**
+   * Returns true if the next call to nextSweep returns the first file of the directory
+   */
+  public boolean isAtFirstSweep() {
+    return nextFileIdx == 0;
+  }
+
+  /**
+   * Gets the number of point files in the directory
+   */
+  public int getFileCount() {
+    return files.length;
+  }
+
+  public int getPrefetchDepth() {
+    return prefetchDepth;
+  }
+
+  public long getStallCount() {
+    return stallCount;
+  }
+
+  public long getStallNanos() {
+    return stallNanos;
+  }
+
+  @Override public void close() {
+    prefetchExecutor.shutdownNow();
+    pending.clear();
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.MessageFactory;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Supplies the elements of a list field, such as the tracks of a track array, for messages taken from a
+ * MessagePool.
+ * <p>
+ * Each owning message keeps every element it has ever needed, so refilling a reused message with the same or a
+ * smaller number of elements allocates nothing. The list handed out is a view of the first count elements of the
+ * owner's storage. Elements still hold the values of their previous use. When pooling is disabled every call
+ * creates new elements, matching a MessagePool of depth 0.
+ *
+ * @param <E> The element message type
+ */
+public class MessageListPool<E> {
+
+  private final MessageFactory messageFactory;
+  private final String elementType;
+  private final boolean pooled;
+  private final Map<Object, ArrayList<E>> storage = new IdentityHashMap<>();
+
+  /**
+   * Constructor
+   *
+   * @param messageFactory The factory used to create elements
+   * @param elementType The ROS type of the elements
+   * @param pooled False to create new elements on every call
+   */
+  public MessageListPool(MessageFactory messageFactory, String elementType, boolean pooled) {
+    this.messageFactory = messageFactory;
+    this.elementType = elementType;
+    this.pooled = pooled;
+  }
+
+  /**
+   * Gets the elements for an owning message
+   *
+   * @param owner The message which will hold the list. It should come from a MessagePool when pooling is enabled
+   * @param count The number of elements needed
+   * @return A list of count elements
+   */
+  public List<E> elements(Object owner, int count) {
+    if (!pooled) {
+      List<E> fresh = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) {
+        fresh.add(messageFactory.<E>newFromType(elementType));
+      }
+      return fresh;
+    }
+    ArrayList<E> stored = storage.get(owner);
+    if (stored == null) {
+      stored = new ArrayList<>(count);
+      storage.put(owner, stored);
+    }
+    while (stored.size() < count) {
+      stored.add(messageFactory.<E>newFromType(elementType));
+    }
+    return stored.subList(0, count);
+  }
+}
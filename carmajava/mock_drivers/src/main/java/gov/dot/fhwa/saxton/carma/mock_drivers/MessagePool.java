@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.node.topic.Publisher;
+
+/**
+ * Hands out message instances for a publisher from a fixed ring so a driver can repopulate them every cycle
+ * instead of allocating new ones.
+ * <p>
+ * Publishing only queues a message. It is serialized later on a publisher thread, so an instance must not be
+ * refilled until the publisher has written it out. The ring depth therefore needs to exceed the number of messages
+ * which can be waiting on the publisher. A depth of 0 disables pooling and every call to next returns a new message.
+ *
+ * @param <T> The message type of the publisher
+ */
+public class MessagePool<T> {
+
+  private final Publisher<T> publisher;
+  private final Object[] messages;
+  private int nextIdx = 0;
+
+  /**
+   * Constructor preallocates the messages of the pool
+   *
+   * @param publisher The publisher which will be used to create and send the messages
+   * @param depth The number of messages in the ring. 0 disables pooling
+   */
+  public MessagePool(Publisher<T> publisher, int depth) {
+    this.publisher = publisher;
+    this.messages = new Object[Math.max(0, depth)];
+    for (int i = 0; i < messages.length; i++) {
+      messages[i] = publisher.newMessage();
+    }
+  }
+
+  /**
+   * Gets the next message to fill. Pooled messages still hold the values of their previous use
+   * @return A message which may be populated and published
+   */
+  @SuppressWarnings("unchecked")
+  public T next() {
+    if (messages.length == 0) {
+      return publisher.newMessage();
+    }
+    T message = (T) messages[nextIdx];
+    nextIdx = (nextIdx + 1) % messages.length;
+    return message;
+  }
+
+  /**
+   * Returns true if messages are reused rather than newly allocated
+   */
+  public boolean isPooled() {
+    return messages.length > 0;
+  }
+}
@@ -16,6 +16,8 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import diagnostic_msgs.KeyValue;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 import java.util.ArrayList;
@@ -30,6 +32,9 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'can'
  * rosparam set /mock_driver/data_file_path '/home/username/temp.csv'
  * rosrun carmajava mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * When the publish_on_change parameter is set each topic is only published when its value changes or when its
+ * heartbeat interval has passed since it was last sent.
  */
 public class MockCANDriver extends AbstractMockDriver {
 
@@ -52,6 +57,26 @@ public class MockCANDriver extends AbstractMockDriver {
   final Publisher<std_msgs.Bool> stabilityActivePub;
   final Publisher<std_msgs.Bool> stabilityEnabledPub;
 
+  // Reusable messages
+  final MessagePool<std_msgs.Bool> accPool;
+  final MessagePool<std_msgs.Float64> accelPool;
+  final MessagePool<std_msgs.Bool> brakeLightsPool;
+  final MessagePool<std_msgs.Float64> brakePositionPool;
+  final MessagePool<std_msgs.Float64> engineSpeedPool;
+  final MessagePool<std_msgs.Float64> fuelFlowPool;
+  final MessagePool<std_msgs.Float64> odometryPool;
+  final MessagePool<std_msgs.Bool> parkingBrakePool;
+  final MessagePool<std_msgs.Float64> speedPool;
+  final MessagePool<std_msgs.Float64> steeringPool;
+  final MessagePool<std_msgs.Float64> throttlePool;
+  final MessagePool<cav_msgs.TurnSignal> turnSignalPool;
+  final MessagePool<j2735_msgs.TransmissionState> transmissionPool;
+  final MessagePool<std_msgs.Bool> tractionActivePool;
+  final MessagePool<std_msgs.Bool> tractionEnabledPool;
+  final MessagePool<std_msgs.Bool> antilockBrakePool;
+  final MessagePool<std_msgs.Bool> stabilityActivePool;
+  final MessagePool<std_msgs.Bool> stabilityEnabledPool;
+
   final short EXPECTED_DATA_COL_COUNT = 19;
 
   private final short SAMPLE_ID_IDX = 0;
@@ -74,8 +99,17 @@ public class MockCANDriver extends AbstractMockDriver {
   private final short STABILITY_ACTIVE_IDX = 17;
   private final short STABILITY_ENABLED_IDX = 18;
 
-  public MockCANDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  // Publish on change
+  final boolean publishOnChange;
+  final int defaultHeartbeatMs;
+  final PublishOnChangeFilter[] changeFilters = new PublishOnChangeFilter[EXPECTED_DATA_COL_COUNT];
+
+  // Data file column of each value indexed by its column in the default layout
+  final int[] dataCols = new int[EXPECTED_DATA_COL_COUNT];
+  private long lastCountReportTime = 0;
+
+  public MockCANDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     accPub = connectedNode.newPublisher("can/acc_engaged", std_msgs.Bool._TYPE);
@@ -96,73 +130,213 @@ public class MockCANDriver extends AbstractMockDriver {
     antilockBrakePub = connectedNode.newPublisher("can/antilock_brakes_active", std_msgs.Bool._TYPE);
     stabilityActivePub = connectedNode.newPublisher("can/stability_ctrl_active", std_msgs.Bool._TYPE);
     stabilityEnabledPub = connectedNode.newPublisher("can/stability_ctrl_enabled", std_msgs.Bool._TYPE);
+
+    // Messages
+    accPool = newMessagePool(accPub);
+    accelPool = newMessagePool(accelPub);
+    brakeLightsPool = newMessagePool(brakeLightsPub);
+    brakePositionPool = newMessagePool(brakePositionPub);
+    engineSpeedPool = newMessagePool(engineSpeedPub);
+    fuelFlowPool = newMessagePool(fuelFlowPub);
+    odometryPool = newMessagePool(odometryPub);
+    parkingBrakePool = newMessagePool(parkingBrakePub);
+    speedPool = newMessagePool(speedPub);
+    steeringPool = newMessagePool(steeringPub);
+    throttlePool = newMessagePool(throttlePub);
+    turnSignalPool = newMessagePool(turnSignalPub);
+    transmissionPool = newMessagePool(transmissionPub);
+    tractionActivePool = newMessagePool(tractionActivePub);
+    tractionEnabledPool = newMessagePool(tractionEnabledPub);
+    antilockBrakePool = newMessagePool(antilockBrakePub);
+    stabilityActivePool = newMessagePool(stabilityActivePub);
+    stabilityEnabledPool = newMessagePool(stabilityEnabledPub);
+
+    // Change filters
+    publishOnChange = params.getBoolean(privateName("publish_on_change"), false);
+    defaultHeartbeatMs = params.getInteger(privateName("heartbeat_ms"), 1000);
+    addChangeFilter(ACC_IDX, "acc_engaged");
+    addChangeFilter(ACCEL_IDX, "acceleration");
+    addChangeFilter(BRAKE_LIGHTS_IDX, "brake_lights");
+    addChangeFilter(BRAKE_POS_IDX, "brake_position");
+    addChangeFilter(ENGINE_SPEED_IDX, "engine_speed");
+    addChangeFilter(FUEL_FLOW_IDX, "fuel_flow");
+    addChangeFilter(ODOMETRY_IDX, "odometer");
+    addChangeFilter(PARKING_BRAKE_IDX, "parking_brake");
+    addChangeFilter(SPEED_IDX, "speed");
+    addChangeFilter(STEERING_IDX, "steering_wheel_angle");
+    addChangeFilter(THROTTLE_IDX, "throttle_position");
+    addChangeFilter(TURN_SIGNAL_STATE_IDX, "turn_signal_state");
+    addChangeFilter(TRANSMISSION_STATE_IDX, "transmission_state");
+    addChangeFilter(TRACTION_ACTIVE_IDX, "traction_ctrl_active");
+    addChangeFilter(TRACTION_ENABLED_IDX, "traction_ctrl_enabled");
+    addChangeFilter(ANTILOCK_BRAKE_IDX, "antilock_brakes_active");
+    addChangeFilter(STABILITY_ACTIVE_IDX, "stability_ctrl_active");
+    addChangeFilter(STABILITY_ENABLED_IDX, "stability_ctrl_enabled");
+  }
+
+  @Override protected void publishData(DataSample sample) {
+    long now = getClockNanos();
+    for (int row = 0; row < sample.getRowCount(); row++) {
+      publishBool(accPub, accPool, sample, row, ACC_IDX, now);
+      publishFloat64(accelPub, accelPool, sample, row, ACCEL_IDX, now);
+      publishBool(brakeLightsPub, brakeLightsPool, sample, row, BRAKE_LIGHTS_IDX, now);
+      publishFloat64(brakePositionPub, brakePositionPool, sample, row, BRAKE_POS_IDX, now);
+      publishFloat64(engineSpeedPub, engineSpeedPool, sample, row, ENGINE_SPEED_IDX, now);
+      publishFloat64(fuelFlowPub, fuelFlowPool, sample, row, FUEL_FLOW_IDX, now);
+      publishFloat64(odometryPub, odometryPool, sample, row, ODOMETRY_IDX, now);
+      publishBool(parkingBrakePub, parkingBrakePool, sample, row, PARKING_BRAKE_IDX, now);
+      publishFloat64(speedPub, speedPool, sample, row, SPEED_IDX, now);
+      publishFloat64(steeringPub, steeringPool, sample, row, STEERING_IDX, now);
+      publishFloat64(throttlePub, throttlePool, sample, row, THROTTLE_IDX, now);
+
+      if (dataCols[TURN_SIGNAL_STATE_IDX] >= 0) {
+        byte turnSignal = sample.getByte(row, dataCols[TURN_SIGNAL_STATE_IDX]);
+        if (changeFilters[TURN_SIGNAL_STATE_IDX].shouldPublish(turnSignal, now)) {
+          cav_msgs.TurnSignal turnSignalState = turnSignalPool.next();
+          turnSignalState.setState(turnSignal);
+          publish(turnSignalPub, turnSignalState);
+        }
+      }
+
+      if (dataCols[TRANSMISSION_STATE_IDX] >= 0) {
+        byte transmission = sample.getByte(row, dataCols[TRANSMISSION_STATE_IDX]);
+        if (changeFilters[TRANSMISSION_STATE_IDX].shouldPublish(transmission, now)) {
+          j2735_msgs.TransmissionState transmissionState = transmissionPool.next();
+          transmissionState.setTransmissionState(transmission);
+          publish(transmissionPub, transmissionState);
+        }
+      }
+
+      publishBool(tractionActivePub, tractionActivePool, sample, row, TRACTION_ACTIVE_IDX, now);
+      publishBool(tractionEnabledPub, tractionEnabledPool, sample, row, TRACTION_ENABLED_IDX, now);
+      publishBool(antilockBrakePub, antilockBrakePool, sample, row, ANTILOCK_BRAKE_IDX, now);
+      publishBool(stabilityActivePub, stabilityActivePool, sample, row, STABILITY_ACTIVE_IDX, now);
+      publishBool(stabilityEnabledPub, stabilityEnabledPool, sample, row, STABILITY_ENABLED_IDX, now);
+    }
+    if (publishOnChange) {
+      reportPublishCounts();
+    }
   }
 
-  @Override protected void publishData(List<String[]> data) {
-
-    for (String[] elements : data) {
-      // Make messages
-      std_msgs.Bool acc = accPub.newMessage();
-      std_msgs.Float64 accel = accelPub.newMessage();
-      std_msgs.Bool brakeLights = brakeLightsPub.newMessage();
-      std_msgs.Float64 brakePos = brakePositionPub.newMessage();
-      std_msgs.Float64 engineSpeed = engineSpeedPub.newMessage();
-      std_msgs.Float64 fuelFlow = fuelFlowPub.newMessage();
-      std_msgs.Float64 odometry = odometryPub.newMessage();
-      std_msgs.Bool parkingBrake = parkingBrakePub.newMessage();
-      std_msgs.Float64 speed = speedPub.newMessage();
-      std_msgs.Float64 steering = steeringPub.newMessage();
-      std_msgs.Float64 throttle = throttlePub.newMessage();
-      cav_msgs.TurnSignal turnSignalState = turnSignalPub.newMessage();
-      j2735_msgs.TransmissionState transmissionState = transmissionPub.newMessage();
-      std_msgs.Bool tractionActiveState = tractionActivePub.newMessage();
-      std_msgs.Bool tractionEnabledState = tractionEnabledPub.newMessage();
-      std_msgs.Bool antilockState = antilockBrakePub.newMessage();
-      std_msgs.Bool stabilityActiveState = stabilityActivePub.newMessage();
-      std_msgs.Bool stabilityEnabledState = stabilityEnabledPub.newMessage();
-
-      // Set Data
-      acc.setData(Boolean.parseBoolean(elements[ACC_IDX]));
-      accel.setData(Float.parseFloat(elements[ACCEL_IDX]));
-      brakeLights.setData(Boolean.parseBoolean(elements[BRAKE_LIGHTS_IDX]));
-      brakePos.setData(Float.parseFloat(elements[BRAKE_POS_IDX]));
-      engineSpeed.setData(Float.parseFloat(elements[ENGINE_SPEED_IDX]));
-      fuelFlow.setData(Float.parseFloat(elements[FUEL_FLOW_IDX]));
-      odometry.setData(Float.parseFloat(elements[ODOMETRY_IDX]));
-      parkingBrake.setData(Boolean.parseBoolean(elements[PARKING_BRAKE_IDX]));
-      speed.setData(Float.parseFloat(elements[SPEED_IDX]));
-      steering.setData(Float.parseFloat(elements[STEERING_IDX]));
-      throttle.setData(Float.parseFloat(elements[THROTTLE_IDX]));
-      turnSignalState.setState(Byte.parseByte(elements[TURN_SIGNAL_STATE_IDX]));
-      transmissionState.setTransmissionState(Byte.parseByte(elements[TRANSMISSION_STATE_IDX]));
-      tractionActiveState.setData(Boolean.parseBoolean(elements[TRACTION_ACTIVE_IDX]));
-      tractionEnabledState.setData(Boolean.parseBoolean(elements[TRACTION_ENABLED_IDX]));
-      antilockState.setData(Boolean.parseBoolean(elements[ANTILOCK_BRAKE_IDX]));
-      stabilityActiveState.setData(Boolean.parseBoolean(elements[STABILITY_ACTIVE_IDX]));
-      stabilityEnabledState.setData(Boolean.parseBoolean(elements[STABILITY_ENABLED_IDX]));
-      
-      // Publish Data
-      accPub.publish(acc);
-      accelPub.publish(accel);
-      brakeLightsPub.publish(brakeLights);
-      brakePositionPub.publish(brakePos);
-      engineSpeedPub.publish(engineSpeed);
-      fuelFlowPub.publish(fuelFlow);
-      odometryPub.publish(odometry);
-      parkingBrakePub.publish(parkingBrake);
-      speedPub.publish(speed);
-      steeringPub.publish(steering);
-      throttlePub.publish(throttle);
-      turnSignalPub.publish(turnSignalState);
-      transmissionPub.publish(transmissionState);
-      tractionActivePub.publish(tractionActiveState);
-      tractionEnabledPub.publish(tractionEnabledState);
-      antilockBrakePub.publish(antilockState);
-      stabilityActivePub.publish(stabilityActiveState);
-      stabilityEnabledPub.publish(stabilityEnabledState);
+  /**
+   * Publishes a boolean column if the data file has it and its change filter allows it
+   */
+  private void publishBool(Publisher<std_msgs.Bool> pub, MessagePool<std_msgs.Bool> pool,
+    DataSample sample, int row, short col, long now) {
+    if (dataCols[col] < 0) {
+      return;
+    }
+    boolean value = sample.getBoolean(row, dataCols[col]);
+    if (changeFilters[col].shouldPublish(value, now)) {
+      std_msgs.Bool msg = pool.next();
+      msg.setData(value);
+      publish(pub, msg);
+    }
+  }
+
+  /**
+   * Publishes a floating point column if the data file has it and its change filter allows it
+   */
+  private void publishFloat64(Publisher<std_msgs.Float64> pub, MessagePool<std_msgs.Float64> pool,
+    DataSample sample, int row, short col, long now) {
+    if (dataCols[col] < 0) {
+      return;
+    }
+    double value = sample.getDouble(row, dataCols[col]);
+    if (changeFilters[col].shouldPublish(value, now)) {
+      std_msgs.Float64 msg = pool.next();
+      msg.setData(value);
+      publish(pub, msg);
     }
   }
 
+  @Override protected void bindColumns(ColumnLayout layout) {
+    resolveColumn(layout, ACC_IDX, "acc enabled");
+    resolveColumn(layout, ACCEL_IDX, "acceleration");
+    resolveColumn(layout, BRAKE_LIGHTS_IDX, "brake lights enabled");
+    resolveColumn(layout, BRAKE_POS_IDX, "brake position");
+    resolveColumn(layout, ENGINE_SPEED_IDX, "engine speed");
+    resolveColumn(layout, FUEL_FLOW_IDX, "fuel flow");
+    resolveColumn(layout, ODOMETRY_IDX, "odometry");
+    resolveColumn(layout, PARKING_BRAKE_IDX, "parking brake enabled");
+    resolveColumn(layout, SPEED_IDX, "speed");
+    resolveColumn(layout, STEERING_IDX, "steering wheel angle");
+    resolveColumn(layout, THROTTLE_IDX, "throttle");
+    resolveColumn(layout, TURN_SIGNAL_STATE_IDX, "turn signal state");
+    resolveColumn(layout, TRANSMISSION_STATE_IDX, "transmission state");
+    resolveColumn(layout, TRACTION_ACTIVE_IDX, "traction active state");
+    resolveColumn(layout, TRACTION_ENABLED_IDX, "traction enabled state");
+    resolveColumn(layout, ANTILOCK_BRAKE_IDX, "antilock brake state");
+    resolveColumn(layout, STABILITY_ACTIVE_IDX, "stability active state");
+    resolveColumn(layout, STABILITY_ENABLED_IDX, "stability enabled state");
+  }
+
+  /**
+   * Finds the data file column holding a value, falling back to its position in the default layout when the file
+   * does not name the column there. Topics whose column cannot be found are not published
+   * @param layout The columns of the data file
+   * @param col The column of the value in the default layout
+   * @param name The header name of the column
+   */
+  private void resolveColumn(ColumnLayout layout, short col, String name) {
+    dataCols[col] = layout.resolve(name, col);
+    if (dataCols[col] < 0) {
+      log.warn(getGraphName() + " data file has no " + name + " column. " + changeFilters[col].getTopic()
+        + " will not be published");
+    }
+  }
+
+  /**
+   * Creates the change filter of a column. Its heartbeat is read from topic_heartbeat_ms/topicName, falling back
+   * to the heartbeat_ms parameter
+   * @param col The data column published on the topic
+   * @param topicName The topic name relative to the can namespace
+   */
+  private void addChangeFilter(short col, String topicName) {
+    int heartbeatMs = params.getInteger(privateName("topic_heartbeat_ms/" + topicName), defaultHeartbeatMs);
+    changeFilters[col] = new PublishOnChangeFilter("can/" + topicName, publishOnChange, heartbeatMs * 1000000L);
+  }
+
+  @Override protected void addDiagnosticValues(List<KeyValue> values) {
+    super.addDiagnosticValues(values);
+    if (!publishOnChange) {
+      return;
+    }
+    long suppressed = 0;
+    for (PublishOnChangeFilter filter: changeFilters) {
+      if (filter != null) {
+        suppressed += filter.getSuppressedCount();
+      }
+    }
+    addDiagnosticValue(values, "suppressed_messages", Long.toString(suppressed));
+  }
+
+  /**
+   * Logs the sent and suppressed message counts of every topic at most once every 10 seconds
+   */
+  private void reportPublishCounts() {
+    long now = System.currentTimeMillis();
+    if (now - lastCountReportTime < 10000) {
+      return;
+    }
+    lastCountReportTime = now;
+    StringBuilder report = new StringBuilder(getGraphName().toString()).append(" publish on change counts (sent/suppressed):");
+    for (PublishOnChangeFilter filter: changeFilters) {
+      if (filter != null) {
+        report.append(' ').append(filter.getTopic()).append('=').append(filter.getSentCount())
+          .append('/').append(filter.getSuppressedCount());
+      }
+    }
+    log.info(report.toString());
+  }
+
+  /**
+   * Gets the change filters of the published topics indexed by data column. The sample id column has no filter
+   */
+  public PublishOnChangeFilter[] getChangeFilters() {
+    return changeFilters;
+  }
+
   @Override protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
   }
@@ -16,10 +16,15 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import diagnostic_msgs.KeyValue;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,6 +37,16 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'camera'
  * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/pinpoint_stationary.csv'
  * rosrun carma mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * By default the driver publishes from its data file as before. With the camera_source parameter set to synthetic no
+ * data file is read. Frames are pre-rendered by a
+ * CameraFrameGenerator at the size and encoding set by camera_width, camera_height and camera_encoding, and
+ * camera_frame_count of them are replayed in a loop at publish_rate. The camera_info published alongside each frame
+ * describes an ideal pinhole camera with the horizontal field of view camera_fov_deg.
+ * <p>
+ * With camera_source set to image_files, data_file_path names a directory of numbered PNG or JPEG frames which are
+ * decoded ahead of publishing by an ImageSequenceSource and converted to camera_encoding. Frames are published at
+ * publish_rate when it is set and otherwise at the rate recorded in the sequence's timestamps.txt.
  */
 public class MockCameraDriver extends AbstractMockDriver {
 
@@ -41,31 +56,245 @@ public class MockCameraDriver extends AbstractMockDriver {
   final Publisher<sensor_msgs.CameraInfo> infoPub;
   final String imageTopic = "camera/1/image_raw";
   final String infoTopic = "camera/1/camera_info";
+  private final String frameId = "camera";
 
   private final short EXPECTED_DATA_COL_COUNT = 132; // TODO
   private final short SAMPLE_ID_IDX = 1;
 
-  public MockCameraDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  // Synthetic frames
+  final String cameraSource;
+  protected CameraFrameGenerator frameGenerator = null;
+  private double[] intrinsics = new double[9];
+  private double[] projection = new double[12];
+  private final double[] rectification = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+  private final double[] distortion = new double[5];
+  private int intrinsicsWidth = 0;
+  private int intrinsicsHeight = 0;
+
+  // Recorded frames
+  protected ImageSequenceSource imageFrames = null;
+  private long lastDecodeReportTime = 0;
+  private long reportedDroppedCount = 0;
+
+  public MockCameraDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     imagePub =
       connectedNode.newPublisher(imageTopic, sensor_msgs.Image._TYPE);
     infoPub =
       connectedNode.newPublisher(infoTopic, sensor_msgs.CameraInfo._TYPE);
+
+    cameraSource = params.getString(privateName("camera_source"), "data_file");
+  }
+
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (cameraSource.equals("image_files")) {
+      int threads = params.getInteger(privateName("camera_decode_threads"), Runtime.getRuntime().availableProcessors());
+      try {
+        imageFrames = new ImageSequenceSource(dataFilePath, params.getString(privateName("camera_encoding"), "rgb8"),
+          threads, params.getInteger(privateName("camera_decode_queue_depth"), 2 * threads),
+          getGraphName() + "_frame_decode");
+      } catch (IOException | IllegalArgumentException e) {
+        log.warn(getGraphName() + " could not open frames in " + dataFilePath + ". No data published "
+          + e.getMessage());
+        setDriverStatus(cav_msgs.DriverStatus.DEGRADED);
+        return;
+      }
+      log.info(getGraphName() + " replaying " + imageFrames.getFileCount() + " frames from " + dataFilePath
+        + " with a recorded rate of " + imageFrames.getRecordedFrameRate() + " Hz");
+      setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+      return;
+    }
+    if (!cameraSource.equals("synthetic")) {
+      super.onStart(connectedNode);
+      return;
+    }
+    try {
+      frameGenerator = new CameraFrameGenerator(
+        params.getInteger(privateName("camera_width"), 1920),
+        params.getInteger(privateName("camera_height"), 1080),
+        params.getString(privateName("camera_encoding"), "rgb8"),
+        params.getInteger(privateName("camera_frame_count"), 8));
+    } catch (IllegalArgumentException e) {
+      log.warn(getGraphName() + " could not generate camera frames. No data published " + e.getMessage());
+      setDriverStatus(cav_msgs.DriverStatus.DEGRADED);
+      return;
+    }
+    setPinholeModel(frameGenerator.getWidth(), frameGenerator.getHeight(),
+      params.getDouble(privateName("camera_fov_deg"), 60.0));
+    log.info(getGraphName() + " generating synthetic " + frameGenerator.getWidth() + "x" + frameGenerator.getHeight()
+      + " " + frameGenerator.getEncoding() + " frames");
+    setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+  }
+
+  /**
+   * Computes the intrinsic and projection matrices of a distortion free camera centered on the image
+   *
+   * @param width The image width in pixels
+   * @param height The image height in pixels
+   * @param fovDeg The horizontal field of view in degrees
+   */
+  private void setPinholeModel(int width, int height, double fovDeg) {
+    intrinsicsWidth = width;
+    intrinsicsHeight = height;
+    double focal = width / (2.0 * Math.tan(Math.toRadians(fovDeg) / 2.0));
+    double cx = (width - 1) / 2.0;
+    double cy = (height - 1) / 2.0;
+    // New arrays as messages already published may still be serialized from the old ones
+    intrinsics = new double[9];
+    projection = new double[12];
+    intrinsics[0] = focal;
+    intrinsics[2] = cx;
+    intrinsics[4] = focal;
+    intrinsics[5] = cy;
+    intrinsics[8] = 1.0;
+    projection[0] = focal;
+    projection[2] = cx;
+    projection[5] = focal;
+    projection[6] = cy;
+    projection[10] = 1.0;
+  }
+
+  @Override public void readAndPublishData() {
+    long start = System.nanoTime();
+    if (frameGenerator != null) {
+      publishSyntheticFrame();
+    } else if (imageFrames != null) {
+      publishRecordedFrame();
+    } else {
+      super.readAndPublishData();
+      return;
+    }
+    metrics.recordGeneratedSample(System.nanoTime() - start);
+  }
+
+  @Override protected void addDiagnosticValues(List<KeyValue> values) {
+    super.addDiagnosticValues(values);
+    if (imageFrames != null) {
+      addDiagnosticValue(values, "decode_mean_us", Long.toString(imageFrames.getMeanDecodeNanos() / 1000));
+      addDiagnosticValue(values, "decode_max_us", Long.toString(imageFrames.getMaxDecodeNanos() / 1000));
+      addDiagnosticValue(values, "decode_ready", imageFrames.getReadyFrameCount() + "/" + imageFrames.getQueueDepth());
+      addDiagnosticValue(values, "dropped_frames", Long.toString(imageFrames.getDroppedFrameCount()));
+    }
+  }
+
+  /**
+   * Publishes the next pre-rendered frame and the matching camera info
+   */
+  private void publishSyntheticFrame() {
+    // Frames are wrapped rather than copied. The generator never modifies a frame after rendering it
+    publishImage(frameGenerator.getWidth(), frameGenerator.getHeight(), frameGenerator.getEncoding(),
+      frameGenerator.getStep(), frameGenerator.nextFrame());
   }
 
-  @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
+  /**
+   * Publishes the next decoded frame of the image sequence if the decode threads have produced it
+   */
+  private void publishRecordedFrame() {
+    ImageSequenceSource.Frame frame;
+    try {
+      frame = imageFrames.nextFrame();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (IOException e) {
+      imageFrames.close();
+      imageFrames = null;
+      log.warn(getGraphName() + " failed to decode frame. No data will be published " + e.getMessage());
+      setDriverStatus(cav_msgs.DriverStatus.FAULT);
+      return;
+    }
+    reportDecodeStats();
+    if (frame == null) {
+      return;
+    }
+    if (frame.getWidth() != intrinsicsWidth || frame.getHeight() != intrinsicsHeight) {
+      setPinholeModel(frame.getWidth(), frame.getHeight(), params.getDouble(privateName("camera_fov_deg"), 60.0));
+    }
+    publishImage(frame.getWidth(), frame.getHeight(), imageFrames.getEncoding(), imageFrames.getStep(frame),
+      frame.getData());
+  }
+
+  /**
+   * Logs decode latency, decoded frames waiting and frames dropped because decoding fell behind.
+   * Reports are limited to one every 10 seconds
+   */
+  private void reportDecodeStats() {
+    long now = System.currentTimeMillis();
+    if (now - lastDecodeReportTime < 10000) {
+      return;
+    }
+    String stats = getGraphName() + " decoded " + imageFrames.getDecodeCount() + " frames in a mean of "
+      + imageFrames.getMeanDecodeNanos() / 1000000.0 + " ms and a max of " + imageFrames.getMaxDecodeNanos() / 1000000.0
+      + " ms. " + imageFrames.getReadyFrameCount() + " of " + imageFrames.getQueueDepth() + " queued frames ready. "
+      + imageFrames.getDroppedFrameCount() + " frames dropped";
+    if (imageFrames.getDroppedFrameCount() != reportedDroppedCount) {
+      log.warn(stats);
+    } else {
+      log.info(stats);
+    }
+    reportedDroppedCount = imageFrames.getDroppedFrameCount();
+    lastDecodeReportTime = now;
+  }
+
+  /**
+   * Publishes a frame and the matching camera info
+   */
+  private void publishImage(int width, int height, String encoding, int step, byte[] pixels) {
+    Time time = getCurrentTime();
+
+    sensor_msgs.Image image = imagePub.newMessage();
+    image.getHeader().setFrameId(frameId);
+    image.getHeader().setStamp(time);
+    image.setWidth(width);
+    image.setHeight(height);
+    image.setEncoding(encoding);
+    image.setIsBigendian((byte) 0);
+    image.setStep(step);
+    image.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, pixels));
+    publish(imagePub, image);
+
+    sensor_msgs.CameraInfo info = infoPub.newMessage();
+    info.setHeader(image.getHeader()); // Match headers
+    info.setWidth(width);
+    info.setHeight(height);
+    info.setDistortionModel("plumb_bob");
+    info.setD(distortion);
+    info.setK(intrinsics);
+    info.setR(rectification);
+    info.setP(projection);
+    publish(infoPub, info);
+  }
+
+  @Override protected void publishData(DataSample sample) throws IllegalArgumentException {
     // TODO use actual data from file
     sensor_msgs.Image image = imagePub.newMessage();
     // Set Header Data
-    image.getHeader().setFrameId("camera");
-    image.getHeader().setStamp(connectedNode.getCurrentTime());
-    imagePub.publish(image);
+    image.getHeader().setFrameId(frameId);
+    image.getHeader().setStamp(getCurrentTime());
+    publish(imagePub, image);
 
     sensor_msgs.CameraInfo info = infoPub.newMessage();
     info.setHeader(image.getHeader()); // Match headers
-    infoPub.publish(info);
+    publish(infoPub, info);
+  }
+
+  /**
+   * Paces an image sequence at its recorded rate unless publish_rate is set
+   */
+  @Override public long getPublishPeriodNanos() {
+    if (imageFrames != null && publishRate <= 0 && imageFrames.getRecordedFrameRate() > 0) {
+      return (long) (1e9 / imageFrames.getRecordedFrameRate());
+    }
+    return super.getPublishPeriodNanos();
+  }
+
+  @Override public void onInterruption() {
+    if (imageFrames != null) {
+      imageFrames.close();
+    }
+    super.onInterruption();
   }
 
   @Override protected short getExpectedColCount() {
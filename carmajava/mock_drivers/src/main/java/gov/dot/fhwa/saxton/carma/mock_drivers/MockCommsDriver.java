@@ -17,8 +17,11 @@
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
 import cav_msgs.ByteArray;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.ros.message.MessageListener;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 import org.ros.node.topic.Subscriber;
@@ -28,6 +31,13 @@ import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A class which can be used to simulate an Arada comms driver for the CarmaPlatform.
@@ -37,12 +47,22 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'arada'
  * rosparam set /mock_driver/data_file_path '/home/username/temp.csv'
  * rosrun carmajava mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * Setting the comms_traffic_vehicles parameter above 0 switches to traffic mode, where no data file is read and
+ * that many simulated vehicles each send BSMs at comms_bsm_rate Hz around the intersection at comms_center_lat and
+ * comms_center_lon. Transmissions are spread evenly over each BSM period rather than sent in bursts.
+ * <p>
+ * Outbound messages are counted per message type along with a histogram of the delay from their header stamp to
+ * their receipt. With comms_loopback set each outbound message is also echoed back on the inbound topic after
+ * comms_loopback_delay_ms, simulating the radio, and the delay from receipt to echo is recorded as well.
  */
 public class MockCommsDriver extends AbstractMockDriver {
 
   // Topics
   // Published
   final Publisher<cav_msgs.ByteArray> recvPub;
+  final MessagePool<cav_msgs.ByteArray> recvPool;
+  ColumnSchema.Compiled<cav_msgs.ByteArray> recvBinding;
   final String recvTopic = "comms/inbound_binary_msg";
 
   // Subscribed
@@ -61,81 +81,273 @@ public class MockCommsDriver extends AbstractMockDriver {
   int vehicle_number = 3; //Need to match the length of binary data array
   int message_counter = 0; // Let driver send different inbound binary bytes
 
-  public MockCommsDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  // Static data for test. Raw byte data has the form "0a 1f 23"
+  private static final String[] RAW_BYTE_STRINGS = {
+    "00 14 25 03 97 0d 6b 3b 13 39 26 6e 92 6a 1e a6 c1 55 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0",
+    "00 14 25 03 fa 2f 24 8e 1c 51 a6 6e 8c 2a 1e a6 bd 3b 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0",
+    "00 14 25 18 ae 7d a9 0e 48 81 e6 6e 95 58 1e a6 cb e1 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0"
+  };
+  // This binary array is only for local integration testing
+  private static final byte[] SPAT_BYTES =
+    {0, 19, 28, 68, 99, 8, 0, -127, 47, 104, 0, 0, 12, 45, 64, 16, 2, 4, 52, 43, 63, -84, 10, 0, 32, 35, 33, 89, 73, 95, -100};
+  // Decoded once. The buffers are never modified so they can back messages directly
+  private final byte[][] rawBytes = new byte[RAW_BYTE_STRINGS.length][];
+
+  // Traffic mode
+  protected BsmTrafficGenerator trafficGenerator = null;
+  private MessagePool<cav_msgs.ByteArray> trafficPool;
+  private final double bsmRate;
+  private long trafficStartNanos = 0;
+  private long sentBsmCount = 0;
+
+  // Outbound statistics and loopback
+  private final boolean loopback;
+  private final long loopbackDelayNanos;
+  private final ScheduledExecutorService loopbackExecutor;
+  private final Map<String, OutboundStats> outboundStats = new ConcurrentHashMap<>();
+  private long lastOutboundReportNanos = System.nanoTime();
+
+  /**
+   * Counters for the outbound messages of one message type
+   */
+  private static final class OutboundStats {
+    final AtomicLong messages = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final LatencyHistogram receiveLatency = new LatencyHistogram();
+    final LatencyHistogram echoLatency = new LatencyHistogram();
+    long reportedMessages = 0;
+    long reportedBytes = 0;
+  }
+
+  public MockCommsDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     recvPub = connectedNode.newPublisher(recvTopic, cav_msgs.ByteArray._TYPE);
+    recvPool = newMessagePool(recvPub);
 
     // Subscribed
     outboundSub = connectedNode.newSubscriber(outboundTopic, cav_msgs.ByteArray._TYPE);
+    loopback = params.getBoolean(privateName("comms_loopback"), false);
+    loopbackDelayNanos = (long) (params.getDouble(privateName("comms_loopback_delay_ms"), 5.0) * 1e6);
+    if (loopback) {
+      loopbackExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, getGraphName() + "_loopback");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    } else {
+      loopbackExecutor = null;
+    }
     outboundSub.addMessageListener(new MessageListener<ByteArray>() {
       @Override public void onNewMessage(ByteArray byteArray) {
         log.debug("Outbound " + byteArray.getMessageType() + " message received by " + getGraphName());
+        onOutboundMessage(byteArray);
       }
     });
+
+    for (int i = 0; i < RAW_BYTE_STRINGS.length; i++) {
+      rawBytes[i] = parseHexBytes(RAW_BYTE_STRINGS[i]);
+    }
+    bsmRate = params.getDouble(privateName("comms_bsm_rate"), 10.0);
   }
 
-  @Override protected void publishData(List<String[]> data) {
-    for (String[] elements : data) {
+  /**
+   * Converts a string of hex byte values to bytes
+   */
+  private static byte[] parseHexBytes(String hex) {
+    // All non hex characters are removed. This does not support use of x such as 0x00
+    String digits = hex.replaceAll("[^A-Fa-f0-9]", "");
+
+    // An uneven number of characters will have a 0 appended to the end
+    if (digits.length() % 2 != 0) {
+      digits = digits.concat("0");
+    }
+    return DatatypeConverter.parseHexBinary(digits);
+  }
+
+  /**
+   * Records an outbound message and schedules its echo when loopback is enabled
+   */
+  private void onOutboundMessage(ByteArray outbound) {
+    final long receivedNanos = System.nanoTime();
+    final String type = outbound.getMessageType();
+    OutboundStats stats = outboundStats.get(type);
+    if (stats == null) {
+      outboundStats.putIfAbsent(type, new OutboundStats());
+      stats = outboundStats.get(type);
+    }
+    ChannelBuffer content = outbound.getContent();
+    int length = content.readableBytes();
+    stats.messages.incrementAndGet();
+    stats.bytes.addAndGet(length);
+    Time stamp = outbound.getHeader().getStamp();
+    if (stamp != null && !stamp.isZero()) {
+      stats.receiveLatency.recordNanos(getCurrentTime().totalNsecs() - stamp.totalNsecs());
+    }
+    if (!loopback) {
+      return;
+    }
+
+    // The incoming buffer is copied as it may be reused once this callback returns
+    final byte[] payload = new byte[length];
+    content.getBytes(content.readerIndex(), payload, 0, length);
+    final OutboundStats typeStats = stats;
+    loopbackExecutor.schedule(new Runnable() {
+      @Override public void run() {
+        cav_msgs.ByteArray echo = recvPub.newMessage();
+        echo.getHeader().setFrameId("0");
+        echo.getHeader().setStamp(getCurrentTime());
+        echo.setMessageType(type);
+        echo.setContent(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, payload));
+        publish(recvPub, echo);
+        typeStats.echoLatency.recordNanos(System.nanoTime() - receivedNanos);
+      }
+    }, loopbackDelayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * Logs the outbound rate and latencies of each message type since the previous report.
+   * Reports are limited to one every 10 seconds
+   */
+  private void reportOutboundStats() {
+    long now = System.nanoTime();
+    double elapsed = (now - lastOutboundReportNanos) / 1e9;
+    if (elapsed < 10.0) {
+      return;
+    }
+    lastOutboundReportNanos = now;
+    for (Map.Entry<String, OutboundStats> entry : outboundStats.entrySet()) {
+      OutboundStats stats = entry.getValue();
+      long messages = stats.messages.get();
+      long bytes = stats.bytes.get();
+      String report = getGraphName() + " outbound " + entry.getKey() + " at "
+        + String.format("%.1f", (messages - stats.reportedMessages) / elapsed) + " msg/s and "
+        + String.format("%.1f", (bytes - stats.reportedBytes) / elapsed / 1024.0) + " KiB/s. Stamp to receipt "
+        + stats.receiveLatency.summary();
+      if (loopback) {
+        report += ". Receipt to echo " + stats.echoLatency.summary();
+      }
+      log.info(report);
+      stats.reportedMessages = messages;
+      stats.reportedBytes = bytes;
+      // Each report covers only the messages since the previous one
+      stats.receiveLatency.reset();
+      stats.echoLatency.reset();
+    }
+  }
+
+  @Override public void onStart(ConnectedNode connectedNode) {
+    int vehicles = params.getInteger(privateName("comms_traffic_vehicles"), 0);
+    if (vehicles <= 0) {
+      super.onStart(connectedNode);
+      return;
+    }
+    // A cycle publishes a burst of up to one BSM per vehicle on top of the messages still queued by the publisher.
+    // Pooled messages and each vehicle's payload buffers are only reused once more than that many BSMs have followed
+    int inFlight = PUBLISHER_QUEUE_DEPTH + vehicles;
+    trafficPool = recvPool.isPooled() ? new MessagePool<>(recvPub, Math.max(messagePoolDepth, inFlight)) : recvPool;
+    int payloadDepth = Math.max(2, (inFlight + vehicles - 1) / vehicles + 1);
+    trafficGenerator = new BsmTrafficGenerator(rawBytes[0], vehicles, payloadDepth,
+      params.getDouble(privateName("comms_center_lat"), 38.9562),
+      params.getDouble(privateName("comms_center_lon"), -77.1507),
+      params.getDouble(privateName("comms_approach_length"), 300.0), 0);
+    log.info(getGraphName() + " simulating BSM traffic from " + vehicles + " vehicles at " + bsmRate + " Hz each");
+    setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+  }
+
+  @Override public void readAndPublishData() {
+    reportOutboundStats();
+    if (trafficGenerator != null) {
+      long start = System.nanoTime();
+      publishTraffic();
+      metrics.recordGeneratedSample(System.nanoTime() - start);
+    } else {
+      super.readAndPublishData();
+    }
+  }
+
+  /**
+   * Publishes the BSMs which have come due since the last cycle.
+   * Vehicle transmissions are staggered so that every vehicle sends once per BSM period. A cycle which falls
+   * behind by more than a full period skips the missed transmissions instead of catching up
+   */
+  private void publishTraffic() {
+    long now = getClockNanos();
+    if (trafficStartNanos == 0) {
+      trafficStartNanos = now;
+    }
+    int vehicles = trafficGenerator.getVehicleCount();
+    long due = (long) ((now - trafficStartNanos) / 1e9 * bsmRate * vehicles);
+    if (due - sentBsmCount > vehicles) {
+      sentBsmCount = due - vehicles;
+    }
+    Time stamp = getCurrentTime();
+    long nowMillis = stamp.totalNsecs() / 1000000;
+    for (; sentBsmCount < due; sentBsmCount++) {
+      int vehicle = (int) (sentBsmCount % vehicles);
+      cav_msgs.ByteArray recvMsg = trafficPool.next();
+      std_msgs.Header hdr = recvMsg.getHeader();
+      hdr.setFrameId("0");
+      hdr.setStamp(stamp);
+      recvMsg.setMessageType("BSM");
+      recvMsg.setContent(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN,
+        trafficGenerator.nextPayload(vehicle, nowMillis)));
+      publish(recvPub, recvMsg);
+    }
+  }
+
+  @Override protected void publishData(DataSample sample) {
+    for (int row = 0; row < sample.getRowCount(); row++) {
       // Make messages
-      cav_msgs.ByteArray recvMsg = recvPub.newMessage();
+      cav_msgs.ByteArray recvMsg = recvPool.next();
 
       // Set Data
-      std_msgs.Header hdr = messageFactory.newFromType(std_msgs.Header._TYPE);
+      std_msgs.Header hdr = recvMsg.getHeader();
       hdr.setFrameId("0");
-      hdr.setStamp(connectedNode.getCurrentTime());
-
-      recvMsg.setHeader(hdr);
-      recvMsg.setMessageType(elements[MSG_TYPE_IDX]);
-
-      // Raw byte data has the form "0a 1f 23"
-      // String rawByteString = elements[RAW_BYTES_IDX];
-      // Set to static data for test
-      
-      String[] rawByteString = {
-    		  "00 14 25 03 97 0d 6b 3b 13 39 26 6e 92 6a 1e a6 c1 55 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0",
-    		  "00 14 25 03 fa 2f 24 8e 1c 51 a6 6e 8c 2a 1e a6 bd 3b 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0",
-    		  "00 14 25 18 ae 7d a9 0e 48 81 e6 6e 95 58 1e a6 cb e1 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0"
-      };
-      
-      String currentByteString = rawByteString[current_vehicle++ % rawByteString.length];
-      
-      boolean publish_control = false;
-      if(currentByteString.equals("00 14 25 03 97 0d 6b 3b 13 39 26 6e 92 6a 1e a6 c1 55 90 00 7f ff 8c cc af ff f0 80 7e fa 1f a1 00 7f ff 08 00 4b 09 b0")) {
-    	  publish_control = true;
-      }
+      hdr.setStamp(getCurrentTime());
+
+      recvBinding.apply(sample, row, recvMsg);
+
+      int vehicle = current_vehicle++ % rawBytes.length;
+      boolean publish_control = vehicle == 0;
+      byte[] messageBytes = rawBytes[vehicle];
 
-      // All non hex characters are removed. This does not support use of x such as 0x00
-      currentByteString = currentByteString.replaceAll("[^A-Fa-f0-9]", "");
-      
-      // An uneven number of characters will have a 0 appended to the end
-      if (currentByteString.length() % 2 != 0) {
-    	  currentByteString = currentByteString.concat("0");
-      }
-      
-      // Convert the string to a byte array
-      byte[] rawBytes = DatatypeConverter.parseHexBinary(currentByteString);
-      
       // Publish SPAT message every 3 seconds
-      // This binary array is only for local integration testing
       message_counter++;
       if(message_counter % 30 == 0) {
-          rawBytes = new byte[]{0, 19, 28, 68, 99, 8, 0, -127, 47, 104, 0, 0, 12, 45, 64, 16, 2, 4, 52, 43, 63, -84, 10, 0, 32, 35, 33, 89, 73, 95, -100};
+          messageBytes = SPAT_BYTES;
           recvMsg.setMessageType("SPAT");
       }
-      
-      
+
       // It seems that the ros messages byte[] is LittleEndian. Using BigEndian results in a IllegalArgumentException
-      recvMsg.setContent(ChannelBuffers.copiedBuffer(ByteOrder.LITTLE_ENDIAN, rawBytes));
-      
+      recvMsg.setContent(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, messageBytes));
+
       // Publish Data
       if(!publish_control || (publish_control && ((System.currentTimeMillis() % (pause_length * 2)) < pause_length))) {
-    	  recvPub.publish(recvMsg);
+    	  publish(recvPub, recvMsg);
       }
     }
   }
 
+  @Override protected void bindColumns(ColumnLayout layout) {
+    recvBinding = compileSchema(new ColumnSchema<cav_msgs.ByteArray>()
+      .bindString("message type", MSG_TYPE_IDX, new ColumnSchema.StringSetter<cav_msgs.ByteArray>() {
+        @Override public void set(cav_msgs.ByteArray msg, String value) {
+          msg.setMessageType(value);
+        }
+      }), layout);
+  }
+
+  @Override public void onInterruption() {
+    if (loopbackExecutor != null) {
+      loopbackExecutor.shutdownNow();
+    }
+    super.onInterruption();
+  }
+
   @Override protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
   }
@@ -152,8 +364,10 @@ public class MockCommsDriver extends AbstractMockDriver {
     return new ArrayList<>(Arrays.asList(recvTopic, outboundTopic));
   }
   
-  @Override public long getPublishDelay() {
-	  
+  @Override protected long getFixedPublishDelay() {
+	  if (trafficGenerator != null) {
+	    return 10; // Cycle often enough to keep staggered transmissions evenly spaced
+	  }
 	  return pulishDelay / vehicle_number; //Set delay here
   }
 }
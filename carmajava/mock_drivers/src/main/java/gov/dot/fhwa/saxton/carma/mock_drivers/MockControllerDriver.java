@@ -23,6 +23,9 @@ import cav_srvs.SetEnableRoboticResponse;
 import cav_srvs.SetLightsRequest;
 import cav_srvs.SetLightsResponse;
 import org.ros.exception.ServiceException;
+import org.ros.message.MessageListener;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.service.ServiceResponseBuilder;
 import org.ros.node.service.ServiceServer;
@@ -44,12 +47,20 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'controller'
  * rosparam set /mock_driver/data_file_path '/home/username/temp.csv'
  * rosrun carmajava mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * With the plant_model parameter set, robot_status is produced by a VehiclePlantModel instead of the data file. The
+ * model follows the ctrl_cmd of each received vehicle_cmd, or its twist_cmd when plant_command_source is twist_cmd,
+ * and is advanced in fixed steps of 1 / plant_rate seconds. plant_time_scale runs the steps faster or slower than
+ * real time. It is ignored when the node follows a simulated clock, so plant time stays on /clock. The delay from a
+ * command's header stamp to the first robot_status computed with it is logged every 10 seconds.
  */
 public class MockControllerDriver extends AbstractMockDriver {
 
   // Topics
   // Published
   protected Publisher<RobotEnabled> statusPub;
+  protected MessagePool<RobotEnabled> statusPool;
+  protected ColumnSchema.Compiled<RobotEnabled> statusBinding;
 
   // Subscribed
   protected final Subscriber<autoware_msgs.VehicleCmd> cmdSub;
@@ -70,20 +81,49 @@ public class MockControllerDriver extends AbstractMockDriver {
   private final short DIAG_KEY_MSG = 7;
   private final short DIAG_VALUE_IDX = 8;
 
+  // Plant model
+  protected VehiclePlantModel plantModel = null;
+  private final double plantRate;
+  private double plantTimeScale;
+  private final boolean twistCommands;
+  private final LatencyHistogram commandLatency = new LatencyHistogram();
+  private volatile long pendingCommandNanos = 0; // ROS time of the newest command not yet applied
+  private long lastPlantReportTime = 0;
+
   // Light bar states
   protected boolean lightBarFlash = false;
   protected boolean leftArrow = false;
   protected boolean rightArrow = false;
   protected boolean takedown = false;
 
-  public MockControllerDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  public MockControllerDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     statusPub = connectedNode.newPublisher("controller/robot_status", RobotEnabled._TYPE);
+    statusPool = newMessagePool(statusPub);
 
     // Subscribed
     cmdSub = connectedNode.newSubscriber("controller/vehicle_cmd", autoware_msgs.VehicleCmd._TYPE);
+    plantRate = params.getDouble(privateName("plant_rate"), 100.0);
+    plantTimeScale = params.getDouble(privateName("plant_time_scale"), 1.0);
+    twistCommands = params.getString(privateName("plant_command_source"), "ctrl_cmd").equals("twist_cmd");
+    if (params.getBoolean(privateName("plant_model"), false)) {
+      plantModel = new VehiclePlantModel(
+        params.getDouble(privateName("plant_wheelbase"), 2.79),
+        params.getDouble(privateName("plant_mass"), 2000.0),
+        params.getDouble(privateName("plant_wheel_radius"), 0.35),
+        params.getDouble(privateName("plant_accel_time_constant"), 0.3),
+        params.getDouble(privateName("plant_steer_time_constant"), 0.1),
+        params.getDouble(privateName("plant_max_accel"), 3.0),
+        params.getDouble(privateName("plant_max_decel"), 8.0),
+        params.getDouble(privateName("plant_max_steer"), 0.6));
+      cmdSub.addMessageListener(new MessageListener<autoware_msgs.VehicleCmd>() {
+        @Override public void onNewMessage(autoware_msgs.VehicleCmd cmd) {
+          onVehicleCmd(cmd);
+        }
+      });
+    }
 
     enabledSrv = connectedNode.newServiceServer("controller/enable_robotic", cav_srvs.SetEnableRobotic._TYPE,
         new ServiceResponseBuilder<SetEnableRoboticRequest, SetEnableRoboticResponse>() {
@@ -111,23 +151,131 @@ public class MockControllerDriver extends AbstractMockDriver {
         });
   }
   
+  /**
+   * Passes a vehicle command to the plant model
+   */
+  private void onVehicleCmd(autoware_msgs.VehicleCmd cmd) {
+    if (cmd.getEmergency() != 0) {
+      plantModel.setCommand(0, 0, plantModel.getSteer());
+    } else if (twistCommands) {
+      geometry_msgs.Twist twist = cmd.getTwistCmd().getTwist();
+      plantModel.setTwistCommand(twist.getLinear().getX(), twist.getAngular().getZ());
+    } else {
+      autoware_msgs.ControlCommand ctrl = cmd.getCtrlCmd();
+      plantModel.setCommand(ctrl.getLinearVelocity(), ctrl.getLinearAcceleration(), ctrl.getSteeringAngle());
+    }
+    Time stamp = cmd.getHeader().getStamp();
+    pendingCommandNanos = stamp != null && !stamp.isZero()
+      ? stamp.totalNsecs() : getCurrentTime().totalNsecs();
+  }
+
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (plantModel == null) {
+      super.onStart(connectedNode);
+      return;
+    }
+    if (simClock != null && plantTimeScale != 1.0) {
+      // Plant time must follow /clock, which already runs at the sim clock's speedup
+      log.warn(getGraphName() + " ignoring plant_time_scale of " + plantTimeScale + " as a simulated clock is in use");
+      plantTimeScale = 1.0;
+    }
+    log.info(getGraphName() + " simulating the vehicle at " + plantRate + " Hz with a time scale of " + plantTimeScale);
+    setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+  }
+
+  @Override public void readAndPublishData() {
+    if (plantModel != null) {
+      long start = System.nanoTime();
+      stepPlant();
+      metrics.recordGeneratedSample(System.nanoTime() - start);
+    } else {
+      super.readAndPublishData();
+    }
+  }
+
+  /**
+   * Advances the plant model by one step and publishes the resulting robot status
+   */
+  private void stepPlant() {
+    long commandNanos = pendingCommandNanos;
+    plantModel.step(1.0 / plantRate);
+
+    RobotEnabled statusMsg = statusPool.next();
+    statusMsg.setRobotEnabled(true);
+    statusMsg.setRobotActive(true);
+    statusMsg.setTorque(plantModel.getWheelTorque());
+    statusMsg.setBrakeDecel(plantModel.getBrakeDecel());
+    publish(statusPub, statusMsg);
+
+    if (commandNanos != 0) {
+      commandLatency.recordNanos(getCurrentTime().totalNsecs() - commandNanos);
+      // A newer command arriving during this step stays pending for the next one
+      if (pendingCommandNanos == commandNanos) {
+        pendingCommandNanos = 0;
+      }
+    }
+    reportPlantState();
+  }
+
+  /**
+   * Logs the plant state and command latency. Reports are limited to one every 10 seconds
+   */
+  private void reportPlantState() {
+    long now = System.currentTimeMillis();
+    if (now - lastPlantReportTime < 10000) {
+      return;
+    }
+    log.info(getGraphName() + " plant at " + String.format("%.1f", plantModel.getSimTime()) + " s sim time speed "
+      + String.format("%.2f", plantModel.getSpeed()) + " m/s steer " + String.format("%.3f", plantModel.getSteer())
+      + " rad. Command stamp to robot_status " + commandLatency.summary());
+    lastPlantReportTime = now;
+  }
+
+  /**
+   * Runs plant steps at plant_rate scaled by plant_time_scale when the plant model is enabled
+   */
+  @Override public long getPublishPeriodNanos() {
+    if (plantModel != null) {
+      return (long) (1e9 / (plantRate * plantTimeScale));
+    }
+    return super.getPublishPeriodNanos();
+  }
+
   @Override
-  protected void publishData(List<String[]> data) throws IllegalArgumentException {
+  protected void publishData(DataSample sample) throws IllegalArgumentException {
 
-    for (String[] elements : data) {
-      RobotEnabled statusMsg = statusPub.newMessage();
+    for (int row = 0; row < sample.getRowCount(); row++) {
+      RobotEnabled statusMsg = statusPool.next();
 
       // Build RobotEnabled Message
-      statusMsg.setBrakeDecel(Double.parseDouble(elements[BRAKE_DECEL_IDX]));
-      statusMsg.setRobotEnabled(Boolean.parseBoolean(elements[ROBOT_ENABLED_IDX]));
-      statusMsg.setRobotActive(Boolean.parseBoolean(elements[ROBOT_ENABLED_IDX]));
-      statusMsg.setTorque(Double.parseDouble(elements[TORQUE_IDX]));
+      statusBinding.apply(sample, row, statusMsg);
 
       // Publish Data
-      statusPub.publish(statusMsg);
+      publish(statusPub, statusMsg);
     }
   }
 
+  @Override
+  protected void bindColumns(ColumnLayout layout) {
+    statusBinding = compileSchema(new ColumnSchema<RobotEnabled>()
+      .bindDouble("brake deceleration", BRAKE_DECEL_IDX, new ColumnSchema.DoubleSetter<RobotEnabled>() {
+        @Override public void set(RobotEnabled msg, double value) {
+          msg.setBrakeDecel(value);
+        }
+      })
+      .bindBoolean("robot enabled", ROBOT_ENABLED_IDX, new ColumnSchema.BooleanSetter<RobotEnabled>() {
+        @Override public void set(RobotEnabled msg, boolean enabled) {
+          msg.setRobotEnabled(enabled);
+          msg.setRobotActive(enabled);
+        }
+      })
+      .bindDouble("torque", TORQUE_IDX, new ColumnSchema.DoubleSetter<RobotEnabled>() {
+        @Override public void set(RobotEnabled msg, double value) {
+          msg.setTorque(value);
+        }
+      }), layout);
+  }
+
   @Override
   protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
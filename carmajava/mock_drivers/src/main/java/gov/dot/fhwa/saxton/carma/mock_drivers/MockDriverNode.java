@@ -18,15 +18,31 @@ package gov.dot.fhwa.saxton.carma.mock_drivers;
 
 import gov.dot.fhwa.saxton.carma.rosjava_utils.SaxtonBaseNode;
 import org.apache.commons.logging.Log;
-import org.ros.concurrent.CancellableLoop;
 import org.ros.node.ConnectedNode;
+import org.ros.node.DefaultNodeListener;
+import org.ros.node.Node;
 import org.ros.node.parameter.ParameterTree;
 import org.ros.namespace.GraphName;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A class which can be used to mimick different drivers for the CarmaPlatform.
  * For specific types of drivers this class should be extended.
  * <p>
+ * A single node can host several drivers by setting the simulated_drivers parameter to a list of driver types.
+ * Each entry is either a type such as can, which is hosted under the name mock_can, or name:type to pick the name.
+ * Every hosted driver reads its parameters from its own namespace, as it would when run as a separate node, and all
+ * drivers share one scheduler thread pool sized by the scheduler_threads parameter.
+ * <p>
+ * With the sim_clock parameter set the node owns simulated time. It publishes /clock and all hosted drivers pace
+ * themselves and stamp their messages by it. sim_speedup sets how many simulated seconds pass per wall clock second
+ * and a value of 0 runs the drivers back to back as fast as they can publish, limited by sim_max_speedup when it is
+ * positive. Other nodes follow the clock when /use_sim_time is set.
+ * <p>
+ * The read, publish and cycle times, message and byte rates and overruns of every hosted driver are published on
+ * /diagnostics at diagnostics_rate Hz. A rate of 0 disables them.
+ * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a two step process
  * rosparam set /mock_driver/simulated_driver 'can'
@@ -35,6 +51,8 @@ import org.ros.namespace.GraphName;
  */
 public class MockDriverNode extends SaxtonBaseNode {
   private String defaultName =  "mock_driver";
+  private static final String DEFAULT_DRIVER_PREFIX = "mock_";
+  private volatile List<IMockDriver> startedDrivers = new ArrayList<>();
 
   @Override public GraphName getDefaultNodeName() {
     return GraphName.of(defaultName);
@@ -43,61 +61,126 @@ public class MockDriverNode extends SaxtonBaseNode {
   @Override public void onSaxtonStart(final ConnectedNode connectedNode) {
     final Log log = connectedNode.getLog();
     final ParameterTree params = connectedNode.getParameterTree();
-    final IMockDriver simulatedDriver;
-    String switchValue = params.getString("~/simulated_driver");
-    switch (switchValue) {
+    final List<IMockDriver> drivers = new ArrayList<>();
+
+    List<String> hostedDrivers = getHostedDriverList(params);
+    if (hostedDrivers.isEmpty()) {
+      String switchValue = params.getString("~/simulated_driver");
+      IMockDriver driver = createDriver(switchValue, connectedNode, connectedNode.getName());
+      if (driver == null) {
+        log.warn("==== No valid driver name specified on the simulated_driver parameter. Defaulting to CAN driver \n The simulated_driver value received is: " + switchValue +  " ...");
+        driver = new MockCANDriver(connectedNode, connectedNode.getName());
+      }
+      drivers.add(driver);
+    } else {
+      GraphName namespace = connectedNode.getName().getParent();
+      for (String entry: hostedDrivers) {
+        int split = entry.indexOf(':');
+        String type = split < 0 ? entry : entry.substring(split + 1);
+        String name = split < 0 ? DEFAULT_DRIVER_PREFIX + entry : entry.substring(0, split);
+        IMockDriver driver = createDriver(type, connectedNode, namespace.join(name));
+        if (driver == null) {
+          log.warn("==== Unrecognized driver type " + type + " in the simulated_drivers parameter. It will not be hosted");
+          continue;
+        }
+        drivers.add(driver);
+      }
+    }
+
+    final MockDriverScheduler scheduler = new MockDriverScheduler(
+      params.getInteger("~/scheduler_threads", drivers.size()),
+      params.getInteger("~/spin_threshold_us", 200) * 1000L, log);
+    SimClock simClock = null;
+    if (params.getBoolean("~/sim_clock", false)) {
+      simClock = new SimClock(connectedNode.<rosgraph_msgs.Clock>newPublisher("/clock", rosgraph_msgs.Clock._TYPE),
+        params.getDouble("~/sim_speedup", 1.0));
+      scheduler.setSimClock(simClock,
+        (long) (1e9 / params.getDouble("~/sim_clock_rate", 100.0)),
+        params.getInteger("~/sim_step_ms", 10) * 1000000L,
+        params.getDouble("~/sim_max_speedup", 0.0));
+      log.info("Mock drivers following a simulated clock with a speedup of "
+        + (simClock.isFreeRunning() ? "as fast as possible" : simClock.getSpeedup()));
+    }
+    double diagnosticsRate = params.getDouble("~/diagnostics_rate", 1.0);
+    if (diagnosticsRate > 0) {
+      scheduler.setDiagnostics(
+        connectedNode.<diagnostic_msgs.DiagnosticArray>newPublisher("/diagnostics", diagnostic_msgs.DiagnosticArray._TYPE),
+        (long) (1e9 / diagnosticsRate));
+    }
+    for (IMockDriver driver: drivers) {
+      driver.setSimClock(simClock);
+      driver.onStart(connectedNode);
+      scheduler.addDriver(driver);
+    }
+    // Stop the scheduler when the node shuts down
+    connectedNode.addListener(new DefaultNodeListener() {
+      @Override public void onShutdown(Node node) {
+        scheduler.shutdown();
+      }
+    });
+    scheduler.start();
+    startedDrivers = drivers;
+  }//onStart
+
+  /**
+   * Gets the drivers hosted by this node. Empty until the node has started them
+   */
+  List<IMockDriver> getDrivers() {
+    return startedDrivers;
+  }
+
+  /**
+   * Reads the simulated_drivers parameter, which may be a list or a whitespace separated string
+   * @param params The parameter tree of this node
+   * @return The entries of the parameter. Empty if it is not set
+   */
+  private List<String> getHostedDriverList(ParameterTree params) {
+    List<String> entries = new ArrayList<>();
+    Object value = params.get("~/simulated_drivers", "");
+    if (value instanceof List) {
+      for (Object entry: (List<?>) value) {
+        entries.add(entry.toString().trim());
+      }
+    } else {
+      for (String entry: value.toString().trim().split("\\s+")) {
+        entries.add(entry);
+      }
+    }
+    entries.remove("");
+    return entries;
+  }
+
+  /**
+   * Instantiates a driver of the provided type
+   * @param type The driver type such as can or gnss
+   * @param connectedNode The node which will host the driver
+   * @param driverName The fully resolved name of the driver
+   * @return The new driver or null if the type is not recognized
+   */
+  private IMockDriver createDriver(String type, ConnectedNode connectedNode, GraphName driverName) {
+    switch (type) {
       case "can":
-        simulatedDriver = new MockCANDriver(connectedNode);
-        break;
+        return new MockCANDriver(connectedNode, driverName);
       case "comms":
-        simulatedDriver = new MockCommsDriver(connectedNode);
-        break;
+        return new MockCommsDriver(connectedNode, driverName);
       case "controller":
-        simulatedDriver = new MockControllerDriver(connectedNode);
-        break;
+        return new MockControllerDriver(connectedNode, driverName);
       case "radar":
-        simulatedDriver = new MockRadarDriver(connectedNode);
-        break;
+        return new MockRadarDriver(connectedNode, driverName);
       case "imu":
-        simulatedDriver = new MockImuDriver(connectedNode);
-        break;
+        return new MockImuDriver(connectedNode, driverName);
       case "gnss":
-        simulatedDriver = new MockGnssDriver(connectedNode);
-        break;
+        return new MockGnssDriver(connectedNode, driverName);
       case "lidar":
-        simulatedDriver = new MockLidarDriver(connectedNode);
-        break;
+        return new MockLidarDriver(connectedNode, driverName);
       case "roadway_sensor":
-        simulatedDriver = new MockRoadwaySensorDriver(connectedNode);
-        break;
+        return new MockRoadwaySensorDriver(connectedNode, driverName);
       case "camera":
-        simulatedDriver = new MockCameraDriver(connectedNode);
-        break;
+        return new MockCameraDriver(connectedNode, driverName);
       default:
-        log.warn("==== No valid driver name specified on the simulated_driver parameter. Defaulting to CAN driver \n The simulated_driver value received is: " + switchValue +  " ...");
-        simulatedDriver = new MockCANDriver(connectedNode);
-        break;
+        return null;
     }
-
-    simulatedDriver.onStart(connectedNode);
-    // This CancellableLoop will be canceled automatically when the node shuts
-    // down.
-    connectedNode.executeCancellableLoop(new CancellableLoop() {
-
-      @Override protected void loop() throws InterruptedException {
-        simulatedDriver.publishDriverStatus();
-        simulatedDriver.readAndPublishData();
-
-        Thread.sleep(simulatedDriver.getPublishDelay());
-      }//loop
-
-      @Override protected void handleInterruptedException(InterruptedException e) {
-        simulatedDriver.onInterruption();
-        super.handleInterruptedException(e);
-      }
-    });//executeCancellableLoop
-
-  }//onStart
+  }
 
   @Override protected void handleException(Throwable e) {
 
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import diagnostic_msgs.DiagnosticArray;
+import diagnostic_msgs.DiagnosticStatus;
+import org.apache.commons.logging.Log;
+import org.ros.message.Time;
+import org.ros.node.topic.Publisher;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the publication cycles of any number of mock drivers on one shared pool of threads.
+ * <p>
+ * Each driver has its own DeadlineTimer. After a cycle the driver's task is rescheduled on the pool to wake just
+ * before its next deadline and spins the remainder, so drivers with different periods share threads without
+ * drifting. Drivers which pace themselves by recorded timestamps block their thread while waiting, so the pool
+ * should have a thread for each of them.
+ * <p>
+ * Driver status heartbeats run on a separate single thread at each driver's status rate so slow data reads cannot
+ * delay them.
+ * <p>
+ * When a SimClock is set, driver periods are in simulated time and are shortened by the clock's speedup, and the
+ * clock is published on the status thread. A free running clock replaces the timed cycles with a single loop which
+ * runs the driver with the earliest simulated deadline, jumps the clock to that deadline and repeats, optionally
+ * held back to a maximum speedup over the wall clock.
+ * <p>
+ * Every cycle is recorded in the driver's DriverMetrics. When a diagnostics publisher is set, the metrics of all
+ * drivers are summarized into one DiagnosticArray on the status thread.
+ */
+public class MockDriverScheduler {
+
+  private static final long OVERRUN_REPORT_PERIOD_MS = 10000;
+
+  private final ScheduledThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor statusExecutor = new ScheduledThreadPoolExecutor(1);
+  private final long spinThresholdNanos;
+  private final Log log;
+  private final List<DriverTask> tasks = new ArrayList<>();
+  private SimClock simClock = null;
+  private long clockPublishPeriodNanos = 0;
+  private long freeRunStepNanos = 0;
+  private double maxSpeedup = 0;
+  private Publisher<DiagnosticArray> diagnosticsPub = null;
+  private long diagnosticsPeriodNanos = 0;
+
+  /**
+   * Constructor
+   *
+   * @param threadCount The number of threads shared by all drivers
+   * @param spinThresholdNanos How long before each deadline a driver's thread starts spinning
+   * @param log The log used to report overruns and failed cycles
+   */
+  public MockDriverScheduler(int threadCount, long spinThresholdNanos, Log log) {
+    this.executor = new ScheduledThreadPoolExecutor(Math.max(1, threadCount));
+    this.executor.setRemoveOnCancelPolicy(true);
+    this.spinThresholdNanos = spinThresholdNanos;
+    this.log = log;
+  }
+
+  /**
+   * Adds a driver whose cycles will start with the next call to start
+   *
+   * @param driver The driver to schedule. Its onStart function must already have been called
+   */
+  public void addDriver(IMockDriver driver) {
+    tasks.add(new DriverTask(driver));
+  }
+
+  /**
+   * Paces the drivers by a simulated clock. Must be called before start
+   *
+   * @param clock The simulated clock shared by the drivers
+   * @param clockPublishPeriodNanos The wall clock period at which the clock is published when it is not free running
+   * @param freeRunStepNanos The simulated period used when free running for drivers which pace themselves
+   * @param maxSpeedup The largest speedup over the wall clock allowed when free running. 0 for no limit
+   */
+  public void setSimClock(SimClock clock, long clockPublishPeriodNanos, long freeRunStepNanos, double maxSpeedup) {
+    this.simClock = clock;
+    this.clockPublishPeriodNanos = clockPublishPeriodNanos;
+    this.freeRunStepNanos = Math.max(1, freeRunStepNanos);
+    this.maxSpeedup = maxSpeedup;
+  }
+
+  /**
+   * Publishes the performance metrics of every driver as diagnostics. Must be called before start
+   *
+   * @param publisher The publisher of the diagnostics topic
+   * @param periodNanos The wall clock period between diagnostics. 0 or less disables them
+   */
+  public void setDiagnostics(Publisher<DiagnosticArray> publisher, long periodNanos) {
+    this.diagnosticsPub = publisher;
+    this.diagnosticsPeriodNanos = periodNanos;
+  }
+
+  /**
+   * Starts publishing from every added driver
+   */
+  public void start() {
+    if (simClock != null && simClock.isFreeRunning()) {
+      executor.execute(new FreeRunLoop());
+    } else if (simClock != null && clockPublishPeriodNanos > 0) {
+      statusExecutor.scheduleAtFixedRate(new Runnable() {
+        @Override public void run() {
+          simClock.publish();
+        }
+      }, 0, clockPublishPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+    if (diagnosticsPub != null && diagnosticsPeriodNanos > 0) {
+      statusExecutor.scheduleAtFixedRate(new Runnable() {
+        @Override public void run() {
+          try {
+            publishDiagnostics();
+          } catch (RuntimeException e) {
+            log.warn("Mock drivers failed to publish diagnostics " + e.getMessage(), e);
+          }
+        }
+      }, diagnosticsPeriodNanos, diagnosticsPeriodNanos, TimeUnit.NANOSECONDS);
+    }
+    for (DriverTask task: tasks) {
+      if (simClock == null || !simClock.isFreeRunning()) {
+        task.timer.start();
+        executor.execute(task);
+      }
+      final IMockDriver driver = task.driver;
+      long statusPeriod = driver.getStatusPeriodNanos();
+      if (statusPeriod > 0) {
+        statusExecutor.scheduleAtFixedRate(new Runnable() {
+          @Override public void run() {
+            try {
+              driver.publishDriverStatus();
+            } catch (RuntimeException e) {
+              log.warn(driver.getGraphName() + " failed to publish its status " + e.getMessage(), e);
+            }
+          }
+        }, 0, statusPeriod, TimeUnit.NANOSECONDS);
+      }
+    }
+  }
+
+  /**
+   * Summarizes the metrics of every driver since the previous call and publishes them
+   */
+  private void publishDiagnostics() {
+    DiagnosticArray array = diagnosticsPub.newMessage();
+    array.getHeader().setStamp(simClock != null ? simClock.now() : Time.fromMillis(System.currentTimeMillis()));
+    List<DiagnosticStatus> statuses = new ArrayList<>(tasks.size());
+    for (DriverTask task: tasks) {
+      statuses.add(task.driver.getDiagnosticStatus());
+    }
+    array.setStatus(statuses);
+    diagnosticsPub.publish(array);
+  }
+
+  /**
+   * Stops all driver cycles and lets each driver release its resources
+   */
+  public void shutdown() {
+    statusExecutor.shutdownNow();
+    executor.shutdownNow();
+    try {
+      executor.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (DriverTask task: tasks) {
+      task.driver.onInterruption();
+    }
+  }
+
+  /**
+   * Publication cycle of a single driver which reschedules itself for its next deadline
+   */
+  private class DriverTask implements Runnable {
+    private final IMockDriver driver;
+    private final DeadlineTimer timer = new DeadlineTimer(spinThresholdNanos);
+    private long simDeadline = 0;
+    private long reportedOverruns = 0;
+    private long lastReportTime = 0;
+
+    DriverTask(IMockDriver driver) {
+      this.driver = driver;
+    }
+
+    @Override public void run() {
+      try {
+        timer.awaitDeadline();
+      } catch (InterruptedException e) {
+        return;
+      }
+      long cycleStart = System.nanoTime();
+      try {
+        driver.readAndPublishData();
+      } catch (RuntimeException e) {
+        log.warn(driver.getGraphName() + " failed to publish data " + e.getMessage(), e);
+      }
+      long cycleNanos = System.nanoTime() - cycleStart;
+      long period = driver.getPublishPeriodNanos();
+      timer.scheduleNext(simClock != null ? simClock.toWallNanos(period) : period);
+      driver.getMetrics().recordCycle(cycleNanos, timer.getLastLatenessNanos(), timer.getOverrunCount(),
+        timer.getSkippedSlotCount());
+      reportOverruns();
+
+      if (!executor.isShutdown()) {
+        long wakeDelay = timer.getNextDeadline() - spinThresholdNanos - System.nanoTime();
+        executor.schedule(this, Math.max(0, wakeDelay), TimeUnit.NANOSECONDS);
+      }
+    }
+
+    /**
+     * Logs missed publication slots at most once every 10 seconds
+     */
+    private void reportOverruns() {
+      long now = System.currentTimeMillis();
+      if (timer.getOverrunCount() == reportedOverruns || now - lastReportTime < OVERRUN_REPORT_PERIOD_MS) {
+        return;
+      }
+      log.warn(driver.getGraphName() + " overran its publish period " + timer.getOverrunCount()
+        + " times skipping " + timer.getSkippedSlotCount() + " slots. Mean lateness "
+        + timer.getMeanLatenessNanos() / 1000 + " us, max lateness " + timer.getMaxLatenessNanos() / 1000 + " us");
+      reportedOverruns = timer.getOverrunCount();
+      lastReportTime = now;
+    }
+  }
+
+  /**
+   * Runs all drivers back to back in simulated deadline order on a free running clock
+   */
+  private class FreeRunLoop implements Runnable {
+    @Override public void run() {
+      PriorityQueue<DriverTask> queue = new PriorityQueue<>(Math.max(1, tasks.size()), new Comparator<DriverTask>() {
+        @Override public int compare(DriverTask a, DriverTask b) {
+          return Long.compare(a.simDeadline, b.simDeadline);
+        }
+      });
+      long startSim = simClock.nowNanos();
+      long startWall = System.nanoTime();
+      for (DriverTask task: tasks) {
+        task.simDeadline = startSim;
+        queue.add(task);
+      }
+      while (!queue.isEmpty() && !Thread.currentThread().isInterrupted()) {
+        DriverTask task = queue.poll();
+        if (maxSpeedup > 0) {
+          try {
+            DeadlineTimer.waitUntil(startWall + (long) ((task.simDeadline - startSim) / maxSpeedup), spinThresholdNanos);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        simClock.advanceTo(task.simDeadline);
+        long cycleStart = System.nanoTime();
+        try {
+          task.driver.readAndPublishData();
+        } catch (RuntimeException e) {
+          log.warn(task.driver.getGraphName() + " failed to publish data " + e.getMessage(), e);
+        }
+        task.driver.getMetrics().recordCycle(System.nanoTime() - cycleStart, 0, 0, 0);
+        long period = task.driver.getPublishPeriodNanos();
+        task.simDeadline += period > 0 ? period : freeRunStepNanos;
+        queue.add(task);
+      }
+    }
+  }
+}
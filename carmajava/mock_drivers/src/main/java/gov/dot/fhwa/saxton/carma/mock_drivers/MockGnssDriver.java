@@ -17,6 +17,7 @@
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
 import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
@@ -41,6 +42,15 @@ public class MockGnssDriver extends AbstractMockDriver {
   final Publisher<sensor_msgs.NavSatFix> navSatFixPub;
   final Publisher<geometry_msgs.TwistWithCovarianceStamped> velocityPub;
 
+  // Reusable messages
+  final MessagePool<geometry_msgs.PoseWithCovarianceStamped> headingPool;
+  final MessagePool<sensor_msgs.NavSatFix> navSatFixPool;
+  final MessagePool<geometry_msgs.TwistWithCovarianceStamped> velocityPool;
+
+  // Column bindings
+  ColumnSchema.Compiled<sensor_msgs.NavSatFix> navSatFixBinding;
+  ColumnSchema.Compiled<geometry_msgs.TwistWithCovarianceStamped> velocityBinding;
+
   // CONSTANTS
   // TODO update for different message spec
   final short SAMPLE_ID_IDX = 0;
@@ -77,8 +87,8 @@ public class MockGnssDriver extends AbstractMockDriver {
   final short MIN_ODOM_POSE_COVAR_IDX = MIN_ODOM_TWIST_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
   private final short EXPECTED_DATA_COL_COUNT = MIN_ODOM_POSE_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
 
-  public MockGnssDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  public MockGnssDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     headingPub =
@@ -87,19 +97,24 @@ public class MockGnssDriver extends AbstractMockDriver {
       connectedNode.newPublisher("gnss/fix_raw", sensor_msgs.NavSatFix._TYPE);
     velocityPub =
       connectedNode.newPublisher("gnss/vel_raw", geometry_msgs.TwistWithCovarianceStamped._TYPE);
+
+    // Messages
+    headingPool = newMessagePool(headingPub);
+    navSatFixPool = newMessagePool(navSatFixPub);
+    velocityPool = newMessagePool(velocityPub);
   }
 
-  @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
+  @Override protected void publishData(DataSample sample) throws IllegalArgumentException {
 
-    for (String[] elements : data) {
+    for (int row = 0; row < sample.getRowCount(); row++) {
       // Make messages
-      geometry_msgs.PoseWithCovarianceStamped headingMsg = headingPub.newMessage();
-      sensor_msgs.NavSatFix navMsg = navSatFixPub.newMessage();
-      geometry_msgs.TwistWithCovarianceStamped velocityMsg = velocityPub.newMessage();
+      geometry_msgs.PoseWithCovarianceStamped headingMsg = headingPool.next();
+      sensor_msgs.NavSatFix navMsg = navSatFixPool.next();
+      geometry_msgs.TwistWithCovarianceStamped velocityMsg = velocityPool.next();
 
       // Get data for headers
-      int seq = Integer.parseInt(elements[SAMPLE_ID_IDX]);
-      Time time = connectedNode.getCurrentTime();
+      int seq = sample.getInt(row, SAMPLE_ID_IDX);
+      Time time = getCurrentTime();
 
       // Set Data
       // Build Heading Message
@@ -112,49 +127,103 @@ public class MockGnssDriver extends AbstractMockDriver {
       navMsg.getHeader().setSeq(seq);
       navMsg.getHeader().setStamp(time);
 
-      sensor_msgs.NavSatStatus navSatStatus = navMsg.getStatus();
-      navSatStatus.setService(Short.parseShort(elements[NAV_SRV_IDX]));
-      navSatStatus.setStatus(Byte.parseByte(elements[NAV_STATUS_IDX]));
-      navMsg.setStatus(navSatStatus);
-
-      navMsg.setLatitude(Double.parseDouble(elements[NAV_LAT_IDX]));
-      navMsg.setLongitude(Double.parseDouble(elements[NAV_LON_IDX]));
-      navMsg.setAltitude(Double.parseDouble(elements[NAV_ALT_IDX]));
-      navMsg.setPositionCovarianceType(Byte.parseByte(elements[NAV_POS_COVR_TYPE_IDX]));
-
-      double[] posCovariance = new double[POS_COVARINCE_ELEMENT_COUNT];
-      for (int i = 0; i < POS_COVARINCE_ELEMENT_COUNT; i++) {
-        posCovariance[i] = Double.parseDouble(elements[MIN_POSE_COVAR_IDX + i]);
-      }
-      navMsg.setPositionCovariance(posCovariance);
+      navSatFixBinding.apply(sample, row, navMsg);
 
       // Build Velocity Message (TwistStamped)
       velocityMsg.getHeader().setFrameId("base_link");
       velocityMsg.getHeader().setSeq(seq);
       velocityMsg.getHeader().setStamp(time);
 
-      geometry_msgs.Twist twist = velocityMsg.getTwist().getTwist();
-      geometry_msgs.Vector3 angularVel = messageFactory.newFromType(geometry_msgs.Vector3._TYPE);
-      geometry_msgs.Vector3 linearVel = messageFactory.newFromType(geometry_msgs.Vector3._TYPE);
-      angularVel.setX(Double.parseDouble(elements[VEL_ANG_X_IDX]));
-      angularVel.setY(Double.parseDouble(elements[VEL_ANG_Y_IDX]));
-      angularVel.setZ(Double.parseDouble(elements[VEL_ANG_Z_IDX]));
-
-      linearVel.setX(Double.parseDouble(elements[VEL_LIN_X_IDX]));
-      linearVel.setY(Double.parseDouble(elements[VEL_LIN_Y_IDX]));
-      linearVel.setZ(Double.parseDouble(elements[VEL_LIN_Z_IDX]));
-
-      twist.setAngular(angularVel);
-      twist.setLinear(linearVel);
-      velocityMsg.getTwist().setTwist(twist);
+      velocityBinding.apply(sample, row, velocityMsg);
 
       // Publish Data
-      headingPub.publish(headingMsg);
-      navSatFixPub.publish(navMsg);
-      velocityPub.publish(velocityMsg);
+      publish(headingPub, headingMsg);
+      publish(navSatFixPub, navMsg);
+      publish(velocityPub, velocityMsg);
     }
   }
 
+  @Override protected void bindColumns(ColumnLayout layout) {
+    // The nested messages and the fixed size covariance array are owned by the message and filled in place
+    navSatFixBinding = compileSchema(new ColumnSchema<sensor_msgs.NavSatFix>()
+      .bindShort("navigation service", NAV_SRV_IDX, new ColumnSchema.ShortSetter<sensor_msgs.NavSatFix>() {
+        @Override public void set(sensor_msgs.NavSatFix msg, short value) {
+          msg.getStatus().setService(value);
+        }
+      })
+      .bindByte("navigation state", NAV_STATUS_IDX, new ColumnSchema.ByteSetter<sensor_msgs.NavSatFix>() {
+        @Override public void set(sensor_msgs.NavSatFix msg, byte value) {
+          msg.getStatus().setStatus(value);
+        }
+      })
+      .bindDouble("latitude", NAV_LAT_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.NavSatFix>() {
+        @Override public void set(sensor_msgs.NavSatFix msg, double value) {
+          msg.setLatitude(value);
+        }
+      })
+      .bindDouble("longitude", NAV_LON_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.NavSatFix>() {
+        @Override public void set(sensor_msgs.NavSatFix msg, double value) {
+          msg.setLongitude(value);
+        }
+      })
+      .bindDouble("altitude", NAV_ALT_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.NavSatFix>() {
+        @Override public void set(sensor_msgs.NavSatFix msg, double value) {
+          msg.setAltitude(value);
+        }
+      })
+      .bindByte("position covariance type", NAV_POS_COVR_TYPE_IDX,
+        new ColumnSchema.ByteSetter<sensor_msgs.NavSatFix>() {
+          @Override public void set(sensor_msgs.NavSatFix msg, byte value) {
+            msg.setPositionCovarianceType(value);
+          }
+        })
+      .bindDoubleRange("pose covariance 9 element start", MIN_POSE_COVAR_IDX, POS_COVARINCE_ELEMENT_COUNT,
+        new ColumnSchema.IndexedDoubleSetter<sensor_msgs.NavSatFix>() {
+          @Override public void set(sensor_msgs.NavSatFix msg, int i, double value) {
+            msg.getPositionCovariance()[i] = value;
+          }
+        }), layout);
+
+    velocityBinding = compileSchema(new ColumnSchema<geometry_msgs.TwistWithCovarianceStamped>()
+      .bindDouble("velocity angular x", VEL_ANG_X_IDX,
+        new ColumnSchema.DoubleSetter<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void set(geometry_msgs.TwistWithCovarianceStamped msg, double value) {
+            msg.getTwist().getTwist().getAngular().setX(value);
+          }
+        })
+      .bindDouble("velocity angular y", VEL_ANG_Y_IDX,
+        new ColumnSchema.DoubleSetter<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void set(geometry_msgs.TwistWithCovarianceStamped msg, double value) {
+            msg.getTwist().getTwist().getAngular().setY(value);
+          }
+        })
+      .bindDouble("velocity angular z", VEL_ANG_Z_IDX,
+        new ColumnSchema.DoubleSetter<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void set(geometry_msgs.TwistWithCovarianceStamped msg, double value) {
+            msg.getTwist().getTwist().getAngular().setZ(value);
+          }
+        })
+      .bindDouble("velocity linear x", VEL_LIN_X_IDX,
+        new ColumnSchema.DoubleSetter<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void set(geometry_msgs.TwistWithCovarianceStamped msg, double value) {
+            msg.getTwist().getTwist().getLinear().setX(value);
+          }
+        })
+      .bindDouble("velocity linear y", VEL_LIN_Y_IDX,
+        new ColumnSchema.DoubleSetter<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void set(geometry_msgs.TwistWithCovarianceStamped msg, double value) {
+            msg.getTwist().getTwist().getLinear().setY(value);
+          }
+        })
+      .bindDouble("velocity linear z", VEL_LIN_Z_IDX,
+        new ColumnSchema.DoubleSetter<geometry_msgs.TwistWithCovarianceStamped>() {
+          @Override public void set(geometry_msgs.TwistWithCovarianceStamped msg, double value) {
+            msg.getTwist().getTwist().getLinear().setZ(value);
+          }
+        }),
+      layout);
+  }
+
   @Override protected short getExpectedColCount() {
     return EXPECTED_DATA_COL_COUNT;
   }
@@ -17,6 +17,7 @@
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
 import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
@@ -29,8 +30,8 @@ import java.util.List;
  * <p>
  * Command line test:
  * ROSJava does not support rosrun parameter setting so a rosrun is a multi step process
- * rosparam set /mock_driver/simulated_driver 'pinpoint'
- * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/pinpoint_stationary.csv'
+ * rosparam set /mock_driver/simulated_driver 'imu'
+ * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/imu.csv'
  * rosrun carma mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
  */
 public class MockImuDriver extends AbstractMockDriver {
@@ -40,24 +41,120 @@ public class MockImuDriver extends AbstractMockDriver {
   final Publisher<sensor_msgs.Imu> imuPub;
   final String imuTopic = "imu/raw_data";
 
-  private final short EXPECTED_DATA_COL_COUNT = 132; // TODO
-  private final short SAMPLE_ID_IDX = 1;
+  // Column Indices
+  private final short SAMPLE_ID_IDX = 0;
+  private final short ORIENTATION_X_IDX = 1;
+  private final short ORIENTATION_Y_IDX = 2;
+  private final short ORIENTATION_Z_IDX = 3;
+  private final short ORIENTATION_W_IDX = 4;
+  private final short ANGULAR_VEL_X_IDX = 5;
+  private final short ANGULAR_VEL_Y_IDX = 6;
+  private final short ANGULAR_VEL_Z_IDX = 7;
+  private final short LINEAR_ACCEL_X_IDX = 8;
+  private final short LINEAR_ACCEL_Y_IDX = 9;
+  private final short LINEAR_ACCEL_Z_IDX = 10;
+  private final short ORIENTATION_COVAR_IDX = 11;
+  private final short ANGULAR_VEL_COVAR_IDX = 20;
+  private final short LINEAR_ACCEL_COVAR_IDX = 29;
+  private final short COVARIANCE_ELEMENT_COUNT = 9;
+  private final short EXPECTED_DATA_COL_COUNT = 38;
 
-  public MockImuDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  final MessagePool<sensor_msgs.Imu> imuPool;
+  ColumnSchema.Compiled<sensor_msgs.Imu> imuBinding;
+
+  public MockImuDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     imuPub =
       connectedNode.newPublisher(imuTopic, sensor_msgs.Imu._TYPE);
+    imuPool = newMessagePool(imuPub);
+  }
+
+  @Override protected void publishData(DataSample sample) throws IllegalArgumentException {
+    Time time = getCurrentTime();
+    for (int row = 0; row < sample.getRowCount(); row++) {
+      sensor_msgs.Imu imu = imuPool.next();
+      // Set Header Data
+      imu.getHeader().setFrameId("imu");
+      imu.getHeader().setSeq(sample.getInt(row, SAMPLE_ID_IDX));
+      imu.getHeader().setStamp(time);
+
+      imuBinding.apply(sample, row, imu);
+      publish(imuPub, imu);
+    }
   }
 
-  @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
-    // TODO use actual data from file
-    sensor_msgs.Imu imu = imuPub.newMessage();
-    // Set Header Data
-    imu.getHeader().setFrameId("imu");
-    imu.getHeader().setStamp(connectedNode.getCurrentTime());
-    imuPub.publish(imu);
+  @Override protected void bindColumns(ColumnLayout layout) {
+    imuBinding = compileSchema(new ColumnSchema<sensor_msgs.Imu>()
+      .bindDouble("orientation x", ORIENTATION_X_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getOrientation().setX(value);
+        }
+      })
+      .bindDouble("orientation y", ORIENTATION_Y_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getOrientation().setY(value);
+        }
+      })
+      .bindDouble("orientation z", ORIENTATION_Z_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getOrientation().setZ(value);
+        }
+      })
+      .bindDouble("orientation w", ORIENTATION_W_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getOrientation().setW(value);
+        }
+      })
+      .bindDouble("angular velocity x", ANGULAR_VEL_X_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getAngularVelocity().setX(value);
+        }
+      })
+      .bindDouble("angular velocity y", ANGULAR_VEL_Y_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getAngularVelocity().setY(value);
+        }
+      })
+      .bindDouble("angular velocity z", ANGULAR_VEL_Z_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getAngularVelocity().setZ(value);
+        }
+      })
+      .bindDouble("linear acceleration x", LINEAR_ACCEL_X_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getLinearAcceleration().setX(value);
+        }
+      })
+      .bindDouble("linear acceleration y", LINEAR_ACCEL_Y_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getLinearAcceleration().setY(value);
+        }
+      })
+      .bindDouble("linear acceleration z", LINEAR_ACCEL_Z_IDX, new ColumnSchema.DoubleSetter<sensor_msgs.Imu>() {
+        @Override public void set(sensor_msgs.Imu msg, double value) {
+          msg.getLinearAcceleration().setZ(value);
+        }
+      })
+      .bindDoubleRange("orientation covariance", ORIENTATION_COVAR_IDX, COVARIANCE_ELEMENT_COUNT,
+        new ColumnSchema.IndexedDoubleSetter<sensor_msgs.Imu>() {
+          @Override public void set(sensor_msgs.Imu msg, int i, double value) {
+            msg.getOrientationCovariance()[i] = value;
+          }
+        })
+      .bindDoubleRange("angular velocity covariance", ANGULAR_VEL_COVAR_IDX, COVARIANCE_ELEMENT_COUNT,
+        new ColumnSchema.IndexedDoubleSetter<sensor_msgs.Imu>() {
+          @Override public void set(sensor_msgs.Imu msg, int i, double value) {
+            msg.getAngularVelocityCovariance()[i] = value;
+          }
+        })
+      .bindDoubleRange("linear acceleration covariance", LINEAR_ACCEL_COVAR_IDX, COVARIANCE_ELEMENT_COUNT,
+        new ColumnSchema.IndexedDoubleSetter<sensor_msgs.Imu>() {
+          @Override public void set(sensor_msgs.Imu msg, int i, double value) {
+            msg.getLinearAccelerationCovariance()[i] = value;
+          }
+        }), layout);
   }
 
   @Override protected short getExpectedColCount() {
@@ -16,10 +16,16 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import diagnostic_msgs.KeyValue;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -32,6 +38,17 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'lidar'
  * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/pinpoint_stationary.csv'
  * rosrun carma mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * By default the driver publishes from its data file as before. With the lidar_source parameter set to synthetic no
+ * data file is read. Each cycle instead publishes
+ * an organized cloud generated by a LidarSweepGenerator along with a LaserScan of the same sweep. The sweep shape
+ * is set by the lidar_beams, lidar_horizontal_resolution_deg, lidar_min_elevation_deg, lidar_max_elevation_deg,
+ * lidar_max_range and lidar_sensor_height parameters and the sweep rate by publish_rate. Messages share the
+ * generator's sweep buffers when lidar_buffer_count exceeds the publisher queue plus the sweep being written out,
+ * and copy them otherwise.
+ * <p>
+ * With lidar_source set to point_files, data_file_path names a directory of KITTI style .bin point files which are
+ * replayed one per cycle through MappedPointFileSource. No LaserScan is published for recorded sweeps.
  */
 public class MockLidarDriver extends AbstractMockDriver {
 
@@ -47,28 +64,226 @@ public class MockLidarDriver extends AbstractMockDriver {
   // TODO setup to use actual data file
   final short SAMPLE_ID_IDX = 0;
   private final short EXPECTED_DATA_COL_COUNT = 132;
+  private final String frameId = "velodyne";
+
+  // Synthetic sweeps
+  final String lidarSource;
+  final List<sensor_msgs.PointField> pointFields = new ArrayList<>();
+  protected LidarSweepGenerator sweepGenerator = null;
+  private boolean copySweeps = false;
+  private long sweepStartNanos = 0;
+
+  // Recorded sweeps
+  protected MappedPointFileSource pointFiles = null;
+  private long reportedStallCount = 0;
+  private long lastStallReportTime = 0;
 
-  public MockLidarDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  public MockLidarDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     pointsPub =
       connectedNode.newPublisher(pointsTopic, sensor_msgs.PointCloud2._TYPE);
       scanPub =
       connectedNode.newPublisher(scanTopic, sensor_msgs.LaserScan._TYPE);
+
+    lidarSource = params.getString(privateName("lidar_source"), "data_file");
+    pointFields.add(newPointField("x", LidarSweepGenerator.X_OFFSET));
+    pointFields.add(newPointField("y", LidarSweepGenerator.Y_OFFSET));
+    pointFields.add(newPointField("z", LidarSweepGenerator.Z_OFFSET));
+    pointFields.add(newPointField("intensity", LidarSweepGenerator.INTENSITY_OFFSET));
+  }
+
+  /**
+   * Builds the description of a 32 bit float field of each point
+   */
+  private sensor_msgs.PointField newPointField(String name, int offset) {
+    sensor_msgs.PointField field = messageFactory.newFromType(sensor_msgs.PointField._TYPE);
+    field.setName(name);
+    field.setOffset(offset);
+    field.setDatatype(sensor_msgs.PointField.FLOAT32);
+    field.setCount(1);
+    return field;
+  }
+
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (lidarSource.equals("point_files")) {
+      try {
+        pointFiles = new MappedPointFileSource(dataFilePath,
+          params.getInteger(privateName("lidar_prefetch_depth"), 2), getGraphName() + "_point_prefetch");
+        log.info(getGraphName() + " replaying " + pointFiles.getFileCount() + " point files from " + dataFilePath);
+        setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+      } catch (IOException e) {
+        log.warn(getGraphName() + " could not open point files in " + dataFilePath + ". No data published "
+          + e.getMessage());
+        setDriverStatus(cav_msgs.DriverStatus.DEGRADED);
+      }
+      return;
+    }
+    if (!lidarSource.equals("synthetic")) {
+      super.onStart(connectedNode);
+      return;
+    }
+    // Published messages share the sweep buffers unless the ring is too shallow to outlast the publisher queue
+    int bufferCount = params.getInteger(privateName("lidar_buffer_count"), PUBLISHER_QUEUE_DEPTH + 2);
+    copySweeps = bufferCount <= PUBLISHER_QUEUE_DEPTH + 1; // Queued sweeps plus the one being written out
+    sweepGenerator = new LidarSweepGenerator(
+      params.getInteger(privateName("lidar_beams"), 32),
+      params.getDouble(privateName("lidar_horizontal_resolution_deg"), 0.2),
+      params.getDouble(privateName("lidar_min_elevation_deg"), -25.0),
+      params.getDouble(privateName("lidar_max_elevation_deg"), 15.0),
+      params.getDouble(privateName("lidar_max_range"), 120.0),
+      params.getDouble(privateName("lidar_sensor_height"), 1.8),
+      params.getInteger(privateName("lidar_threads"), Runtime.getRuntime().availableProcessors()),
+      bufferCount);
+    log.info(getGraphName() + " generating synthetic sweeps of " + sweepGenerator.getBeamCount() + " beams by "
+      + sweepGenerator.getColumnCount() + " columns");
+    if (copySweeps) {
+      log.warn(getGraphName() + " lidar_buffer_count of " + bufferCount + " does not exceed the "
+        + (PUBLISHER_QUEUE_DEPTH + 1) + " sweeps the publisher can hold. Each sweep will be copied into its messages");
+    }
+    setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+  }
+
+  @Override public void readAndPublishData() {
+    long start = System.nanoTime();
+    if (sweepGenerator != null) {
+      publishSyntheticSweep();
+    } else if (pointFiles != null) {
+      publishPointFile();
+    } else {
+      super.readAndPublishData();
+      return;
+    }
+    metrics.recordGeneratedSample(System.nanoTime() - start);
+  }
+
+  @Override protected void addDiagnosticValues(List<KeyValue> values) {
+    super.addDiagnosticValues(values);
+    if (pointFiles != null) {
+      addDiagnosticValue(values, "point_file_stalls", Long.toString(pointFiles.getStallCount()));
+      addDiagnosticValue(values, "point_file_stall_ms", Long.toString(pointFiles.getStallNanos() / 1000000));
+    }
+  }
+
+  /**
+   * Publishes the next recorded sweep as an unorganized cloud backed directly by the mapped point file
+   */
+  private void publishPointFile() {
+    MappedByteBuffer points;
+    try {
+      points = pointFiles.nextSweep();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    } catch (IOException e) {
+      pointFiles.close();
+      pointFiles = null;
+      log.warn(getGraphName() + " failed to read point file. No data will be published " + e.getMessage());
+      setDriverStatus(cav_msgs.DriverStatus.FAULT);
+      return;
+    }
+    reportPointFileStalls();
+
+    sensor_msgs.PointCloud2 cloud = pointsPub.newMessage();
+    cloud.getHeader().setFrameId(frameId);
+    cloud.getHeader().setStamp(getCurrentTime());
+    cloud.setHeight(1);
+    cloud.setWidth(points.remaining() / LidarSweepGenerator.POINT_STEP);
+    cloud.setFields(pointFields);
+    cloud.setIsBigendian(false);
+    cloud.setPointStep(LidarSweepGenerator.POINT_STEP);
+    cloud.setRowStep(cloud.getWidth() * LidarSweepGenerator.POINT_STEP);
+    cloud.setIsDense(true);
+    cloud.setData(ChannelBuffers.wrappedBuffer(points.duplicate().order(ByteOrder.LITTLE_ENDIAN)));
+    publish(pointsPub, cloud);
+  }
+
+  /**
+   * Logs how often publishing waited on point file prefetch. Reports are limited to one every 10 seconds
+   */
+  private void reportPointFileStalls() {
+    long now = System.currentTimeMillis();
+    if (pointFiles.getStallCount() == reportedStallCount || now - lastStallReportTime < 10000) {
+      return;
+    }
+    log.warn(getGraphName() + " waited on point file prefetch " + pointFiles.getStallCount() + " times for "
+      + pointFiles.getStallNanos() / 1000000 + " ms in total. Prefetch depth is " + pointFiles.getPrefetchDepth());
+    reportedStallCount = pointFiles.getStallCount();
+    lastStallReportTime = now;
+  }
+
+  /**
+   * Generates and publishes the next synthetic sweep along with its planar scan
+   */
+  private void publishSyntheticSweep() {
+    if (sweepStartNanos == 0) {
+      sweepStartNanos = getClockNanos();
+    }
+    LidarSweepGenerator.Sweep sweep;
+    try {
+      sweep = sweepGenerator.generate((getClockNanos() - sweepStartNanos) / 1e9);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    Time time = getCurrentTime();
+
+    sensor_msgs.PointCloud2 cloud = pointsPub.newMessage();
+    cloud.getHeader().setFrameId(frameId);
+    cloud.getHeader().setStamp(time);
+    cloud.setHeight(sweepGenerator.getBeamCount());
+    cloud.setWidth(sweepGenerator.getColumnCount());
+    cloud.setFields(pointFields);
+    cloud.setIsBigendian(false);
+    cloud.setPointStep(LidarSweepGenerator.POINT_STEP);
+    cloud.setRowStep(LidarSweepGenerator.POINT_STEP * sweepGenerator.getColumnCount());
+    cloud.setIsDense(false);
+    if (copySweeps) {
+      cloud.setData(ChannelBuffers.copiedBuffer(ByteOrder.LITTLE_ENDIAN, sweep.getData()));
+    } else {
+      // The generator does not refill this buffer until its ring wraps, which outlasts the publisher queue
+      cloud.setData(ChannelBuffers.wrappedBuffer(ByteOrder.LITTLE_ENDIAN, sweep.getData()));
+    }
+    publish(pointsPub, cloud);
+
+    float scanTime = getPublishPeriodNanos() / 1e9f;
+    sensor_msgs.LaserScan scan = scanPub.newMessage();
+    scan.setHeader(cloud.getHeader()); // Match headers
+    scan.setAngleMin(sweepGenerator.getAngleMin());
+    scan.setAngleIncrement(sweepGenerator.getAngleIncrement());
+    scan.setAngleMax(sweepGenerator.getAngleMin()
+      + sweepGenerator.getAngleIncrement() * (sweepGenerator.getColumnCount() - 1));
+    scan.setScanTime(scanTime);
+    scan.setTimeIncrement(scanTime / sweepGenerator.getColumnCount());
+    scan.setRangeMin(0.0f);
+    scan.setRangeMax((float) sweepGenerator.getMaxRange());
+    scan.setRanges(copySweeps ? sweep.getRanges().clone() : sweep.getRanges());
+    scan.setIntensities(copySweeps ? sweep.getIntensities().clone() : sweep.getIntensities());
+    publish(scanPub, scan);
+  }
+
+  @Override public void onInterruption() {
+    if (sweepGenerator != null) {
+      sweepGenerator.shutdown();
+    }
+    if (pointFiles != null) {
+      pointFiles.close();
+    }
+    super.onInterruption();
   }
 
-  @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
+  @Override protected void publishData(DataSample sample) throws IllegalArgumentException {
     // TODO use actual data from file
     sensor_msgs.PointCloud2 cloud = pointsPub.newMessage();
     // Set Header Data
-    cloud.getHeader().setFrameId("velodyne");
-    cloud.getHeader().setStamp(connectedNode.getCurrentTime());
-    pointsPub.publish(cloud);
+    cloud.getHeader().setFrameId(frameId);
+    cloud.getHeader().setStamp(getCurrentTime());
+    publish(pointsPub, cloud);
 
     sensor_msgs.LaserScan scan = scanPub.newMessage();
     scan.setHeader(cloud.getHeader()); // Match headers
-    scanPub.publish(scan);
+    publish(scanPub, scan);
   }
 
   @Override protected short getExpectedColCount() {
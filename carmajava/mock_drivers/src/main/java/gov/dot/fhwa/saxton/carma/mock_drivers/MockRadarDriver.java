@@ -16,12 +16,14 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import geometry_msgs.Point32;
 import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
+import radar_msgs.RadarTrack;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 /**
@@ -32,13 +34,24 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'radar'
  * rosparam set /mock_driver/data_file_path '/home/username/temp.csv'
  * rosrun carmajava mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * Every row of a sample becomes one track of the published track array. The track shape is the rectangular
+ * footprint given by the row's center point, x and y size and the yaw of its orientation. The data file's
+ * covariance blocks are not read as radar_msgs/RadarTrack has no covariance fields.
  */
 public class MockRadarDriver extends AbstractMockDriver {
 
   // Topics
   // Published
-  Publisher<radar_msgs.RadarTrackArray> tracksPub; 
-  Publisher<radar_msgs.RadarStatus> statusPub; 
+  Publisher<radar_msgs.RadarTrackArray> tracksPub;
+  Publisher<radar_msgs.RadarStatus> statusPub;
+  MessagePool<radar_msgs.RadarTrackArray> tracksPool;
+  MessagePool<radar_msgs.RadarStatus> statusPool;
+  MessageListPool<RadarTrack> trackPool;
+  MessageListPool<Point32> cornerPool;
+  ColumnSchema.Compiled<TrackRow> trackBinding;
+  private final TrackRow trackRow = new TrackRow();
+  private final String frameId = "f_lrr_frame";
 
   // TODO 
   // CONSTANTS
@@ -72,25 +85,40 @@ public class MockRadarDriver extends AbstractMockDriver {
   private final short MIN_VEL_INST_COVAR_IDX = MIN_VEL_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
   private final short EXPECTED_DATA_COL_COUNT = MIN_VEL_INST_COVAR_IDX + COVARINCE_ELEMENT_COUNT;
 
+  /**
+   * The columns of one data file row used to build a track
+   */
+  private static final class TrackRow {
+    short id;
+    double sizeX, sizeY;
+    double centerX, centerY, centerZ;
+    double quatW, quatX, quatY, quatZ;
+    double velX, velY, velZ;
+  }
+
   /**
    *  Constructor sets up ROS publishers and subscribers
    *
    * @param connectedNode The ROS node which will be used to simulate a Radar Driver
+   * @param driverName The name of this driver
    */
-  public MockRadarDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
+  public MockRadarDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
     // Topics
     // Published
     tracksPub = connectedNode.newPublisher("radar/tracks_raw", radar_msgs.RadarTrackArray._TYPE);
     statusPub = connectedNode.newPublisher("radar/status", radar_msgs.RadarStatus._TYPE);
+    tracksPool = newMessagePool(tracksPub);
+    statusPool = newMessagePool(statusPub);
+    trackPool = newMessageListPool(RadarTrack._TYPE);
+    cornerPool = newMessageListPool(Point32._TYPE);
   }
 
-  @Override protected void publishData(List<String[]> data) {
+  @Override protected void publishData(DataSample sample) {
 
-    String frameId = "f_lrr_frame";
-    Time currentTime = connectedNode.getCurrentTime();
-    radar_msgs.RadarTrackArray trackMsg = tracksPub.newMessage();
-    radar_msgs.RadarStatus statusMsg = statusPub.newMessage();
+    Time currentTime = getCurrentTime();
+    radar_msgs.RadarTrackArray trackMsg = tracksPool.next();
+    radar_msgs.RadarStatus statusMsg = statusPool.next();
 
     // Build Header
     std_msgs.Header hdr = trackMsg.getHeader();
@@ -99,8 +127,118 @@ public class MockRadarDriver extends AbstractMockDriver {
 
     statusMsg.setHeader(hdr);
 
-    tracksPub.publish(trackMsg);
-    statusPub.publish(statusMsg);
+    // One track per row
+    List<RadarTrack> tracks = trackPool.elements(trackMsg, sample.getRowCount());
+    for (int row = 0; row < tracks.size(); row++) {
+      trackBinding.apply(sample, row, trackRow);
+      RadarTrack track = tracks.get(row);
+      track.setTrackId(trackRow.id);
+      setFootprint(track, trackRow);
+      track.getLinearVelocity().setX(trackRow.velX);
+      track.getLinearVelocity().setY(trackRow.velY);
+      track.getLinearVelocity().setZ(trackRow.velZ);
+      // The data file has no acceleration columns
+      track.getLinearAcceleration().setX(0);
+      track.getLinearAcceleration().setY(0);
+      track.getLinearAcceleration().setZ(0);
+    }
+    trackMsg.setTracks(tracks);
+
+    publish(tracksPub, trackMsg);
+    publish(statusPub, statusMsg);
+  }
+
+  /**
+   * Sets the track shape to the corners of the row's footprint rotated by the yaw of its orientation
+   */
+  private void setFootprint(RadarTrack track, TrackRow row) {
+    double yaw = Math.atan2(2.0 * (row.quatW * row.quatZ + row.quatX * row.quatY),
+      1.0 - 2.0 * (row.quatY * row.quatY + row.quatZ * row.quatZ));
+    double cos = Math.cos(yaw);
+    double sin = Math.sin(yaw);
+    double halfX = row.sizeX / 2.0;
+    double halfY = row.sizeY / 2.0;
+
+    List<Point32> corners = cornerPool.elements(track.getTrackShape(), 4);
+    for (int i = 0; i < 4; i++) {
+      // Corners in order front left, front right, rear right, rear left
+      double dx = i < 2 ? halfX : -halfX;
+      double dy = i == 0 || i == 3 ? halfY : -halfY;
+      Point32 corner = corners.get(i);
+      corner.setX((float) (row.centerX + cos * dx - sin * dy));
+      corner.setY((float) (row.centerY + sin * dx + cos * dy));
+      corner.setZ((float) row.centerZ);
+    }
+    track.getTrackShape().setPoints(corners);
+  }
+
+  @Override protected void bindColumns(ColumnLayout layout) {
+    trackBinding = compileSchema(new ColumnSchema<TrackRow>()
+      .bindShort("object id", ID_IDX, new ColumnSchema.ShortSetter<TrackRow>() {
+        @Override public void set(TrackRow row, short value) {
+          row.id = value;
+        }
+      })
+      .bindDouble("size x", SIZE_X_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.sizeX = value;
+        }
+      })
+      .bindDouble("size y", SIZE_Y_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.sizeY = value;
+        }
+      })
+      .bindDouble("center point x", POINT_X_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.centerX = value;
+        }
+      })
+      .bindDouble("center point y", POINT_Y_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.centerY = value;
+        }
+      })
+      .bindDouble("center point z", POINT_Z_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.centerZ = value;
+        }
+      })
+      .bindDouble("quaternion w", QUAT_W_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.quatW = value;
+        }
+      })
+      .bindDouble("quaternion x", QUAT_X_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.quatX = value;
+        }
+      })
+      .bindDouble("quaternion y", QUAT_Y_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.quatY = value;
+        }
+      })
+      .bindDouble("quaternion z", QUAT_Z_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.quatZ = value;
+        }
+      })
+      .bindDouble("velocity linear x", VEL_LIN_X_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.velX = value;
+        }
+      })
+      .bindDouble("velocity linear y", VEL_LIN_Y_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.velY = value;
+        }
+      })
+      .bindDouble("velocity linear z", VEL_LIN_Z_IDX, new ColumnSchema.DoubleSetter<TrackRow>() {
+        @Override public void set(TrackRow row, double value) {
+          row.velZ = value;
+        }
+      }), layout);
   }
 
   @Override protected short getExpectedColCount() {
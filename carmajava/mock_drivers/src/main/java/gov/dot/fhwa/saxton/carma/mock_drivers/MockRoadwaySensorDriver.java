@@ -16,7 +16,10 @@
 
 package gov.dot.fhwa.saxton.carma.mock_drivers;
 
+import derived_object_msgs.Lane;
+import derived_object_msgs.ObjectWithCovariance;
 import org.ros.message.Time;
+import org.ros.namespace.GraphName;
 import org.ros.node.ConnectedNode;
 import org.ros.node.topic.Publisher;
 
@@ -32,6 +35,11 @@ import java.util.List;
  * rosparam set /mock_driver/simulated_driver 'roadway_sensor'
  * rosparam set /mock_driver/data_file_path '/opt/carma/test_data/pinpoint_stationary.csv'
  * rosrun carma mock_drivers gov.dot.fhwa.saxton.carma.mock_drivers.MockDriverNode
+ * <p>
+ * By default the driver publishes from its data file as before. With the roadway_source parameter set to synthetic no
+ * data file is read. A RoadwayObjectGenerator simulates roadway_object_count vehicles on a straight road of
+ * roadway_lane_count lanes, each roadway_lane_width wide, while the sensor vehicle drives down lane roadway_ego_lane at
+ * roadway_ego_speed. Every cycle publishes the tracked objects in view and the lane markings of the road.
  */
 public class MockRoadwaySensorDriver extends AbstractMockDriver {
 
@@ -40,24 +48,180 @@ public class MockRoadwaySensorDriver extends AbstractMockDriver {
   final Publisher<derived_object_msgs.LaneModels> lanesPub;
   final Publisher<derived_object_msgs.ObjectWithCovarianceArray> objectsPub;
 
+  final MessagePool<derived_object_msgs.LaneModels> lanesPool;
+  final MessagePool<derived_object_msgs.ObjectWithCovarianceArray> objectsPool;
+  final MessageListPool<ObjectWithCovariance> objectPool;
+  final MessageListPool<Lane> additionalLanePool;
+
   // CONSTANTS
   final short SAMPLE_ID_IDX = 0;
   private final short EXPECTED_DATA_COL_COUNT = 132;
+  private final String frameId = "mobile_eye";
+  private final double POSITION_VARIANCE = 0.25; // m^2
+  private final double ORIENTATION_VARIANCE = 0.01; // rad^2
+  private final double VELOCITY_VARIANCE = 0.5; // m^2/s^2
+  private final float MARKER_WIDTH = 0.15f; // m
 
-  public MockRoadwaySensorDriver(ConnectedNode connectedNode) {
-    super(connectedNode);
-    // Topics TODO this whole node
+  // Synthetic objects
+  final String roadwaySource;
+  protected RoadwayObjectGenerator objectGenerator = null;
+  private long lastUpdateNanos = 0;
+
+  public MockRoadwaySensorDriver(ConnectedNode connectedNode, GraphName driverName) {
+    super(connectedNode, driverName);
+    // Topics
     // Published
     lanesPub =
       connectedNode.newPublisher("roadway_sensor/lane_models", derived_object_msgs.LaneModels._TYPE);
     objectsPub =
       connectedNode.newPublisher("roadway_sensor/detected_objects", derived_object_msgs.ObjectWithCovarianceArray._TYPE);
+    lanesPool = newMessagePool(lanesPub);
+    objectsPool = newMessagePool(objectsPub);
+    objectPool = newMessageListPool(ObjectWithCovariance._TYPE);
+    additionalLanePool = newMessageListPool(Lane._TYPE);
+
+    roadwaySource = params.getString(privateName("roadway_source"), "data_file");
+  }
+
+  @Override public void onStart(ConnectedNode connectedNode) {
+    if (!roadwaySource.equals("synthetic")) {
+      super.onStart(connectedNode);
+      return;
+    }
+    objectGenerator = new RoadwayObjectGenerator(
+      params.getInteger(privateName("roadway_object_count"), 50),
+      params.getInteger(privateName("roadway_lane_count"), 3),
+      params.getDouble(privateName("roadway_lane_width"), 3.7),
+      params.getInteger(privateName("roadway_ego_lane"), 1),
+      params.getDouble(privateName("roadway_ego_speed"), 25.0),
+      params.getDouble(privateName("roadway_front_range"), 150.0),
+      params.getDouble(privateName("roadway_rear_range"), 50.0));
+    log.info(getGraphName() + " simulating " + objectGenerator.getObjectCount() + " objects on "
+      + objectGenerator.getLaneCount() + " lanes");
+    setDriverStatus(cav_msgs.DriverStatus.OPERATIONAL);
+  }
+
+  @Override public void readAndPublishData() {
+    if (objectGenerator != null) {
+      long start = System.nanoTime();
+      publishSyntheticObjects();
+      metrics.recordGeneratedSample(System.nanoTime() - start);
+    } else {
+      super.readAndPublishData();
+    }
+  }
+
+  /**
+   * Advances the simulated traffic by the time since the last cycle and publishes the objects and lanes
+   */
+  private void publishSyntheticObjects() {
+    long now = getClockNanos();
+    if (lastUpdateNanos != 0) {
+      objectGenerator.update((now - lastUpdateNanos) / 1e9);
+    }
+    lastUpdateNanos = now;
+
+    derived_object_msgs.LaneModels laneMsg = lanesPool.next();
+    derived_object_msgs.ObjectWithCovarianceArray objMsg = objectsPool.next();
+    std_msgs.Header hdr = laneMsg.getHeader();
+    hdr.setFrameId(frameId);
+    hdr.setStamp(getCurrentTime());
+    objMsg.setHeader(hdr);
+
+    List<ObjectWithCovariance> objects = objectPool.elements(objMsg, objectGenerator.getObjectCount());
+    for (int i = 0; i < objects.size(); i++) {
+      ObjectWithCovariance object = objects.get(i);
+      object.setHeader(hdr);
+      fillObject(object, i);
+    }
+    objMsg.setObjects(objects);
+
+    // Lane boundaries of the sensor's lane, then the other boundaries of the road from right to left
+    fillLane(laneMsg.getLeftLane(), objectGenerator.getLaneWidth() / 2.0);
+    fillLane(laneMsg.getRightLane(), -objectGenerator.getLaneWidth() / 2.0);
+    int egoLane = objectGenerator.getEgoLane();
+    List<Lane> additionalLanes = additionalLanePool.elements(laneMsg, objectGenerator.getLaneCount() - 1);
+    int laneIdx = 0;
+    for (int boundary = 0; boundary <= objectGenerator.getLaneCount(); boundary++) {
+      if (boundary == egoLane || boundary == egoLane + 1) {
+        continue;
+      }
+      double offset = objectGenerator.laneCenter(boundary) - objectGenerator.getLaneWidth() / 2.0;
+      fillLane(additionalLanes.get(laneIdx++), offset);
+    }
+    laneMsg.setAdditionalLanes(additionalLanes);
+
+    publish(objectsPub, objMsg);
+    publish(lanesPub, laneMsg);
+  }
+
+  /**
+   * Copies the state of a simulated object into a message
+   */
+  private void fillObject(ObjectWithCovariance object, int i) {
+    object.setId(objectGenerator.getId(i));
+    object.setDetectionLevel(ObjectWithCovariance.OBJECT_TRACKED);
+    object.setObjectClassified(true);
+    object.setClassification(objectGenerator.getClassification(i) == RoadwayObjectGenerator.CLASS_TRUCK
+      ? ObjectWithCovariance.CLASSIFICATION_TRUCK : ObjectWithCovariance.CLASSIFICATION_CAR);
+    object.setClassificationCertainty((byte) 100);
+    object.setClassificationAge(objectGenerator.getAge(i));
+
+    geometry_msgs.Pose pose = object.getPose().getPose();
+    pose.getPosition().setX(objectGenerator.getX(i));
+    pose.getPosition().setY(objectGenerator.getY(i));
+    pose.getPosition().setZ(objectGenerator.getHeight(i) / 2.0);
+    double heading = objectGenerator.getHeading(i);
+    pose.getOrientation().setX(0);
+    pose.getOrientation().setY(0);
+    pose.getOrientation().setZ(Math.sin(heading / 2.0));
+    pose.getOrientation().setW(Math.cos(heading / 2.0));
+    setDiagonal(object.getPose().getCovariance(), POSITION_VARIANCE, ORIENTATION_VARIANCE);
+
+    geometry_msgs.Twist twist = object.getTwist().getTwist();
+    twist.getLinear().setX(objectGenerator.getRelativeSpeed(i));
+    twist.getLinear().setY(objectGenerator.getLateralSpeed(i));
+    setDiagonal(object.getTwist().getCovariance(), VELOCITY_VARIANCE, ORIENTATION_VARIANCE);
+
+    shape_msgs.SolidPrimitive shape = object.getShape();
+    shape.setType(shape_msgs.SolidPrimitive.BOX);
+    double[] dimensions = shape.getDimensions();
+    if (dimensions == null || dimensions.length != 3) {
+      dimensions = new double[3];
+      shape.setDimensions(dimensions);
+    }
+    dimensions[0] = objectGenerator.getLength(i);
+    dimensions[1] = objectGenerator.getWidth(i);
+    dimensions[2] = objectGenerator.getHeight(i);
+  }
+
+  /**
+   * Sets the diagonal of a 6x6 covariance matrix with the linear terms followed by the angular terms
+   */
+  private static void setDiagonal(double[] covariance, double linearVariance, double angularVariance) {
+    for (int i = 0; i < 6; i++) {
+      covariance[i * 7] = i < 3 ? linearVariance : angularVariance;
+    }
+  }
+
+  /**
+   * Describes a straight lane marking parallel to the sensor vehicle
+   *
+   * @param lane The message to fill
+   * @param offset The lateral offset of the marking in m. Positive to the left
+   */
+  private void fillLane(Lane lane, double offset) {
+    lane.setMarkerOffset((float) offset);
+    lane.setHeadingAngle(0.0f);
+    lane.setCurvature(0.0f);
+    lane.setCurvatureDerivative(0.0f);
+    lane.setMarkerWidth(MARKER_WIDTH);
+    lane.setViewRange((float) objectGenerator.getFrontRange());
   }
 
-  @Override protected void publishData(List<String[]> data) throws IllegalArgumentException {
+  @Override protected void publishData(DataSample sample) throws IllegalArgumentException {
 
-    String frameId = "mobile_eye";
-    Time currentTime = connectedNode.getCurrentTime();
+    Time currentTime = getCurrentTime();
     derived_object_msgs.LaneModels laneMsg = lanesPub.newMessage();
     derived_object_msgs.ObjectWithCovarianceArray objMsg = objectsPub.newMessage();
 
@@ -68,8 +232,8 @@ public class MockRoadwaySensorDriver extends AbstractMockDriver {
 
     objMsg.setHeader(hdr);
 
-    lanesPub.publish(laneMsg);
-    objectsPub.publish(objMsg);
+    publish(lanesPub, laneMsg);
+    publish(objectsPub, objMsg);
   }
 
   @Override protected short getExpectedColCount() {
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads sample groups ahead of the publishing loop on a dedicated thread.
+ * <p>
+ * The prefetch thread reads, and if needed decompresses, groups from the wrapped reader into a fixed ring of
+ * buffers and hands them to the consumer through a bounded queue. One buffer is always held by the consumer while
+ * the rest are filled ahead of it, so a depth of one gives classic double buffering.
+ * A stall is counted whenever the consumer asks for a group before the prefetch thread has one ready,
+ * except for the very first request.
+ */
+public class PrefetchingSampleReader implements SampleReader {
+
+  private static final Slot FAILED = new Slot(); // Queued once the prefetch thread has stopped on a read failure
+
+  private final SampleReader reader;
+  private final int depth;
+  private final BlockingQueue<Slot> freeSlots;
+  private final BlockingQueue<Slot> readySlots;
+  private final Thread prefetchThread;
+
+  private Slot consumerSlot = null;
+  private Slot nextSlot = null;
+  private volatile IOException readFailure = null;
+  private volatile boolean closed = false;
+
+  private final AtomicLong stallCount = new AtomicLong();
+  private final AtomicLong stallNanos = new AtomicLong();
+  private final AtomicLong samplesRead = new AtomicLong();
+
+  /**
+   * Starts prefetching from the provided reader
+   *
+   * @param reader The reader to prefetch from. It is only accessed by the prefetch thread from now on
+   * @param depth The number of groups which may be read ahead of the consumer
+   * @param threadName The name of the prefetch thread
+   */
+  public PrefetchingSampleReader(SampleReader reader, int depth, String threadName) {
+    this.reader = reader;
+    this.depth = depth;
+    this.freeSlots = new ArrayBlockingQueue<>(depth + 1);
+    this.readySlots = new ArrayBlockingQueue<>(depth + 1);
+    for (int i = 0; i < depth + 1; i++) {
+      freeSlots.add(new Slot());
+    }
+    prefetchThread = new Thread(new Runnable() {
+      @Override public void run() {
+        prefetch();
+      }
+    }, threadName);
+    prefetchThread.setDaemon(true);
+    prefetchThread.start();
+  }
+
+  private void prefetch() {
+    try {
+      while (!closed) {
+        Slot slot = freeSlots.take();
+        slot.first = reader.isAtFirstSample();
+        ByteBuffer sample = reader.nextSample();
+        if (sample == null) {
+          slot.empty = true;
+        } else {
+          slot.empty = false;
+          slot.fill(sample);
+        }
+        readySlots.put(slot);
+      }
+    } catch (InterruptedException e) {
+      // Closed
+    } catch (IOException e) {
+      readFailure = e;
+      readySlots.offer(FAILED); // Wake the consumer so it sees the failure
+    }
+  }
+
+  private Slot takeReadySlot() throws IOException {
+    Slot slot = readySlots.poll();
+    if (slot == null) {
+      boolean warmingUp = consumerSlot == null; // Nothing could have been read ahead of the first request
+      long start = System.nanoTime();
+      try {
+        slot = readySlots.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for prefetched data", e);
+      }
+      if (!warmingUp) {
+        stallCount.incrementAndGet();
+        stallNanos.addAndGet(System.nanoTime() - start);
+      }
+    }
+    if (slot == FAILED) {
+      readySlots.offer(FAILED); // Nothing else will be read, so every later call must fail too
+      throw readFailure;
+    }
+    return slot;
+  }
+
+  @Override public ByteBuffer nextSample() throws IOException {
+    Slot slot = nextSlot != null ? nextSlot : takeReadySlot();
+    nextSlot = null;
+    if (consumerSlot != null) {
+      freeSlots.add(consumerSlot);
+    }
+    consumerSlot = slot;
+    if (slot.empty) {
+      return null;
+    }
+    samplesRead.incrementAndGet();
+    slot.buffer.clear();
+    slot.buffer.limit(slot.length);
+    return slot.buffer;
+  }
+
+  @Override public boolean isAtFirstSample() {
+    if (nextSlot == null) {
+      try {
+        nextSlot = takeReadySlot();
+      } catch (IOException e) {
+        return false; // Reported on the next call to nextSample
+      }
+    }
+    return nextSlot.first;
+  }
+
+  @Override public String getHeaderLine() throws IOException {
+    return reader.getHeaderLine();
+  }
+
+  /**
+   * Gets the number of groups which may be read ahead of the consumer
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Gets the number of groups currently read ahead and waiting for the consumer
+   */
+  public int getReadyCount() {
+    return readySlots.size() + (nextSlot != null ? 1 : 0);
+  }
+
+  /**
+   * Gets the number of times the consumer had to wait for the prefetch thread
+   */
+  public long getStallCount() {
+    return stallCount.get();
+  }
+
+  /**
+   * Gets the total time in nanoseconds the consumer has spent waiting for the prefetch thread
+   */
+  public long getStallNanos() {
+    return stallNanos.get();
+  }
+
+  /**
+   * Gets the number of groups handed to the consumer
+   */
+  public long getSamplesRead() {
+    return samplesRead.get();
+  }
+
+  @Override public void close() throws IOException {
+    closed = true;
+    prefetchThread.interrupt();
+    try {
+      prefetchThread.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    reader.close();
+  }
+
+  /**
+   * A buffer holding one prefetched group
+   */
+  private static class Slot {
+    byte[] data = new byte[0];
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    int length;
+    boolean first;
+    boolean empty;
+
+    void fill(ByteBuffer sample) {
+      length = sample.remaining();
+      if (data.length < length) {
+        data = new byte[Math.max(length, data.length * 2)];
+        buffer = ByteBuffer.wrap(data);
+      }
+      sample.get(data, 0, length);
+    }
+  }
+}
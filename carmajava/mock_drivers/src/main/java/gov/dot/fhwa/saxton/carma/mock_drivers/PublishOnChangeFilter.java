@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * Decides whether a topic's latest value needs to be published, the way a CAN gateway only forwards signals when
+ * they change and otherwise repeats them at a slower heartbeat.
+ * <p>
+ * Values are compared by their exact bit patterns. When the filter is disabled every value is published but the
+ * sent count is still kept.
+ */
+public class PublishOnChangeFilter {
+
+  private final String topic;
+  private final boolean enabled;
+  private final long heartbeatNanos;
+
+  private boolean hasValue = false;
+  private long lastValueBits = 0;
+  private long lastSentNanos = 0;
+  private long sentCount = 0;
+  private long suppressedCount = 0;
+
+  /**
+   * Constructor
+   *
+   * @param topic The topic the filtered values are published on. Used for reporting
+   * @param enabled False if every value should be published
+   * @param heartbeatNanos How long an unchanged value may go unpublished. 0 or less publishes only on change
+   */
+  public PublishOnChangeFilter(String topic, boolean enabled, long heartbeatNanos) {
+    this.topic = topic;
+    this.enabled = enabled;
+    this.heartbeatNanos = heartbeatNanos;
+  }
+
+  /**
+   * Returns true if the value should be published
+   * @param value The latest value of the topic
+   * @param nowNanos The current System.nanoTime value
+   */
+  public boolean shouldPublish(double value, long nowNanos) {
+    long valueBits = Double.doubleToLongBits(value);
+    boolean publish = !enabled || !hasValue || valueBits != lastValueBits
+      || (heartbeatNanos > 0 && nowNanos - lastSentNanos >= heartbeatNanos);
+    if (!publish) {
+      suppressedCount++;
+      return false;
+    }
+    hasValue = true;
+    lastValueBits = valueBits;
+    lastSentNanos = nowNanos;
+    sentCount++;
+    return true;
+  }
+
+  /**
+   * Returns true if the value should be published
+   * @param value The latest value of the topic
+   * @param nowNanos The current System.nanoTime value
+   */
+  public boolean shouldPublish(boolean value, long nowNanos) {
+    return shouldPublish(value ? 1.0 : 0.0, nowNanos);
+  }
+
+  /**
+   * Gets the topic the filtered values are published on
+   */
+  public String getTopic() {
+    return topic;
+  }
+
+  /**
+   * Gets the number of values which were published
+   */
+  public long getSentCount() {
+    return sentCount;
+  }
+
+  /**
+   * Gets the number of values which were not published as they had not changed
+   */
+  public long getSuppressedCount() {
+    return suppressedCount;
+  }
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.util.Random;
+
+/**
+ * Simulates traffic on a straight multi lane road as seen from a vehicle driving down one of its lanes.
+ * <p>
+ * Object state is held in primitive arrays indexed by object slot and advanced in place, so the cost of an update
+ * grows linearly with the object count and no objects are allocated after construction. Positions are in the
+ * sensor frame with x forward along the road and y to the left, where lane 0 is the rightmost lane. Objects drive
+ * at their own speed, now and then change to a neighbouring lane, and are replaced by a new object with a new id at
+ * the far end of the view when they leave it. Replacements always move into the view, so they stay in it for more than
+ * one update.
+ */
+public class RoadwayObjectGenerator {
+
+  public static final byte CLASS_CAR = 0;
+  public static final byte CLASS_TRUCK = 1;
+
+  private static final double LANE_CHANGE_RATE = 0.02; // Lane changes started per object per second
+  private static final double LATERAL_SPEED = 1.0; // m/s
+  private static final double MIN_ENTRY_SPEED = 0.5; // Least speed in m/s relative to the sensor of entering objects
+
+  private final int laneCount;
+  private final double laneWidth;
+  private final int egoLane;
+  private final double egoSpeed;
+  private final double frontRange;
+  private final double rearRange;
+  private final Random random = new Random(42);
+  private int nextId = 1;
+
+  private final int[] ids;
+  private final int[] ages;
+  private final byte[] classes;
+  private final double[] x;
+  private final double[] y;
+  private final double[] targetY;
+  private final double[] speeds;
+  private final double[] lateralSpeeds;
+  private final double[] lengths;
+  private final double[] widths;
+  private final double[] heights;
+
+  /**
+   * Constructor spreads the objects over the road
+   *
+   * @param objectCount The number of objects kept in view
+   * @param laneCount The number of lanes
+   * @param laneWidth The width of a lane in m
+   * @param egoLane The lane of the sensor vehicle counting from 0 at the right
+   * @param egoSpeed The speed of the sensor vehicle in m/s
+   * @param frontRange The distance in m ahead of the sensor at which objects appear and disappear
+   * @param rearRange The distance in m behind the sensor at which objects appear and disappear
+   */
+  public RoadwayObjectGenerator(int objectCount, int laneCount, double laneWidth, int egoLane, double egoSpeed,
+    double frontRange, double rearRange) {
+    this.laneCount = Math.max(1, laneCount);
+    this.laneWidth = laneWidth;
+    this.egoLane = Math.min(Math.max(0, egoLane), this.laneCount - 1);
+    this.egoSpeed = egoSpeed;
+    this.frontRange = frontRange;
+    this.rearRange = rearRange;
+
+    int count = Math.max(0, objectCount);
+    ids = new int[count];
+    ages = new int[count];
+    classes = new byte[count];
+    x = new double[count];
+    y = new double[count];
+    targetY = new double[count];
+    speeds = new double[count];
+    lateralSpeeds = new double[count];
+    lengths = new double[count];
+    widths = new double[count];
+    heights = new double[count];
+    for (int i = 0; i < count; i++) {
+      spawn(i, -rearRange + random.nextDouble() * (frontRange + rearRange), 0);
+    }
+  }
+
+  /**
+   * Places a new object in a slot
+   *
+   * @param i The slot
+   * @param startX The longitudinal position of the object
+   * @param direction 1 if the object enters at the rear and must overtake the sensor, -1 if it enters at the front
+   * and must be overtaken, 0 for any speed
+   */
+  private void spawn(int i, double startX, int direction) {
+    ids[i] = nextId++;
+    ages[i] = 0;
+    boolean truck = random.nextDouble() < 0.15;
+    classes[i] = truck ? CLASS_TRUCK : CLASS_CAR;
+    lengths[i] = truck ? 12.0 + random.nextDouble() * 6.0 : 4.0 + random.nextDouble() * 1.2;
+    widths[i] = truck ? 2.5 : 1.8 + random.nextDouble() * 0.2;
+    heights[i] = truck ? 3.8 : 1.4 + random.nextDouble() * 0.4;
+    double relativeSpeed = egoSpeed * (random.nextDouble() * 0.4 - 0.2) - (truck ? 3.0 : 0.0);
+    if (direction != 0 && relativeSpeed * direction < MIN_ENTRY_SPEED) {
+      // Mirror the draw so the object moves into the view instead of leaving it again on the next update
+      relativeSpeed = direction * Math.max(Math.abs(relativeSpeed), MIN_ENTRY_SPEED);
+    }
+    speeds[i] = egoSpeed + relativeSpeed;
+    x[i] = startX;
+    y[i] = laneCenter(random.nextInt(laneCount));
+    targetY[i] = y[i];
+    lateralSpeeds[i] = 0;
+  }
+
+  /**
+   * Gets the lateral position of the center of a lane relative to the sensor
+   */
+  public double laneCenter(int lane) {
+    return (lane - egoLane) * laneWidth;
+  }
+
+  /**
+   * Advances every object
+   *
+   * @param dt The elapsed time in s
+   */
+  public void update(double dt) {
+    double laneChangeChance = LANE_CHANGE_RATE * dt;
+    for (int i = 0; i < ids.length; i++) {
+      x[i] += (speeds[i] - egoSpeed) * dt;
+      if (x[i] > frontRange) {
+        spawn(i, -rearRange, 1);
+        continue;
+      } else if (x[i] < -rearRange) {
+        spawn(i, frontRange, -1);
+        continue;
+      }
+      ages[i]++;
+
+      double offset = targetY[i] - y[i];
+      if (offset == 0 && random.nextDouble() < laneChangeChance) {
+        int lane = (int) Math.round(y[i] / laneWidth) + egoLane;
+        int newLane = lane + (random.nextBoolean() ? 1 : -1);
+        if (newLane >= 0 && newLane < laneCount) {
+          targetY[i] = laneCenter(newLane);
+        }
+      } else if (offset != 0) {
+        double step = LATERAL_SPEED * dt;
+        if (Math.abs(offset) <= step) {
+          y[i] = targetY[i];
+          lateralSpeeds[i] = 0;
+        } else {
+          y[i] += Math.copySign(step, offset);
+          lateralSpeeds[i] = Math.copySign(LATERAL_SPEED, offset);
+        }
+      }
+    }
+  }
+
+  public int getObjectCount() {
+    return ids.length;
+  }
+
+  public int getId(int i) {
+    return ids[i];
+  }
+
+  /**
+   * Gets the number of updates the object in a slot has been in view for
+   */
+  public int getAge(int i) {
+    return ages[i];
+  }
+
+  public byte getClassification(int i) {
+    return classes[i];
+  }
+
+  public double getX(int i) {
+    return x[i];
+  }
+
+  public double getY(int i) {
+    return y[i];
+  }
+
+  /**
+   * Gets the heading of an object relative to the road in rad
+   */
+  public double getHeading(int i) {
+    return Math.atan2(lateralSpeeds[i], speeds[i]);
+  }
+
+  /**
+   * Gets the forward speed of an object relative to the sensor in m/s
+   */
+  public double getRelativeSpeed(int i) {
+    return speeds[i] - egoSpeed;
+  }
+
+  public double getLateralSpeed(int i) {
+    return lateralSpeeds[i];
+  }
+
+  public double getLength(int i) {
+    return lengths[i];
+  }
+
+  public double getWidth(int i) {
+    return widths[i];
+  }
+
+  public double getHeight(int i) {
+    return heights[i];
+  }
+
+  public int getLaneCount() {
+    return laneCount;
+  }
+
+  public double getLaneWidth() {
+    return laneWidth;
+  }
+
+  public int getEgoLane() {
+    return egoLane;
+  }
+
+  public double getFrontRange() {
+    return frontRange;
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the raw bytes of the sample groups in a delimited data file.
+ * A sample group is every consecutive row sharing a sample id. Readers loop forever, returning the first group
+ * again after the last one. The first line of a file is its header and is never returned as data.
+ */
+public interface SampleReader extends Closeable {
+
+  /**
+   * Reads the next sample group, wrapping around to the first group after the last one.
+   * The returned buffer is backed by an array and is only valid until the next call.
+   *
+   * @return A buffer holding the rows of the group or null if the file has no data rows
+   * @throws IOException If the file could not be read
+   */
+  ByteBuffer nextSample() throws IOException;
+
+  /**
+   * Returns true if the next call to nextSample will return the first group in the file
+   */
+  boolean isAtFirstSample();
+
+  /**
+   * Gets the header line of the file
+   *
+   * @return The first line of the file without its line terminator
+   * @throws IOException If the file could not be read
+   */
+  String getHeaderLine() throws IOException;
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.message.Time;
+import org.ros.node.topic.Publisher;
+
+/**
+ * A simulated clock shared by the drivers of one node and published on /clock for the rest of the system.
+ * <p>
+ * With a positive speedup simulated time runs that many times faster than the wall clock from the moment the clock
+ * is created. With a speedup of 0 the clock free runs: it only moves when advanceTo is called, which lets the
+ * scheduler jump straight from one driver deadline to the next without waiting. Simulated time starts at the wall
+ * clock time of construction so stamps stay plausible for tools which display them.
+ */
+public class SimClock {
+
+  private final Publisher<rosgraph_msgs.Clock> clockPub;
+  private final double speedup;
+  private final long startSimNanos;
+  private final long startWallNanos;
+  private volatile long freeRunNanos;
+  private long publishedNanos = -1;
+
+  /**
+   * Constructor
+   *
+   * @param clockPub The publisher for the /clock topic
+   * @param speedup Simulated seconds per wall clock second. 0 or less to free run
+   */
+  public SimClock(Publisher<rosgraph_msgs.Clock> clockPub, double speedup) {
+    this.clockPub = clockPub;
+    this.speedup = Math.max(0, speedup);
+    this.startSimNanos = System.currentTimeMillis() * 1000000L;
+    this.startWallNanos = System.nanoTime();
+    this.freeRunNanos = startSimNanos;
+  }
+
+  /**
+   * Returns true if time only advances through advanceTo
+   */
+  public boolean isFreeRunning() {
+    return speedup == 0;
+  }
+
+  public double getSpeedup() {
+    return speedup;
+  }
+
+  /**
+   * Gets the current simulated time in ns since the epoch
+   */
+  public long nowNanos() {
+    if (isFreeRunning()) {
+      return freeRunNanos;
+    }
+    return startSimNanos + (long) ((System.nanoTime() - startWallNanos) * speedup);
+  }
+
+  /**
+   * Gets the current simulated time
+   */
+  public Time now() {
+    return Time.fromNano(nowNanos());
+  }
+
+  /**
+   * Gets the simulated time at which the clock started
+   */
+  public long getStartNanos() {
+    return startSimNanos;
+  }
+
+  /**
+   * Moves a free running clock forward and publishes the new time. Earlier times are ignored
+   *
+   * @param simNanos The new simulated time in ns since the epoch
+   */
+  public void advanceTo(long simNanos) {
+    if (simNanos > freeRunNanos) {
+      freeRunNanos = simNanos;
+      publish();
+    }
+  }
+
+  /**
+   * Converts a simulated duration to the wall clock duration it takes at the current speedup
+   *
+   * @param simNanos The simulated duration in ns
+   * @return The wall clock duration in ns. 0 when free running
+   */
+  public long toWallNanos(long simNanos) {
+    return isFreeRunning() ? 0 : (long) (simNanos / speedup);
+  }
+
+  /**
+   * Publishes the current simulated time unless it has already been published
+   */
+  public synchronized void publish() {
+    long now = nowNanos();
+    if (now == publishedNanos) {
+      return;
+    }
+    rosgraph_msgs.Clock clockMsg = clockPub.newMessage();
+    clockMsg.setClock(Time.fromNano(now));
+    clockPub.publish(clockMsg);
+    publishedNanos = now;
+  }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.ros.RosCore;
+import org.ros.internal.node.client.MasterClient;
+import org.ros.master.client.TopicType;
+import org.ros.message.MessageListener;
+import org.ros.message.Time;
+import org.ros.namespace.GraphName;
+import org.ros.node.AbstractNodeMain;
+import org.ros.node.ConnectedNode;
+import org.ros.node.DefaultNodeMainExecutor;
+import org.ros.node.NodeConfiguration;
+import org.ros.node.NodeMainExecutor;
+import org.ros.node.parameter.ParameterTree;
+import org.ros.node.topic.Subscriber;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds the highest publish rate each mock driver sustains through the real rosjava transport.
+ * <p>
+ * The harness starts a private ROS master in process and runs every driver in its own MockDriverNode, as the launch
+ * files do. A harness node subscribes to every topic in the driver's API and counts what arrives. The delay from a
+ * message's header stamp to its receipt is kept in a LatencyHistogram. Each step of the ramp restarts the driver at
+ * a higher publish_rate, waits out a warmup and then compares the messages the driver published with those
+ * received over a measurement window. A step fails when the driver cannot reach the requested sample rate, when a
+ * topic loses more than the allowed fraction of its messages or when the 99th percentile latency exceeds the limit.
+ * The ramp of a driver stops at its first failed step.
+ * <p>
+ * The results of every step are written to a JSON report. Only loopback connections are used, so the harness runs
+ * on a machine without a network.
+ * <p>
+ * Usage:
+ * ThroughputHarness [--drivers can,gnss,radar] [--data_dir config/data] [--report report.json]
+ *   [--start_rate 10] [--rate_factor 2] [--max_rate 5000] [--warmup_s 2] [--step_s 5]
+ *   [--max_latency_ms 20] [--max_drop 0.001] [--param name=value ...]
+ * Each --param is set in the private namespace of every driver, for example --param message_pool_depth=32
+ */
+public class ThroughputHarness {
+
+  private static final long NODE_START_TIMEOUT_MS = 10000;
+  private static final long NODE_SHUTDOWN_WAIT_MS = 500;
+  private static final double SATURATION_FRACTION = 0.95;
+  private static final Map<String, String> DATA_FILES = new HashMap<>();
+
+  static {
+    DATA_FILES.put("can", "can.csv");
+    DATA_FILES.put("gnss", "pinpoint.csv");
+    DATA_FILES.put("imu", "imu.csv");
+    DATA_FILES.put("comms", "dsrc.csv");
+    DATA_FILES.put("controller", "srx_controller.csv");
+    DATA_FILES.put("radar", "radar.csv");
+  }
+
+  private final Map<String, String> options;
+  private final Map<String, Object> driverParams;
+  private URI masterUri;
+  private NodeMainExecutor executor;
+  private ConnectedNode harnessNode;
+
+  /**
+   * Received message count and latency of one subscribed topic
+   */
+  private static final class TopicCounter implements MessageListener<Object> {
+    final String topic;
+    final String messageType;
+    final AtomicLong received = new AtomicLong();
+    final LatencyHistogram latency = new LatencyHistogram();
+    private final ConnectedNode node;
+    private Subscriber<Object> subscriber;
+    private Method headerGetter = null;
+    private boolean headerChecked = false;
+
+    TopicCounter(ConnectedNode node, String topic, String messageType) {
+      this.node = node;
+      this.topic = topic;
+      this.messageType = messageType;
+    }
+
+    void subscribe() {
+      subscriber = node.newSubscriber(topic, messageType);
+      subscriber.addMessageListener(this);
+    }
+
+    void shutdown() {
+      subscriber.shutdown();
+    }
+
+    @Override public void onNewMessage(Object message) {
+      received.incrementAndGet();
+      Time stamp = getStamp(message);
+      if (stamp != null && !stamp.isZero()) {
+        latency.recordNanos(Math.max(0, node.getCurrentTime().totalNsecs() - stamp.totalNsecs()));
+      }
+    }
+
+    /**
+     * Reads the header stamp of a message. Messages of a topic share a type, so the header accessor is looked up once
+     */
+    private Time getStamp(Object message) {
+      if (!headerChecked) {
+        try {
+          headerGetter = message.getClass().getMethod("getHeader");
+        } catch (NoSuchMethodException e) {
+          headerGetter = null;
+        }
+        headerChecked = true;
+      }
+      if (headerGetter == null) {
+        return null;
+      }
+      try {
+        Object header = headerGetter.invoke(message);
+        return header instanceof std_msgs.Header ? ((std_msgs.Header) header).getStamp() : null;
+      } catch (IllegalAccessException | InvocationTargetException e) {
+        return null;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, String> options = new LinkedHashMap<>();
+    options.put("drivers", "can,gnss,imu,comms,controller,radar");
+    options.put("data_dir", "config/data");
+    options.put("report", "throughput_report.json");
+    options.put("start_rate", "10");
+    options.put("rate_factor", "2");
+    options.put("max_rate", "5000");
+    options.put("warmup_s", "2");
+    options.put("step_s", "5");
+    options.put("max_latency_ms", "20");
+    options.put("max_drop", "0.001");
+    Map<String, Object> driverParams = new LinkedHashMap<>();
+    for (int i = 0; i < args.length; i += 2) {
+      if (!args[i].startsWith("--") || i + 1 >= args.length) {
+        System.err.println("Usage: ThroughputHarness [--option value ...]. See the class documentation for options");
+        System.exit(1);
+      }
+      String name = args[i].substring(2);
+      if (name.equals("param")) {
+        int split = args[i + 1].indexOf('=');
+        if (split < 1) {
+          System.err.println("Driver parameters must be given as --param name=value");
+          System.exit(1);
+        }
+        driverParams.put(args[i + 1].substring(0, split), parseParamValue(args[i + 1].substring(split + 1)));
+      } else if (!options.containsKey(name)) {
+        System.err.println("Unknown option --" + name);
+        System.exit(1);
+      } else {
+        options.put(name, args[i + 1]);
+      }
+    }
+    new ThroughputHarness(options, driverParams).run();
+  }
+
+  /**
+   * Constructor
+   *
+   * @param options The harness options keyed by name without the leading dashes
+   * @param driverParams The parameters set in the private namespace of every driver
+   */
+  public ThroughputHarness(Map<String, String> options, Map<String, Object> driverParams) {
+    this.options = options;
+    this.driverParams = driverParams;
+  }
+
+  /**
+   * Ramps every driver and writes the report
+   *
+   * @throws IOException If the report could not be written
+   * @throws InterruptedException If the harness is interrupted
+   */
+  public void run() throws IOException, InterruptedException {
+    RosCore core = RosCore.newPrivate();
+    core.start();
+    if (!core.awaitStart(NODE_START_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException("The in process ROS master did not start");
+    }
+    masterUri = core.getUri();
+    executor = DefaultNodeMainExecutor.newDefault();
+    try {
+      startHarnessNode();
+      StringBuilder report = new StringBuilder();
+      report.append("{\n  \"options\": {");
+      String separator = "";
+      for (Map.Entry<String, String> option: options.entrySet()) {
+        report.append(separator).append("\n    ").append(quote(option.getKey())).append(": ")
+          .append(quote(option.getValue()));
+        separator = ",";
+      }
+      for (Map.Entry<String, Object> param: driverParams.entrySet()) {
+        report.append(separator).append("\n    ").append(quote("param " + param.getKey())).append(": ")
+          .append(quote(param.getValue().toString()));
+      }
+      report.append("\n  },\n  \"drivers\": [");
+      separator = "";
+      for (String type: options.get("drivers").split(",")) {
+        report.append(separator).append(rampDriver(type.trim()));
+        separator = ",";
+      }
+      report.append("\n  ]\n}\n");
+      Path reportPath = Paths.get(options.get("report"));
+      if (reportPath.getParent() != null) {
+        Files.createDirectories(reportPath.getParent());
+      }
+      try (Writer out = Files.newBufferedWriter(reportPath, StandardCharsets.UTF_8)) {
+        out.write(report.toString());
+      }
+      System.out.println("Wrote throughput report to " + reportPath);
+    } finally {
+      executor.shutdown();
+      core.shutdown();
+    }
+  }
+
+  private void startHarnessNode() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    executor.execute(new AbstractNodeMain() {
+      @Override public GraphName getDefaultNodeName() {
+        return GraphName.of("throughput_harness");
+      }
+
+      @Override public void onStart(ConnectedNode connectedNode) {
+        harnessNode = connectedNode;
+        started.countDown();
+      }
+    }, NodeConfiguration.newPrivate(masterUri));
+    if (!started.await(NODE_START_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException("The harness node did not start");
+    }
+  }
+
+  /**
+   * Raises the publish rate of one driver until a step fails
+   *
+   * @param type The driver type as accepted by the simulated_driver parameter
+   * @return The JSON report of the driver
+   */
+  private String rampDriver(String type) throws InterruptedException {
+    double startRate = Double.parseDouble(options.get("start_rate"));
+    double rateFactor = Math.max(1.01, Double.parseDouble(options.get("rate_factor")));
+    double maxRate = Double.parseDouble(options.get("max_rate"));
+    List<TopicCounter> counters = null;
+    double sustainedRate = 0;
+    StringBuilder steps = new StringBuilder();
+    String separator = "";
+
+    try {
+      for (double rate = startRate; rate <= maxRate; rate *= rateFactor) {
+        MockDriverNode node = startDriverNode(type, rate);
+        IMockDriver driver = awaitDriver(node, type);
+        if (counters == null) {
+          counters = subscribeToApi(driver);
+        }
+        StringBuilder step = new StringBuilder();
+        boolean passed = measureStep(driver, counters, rate, step);
+        executor.shutdownNodeMain(node);
+        Thread.sleep(NODE_SHUTDOWN_WAIT_MS);
+        steps.append(separator).append(step);
+        separator = ",";
+        if (!passed) {
+          break;
+        }
+        sustainedRate = rate;
+      }
+    } finally {
+      if (counters != null) {
+        for (TopicCounter counter: counters) {
+          counter.shutdown();
+        }
+      }
+    }
+    System.out.println(type + " sustained " + format(sustainedRate) + " samples/s");
+    return "\n    {\n      \"driver\": " + quote(type) + ",\n      \"max_sustained_rate\": " + format(sustainedRate)
+      + ",\n      \"steps\": [" + steps + "\n      ]\n    }";
+  }
+
+  private MockDriverNode startDriverNode(String type, double rate) {
+    String namespace = "/mock_" + type;
+    ParameterTree params = harnessNode.getParameterTree();
+    params.set(namespace + "/simulated_driver", type);
+    params.set(namespace + "/publish_rate", rate);
+    params.set(namespace + "/diagnostics_rate", 0.0);
+    if (DATA_FILES.containsKey(type)) {
+      params.set(namespace + "/data_file_path",
+        Paths.get(options.get("data_dir"), DATA_FILES.get(type)).toAbsolutePath().toString());
+    }
+    for (Map.Entry<String, Object> param: driverParams.entrySet()) {
+      String name = namespace + "/" + param.getKey();
+      Object value = param.getValue();
+      if (value instanceof Boolean) {
+        params.set(name, (Boolean) value);
+      } else if (value instanceof Integer) {
+        params.set(name, (Integer) value);
+      } else if (value instanceof Double) {
+        params.set(name, (Double) value);
+      } else {
+        params.set(name, value.toString());
+      }
+    }
+    MockDriverNode node = new MockDriverNode();
+    executor.execute(node, NodeConfiguration.newPrivate(masterUri).setNodeName(namespace));
+    return node;
+  }
+
+  private IMockDriver awaitDriver(MockDriverNode node, String type) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + NODE_START_TIMEOUT_MS;
+    while (node.getDrivers().isEmpty()) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new IllegalStateException("The " + type + " driver node did not start");
+      }
+      Thread.sleep(50);
+    }
+    return node.getDrivers().get(0);
+  }
+
+  /**
+   * Subscribes to every topic of a driver's API once the master knows its type
+   */
+  private List<TopicCounter> subscribeToApi(IMockDriver driver) throws InterruptedException {
+    MasterClient masterClient = new MasterClient(masterUri);
+    Map<String, String> topicTypes = new HashMap<>();
+    long deadline = System.currentTimeMillis() + NODE_START_TIMEOUT_MS;
+    List<String> api = driver.getDriverAPI();
+    while (true) {
+      for (TopicType topicType: masterClient.getTopicTypes(harnessNode.getName()).getResult()) {
+        topicTypes.put(topicType.getName(), topicType.getMessageType());
+      }
+      int found = 0;
+      for (String topic: api) {
+        if (topicTypes.containsKey("/" + topic)) {
+          found++;
+        }
+      }
+      if (found == api.size() || System.currentTimeMillis() > deadline) {
+        break;
+      }
+      Thread.sleep(100);
+    }
+    List<TopicCounter> counters = new ArrayList<>();
+    for (String topic: api) {
+      String messageType = topicTypes.get("/" + topic);
+      if (messageType == null) {
+        System.err.println(driver.getGraphName() + " never advertised /" + topic + ". It will not be measured");
+        continue;
+      }
+      TopicCounter counter = new TopicCounter(harnessNode, "/" + topic, messageType);
+      counter.subscribe();
+      counters.add(counter);
+    }
+    return counters;
+  }
+
+  /**
+   * Runs one step of the ramp and appends its JSON report
+   *
+   * @return True if the driver sustained the rate
+   */
+  private boolean measureStep(IMockDriver driver, List<TopicCounter> counters, double rate, StringBuilder step)
+    throws InterruptedException {
+    long maxLatencyMicros = (long) (Double.parseDouble(options.get("max_latency_ms")) * 1000);
+    double maxDrop = Double.parseDouble(options.get("max_drop"));
+    Thread.sleep((long) (Double.parseDouble(options.get("warmup_s")) * 1000));
+
+    DriverMetrics metrics = driver.getMetrics();
+    long[] published = new long[counters.size()];
+    long[] received = new long[counters.size()];
+    long startSamples = metrics.getSampleCount();
+    long startOverruns = metrics.getOverrunCount();
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < counters.size(); i++) {
+      TopicCounter counter = counters.get(i);
+      published[i] = metrics.getMessageCount(counter.topic);
+      received[i] = counter.received.get();
+      counter.latency.reset();
+    }
+    Thread.sleep((long) (Double.parseDouble(options.get("step_s")) * 1000));
+    double seconds = (System.nanoTime() - startNanos) / 1e9;
+    double sampleRate = (metrics.getSampleCount() - startSamples) / seconds;
+
+    String failure = null;
+    if (sampleRate < rate * SATURATION_FRACTION) {
+      failure = "driver reached " + format(sampleRate) + " of " + format(rate) + " samples/s";
+    }
+    StringBuilder topics = new StringBuilder();
+    String separator = "";
+    for (int i = 0; i < counters.size(); i++) {
+      TopicCounter counter = counters.get(i);
+      published[i] = metrics.getMessageCount(counter.topic) - published[i];
+      received[i] = counter.received.get() - received[i];
+      long dropped = Math.max(0, published[i] - received[i]);
+      long p99 = counter.latency.getPercentileMicros(0.99);
+      if (failure == null && published[i] > 0 && dropped > published[i] * maxDrop) {
+        failure = counter.topic + " dropped " + dropped + " of " + published[i] + " messages";
+      }
+      if (failure == null && counter.latency.getCount() > 0 && p99 > maxLatencyMicros) {
+        failure = counter.topic + " p99 latency of " + p99 + " us";
+      }
+      topics.append(separator).append("\n            {\"topic\": ").append(quote(counter.topic))
+        .append(", \"type\": ").append(quote(counter.messageType))
+        .append(", \"published\": ").append(published[i])
+        .append(", \"received\": ").append(received[i])
+        .append(", \"dropped\": ").append(dropped)
+        .append(", \"latency_samples\": ").append(counter.latency.getCount())
+        .append(", \"latency_p50_us\": ").append(counter.latency.getPercentileMicros(0.5))
+        .append(", \"latency_p99_us\": ").append(p99)
+        .append(", \"latency_max_us\": ").append(counter.latency.getMaxMicros()).append('}');
+      separator = ",";
+    }
+    System.out.println(driver.getGraphName() + " at " + format(rate) + " samples/s: "
+      + (failure == null ? "passed" : "failed, " + failure));
+
+    step.append("\n        {\n          \"publish_rate\": ").append(format(rate))
+      .append(",\n          \"sample_rate\": ").append(format(sampleRate))
+      .append(",\n          \"overruns\": ").append(metrics.getOverrunCount() - startOverruns)
+      .append(",\n          \"passed\": ").append(failure == null)
+      .append(",\n          \"failure\": ").append(failure == null ? "null" : quote(failure))
+      .append(",\n          \"topics\": [").append(topics).append("\n          ]\n        }");
+    return failure == null;
+  }
+
+  /**
+   * Interprets a --param value as a boolean, integer or double where possible so drivers can read it with the
+   * matching ParameterTree getter
+   */
+  static Object parseParamValue(String value) {
+    if (value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")) {
+      return Boolean.valueOf(value);
+    }
+    try {
+      return Integer.valueOf(value);
+    } catch (NumberFormatException e) {
+      // Not an integer
+    }
+    try {
+      return Double.valueOf(value);
+    } catch (NumberFormatException e) {
+      return value;
+    }
+  }
+
+  private static String format(double value) {
+    return String.format(Locale.ROOT, "%.1f", value);
+  }
+
+  private static String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+/**
+ * A kinematic bicycle model of the vehicle with first order lags on its longitudinal and steering actuators.
+ * <p>
+ * Commands set a target speed and road wheel angle. A proportional speed controller turns the speed error into a
+ * desired acceleration within the vehicle's limits and the achieved acceleration and steering angle follow their
+ * targets with the configured time constants. The model is advanced by fixed explicit Euler steps. The wheel torque
+ * and brake deceleration reported to the platform are derived from the force needed for the achieved acceleration
+ * against rolling resistance and aerodynamic drag.
+ * <p>
+ * Commands may be set from any thread. Stepping and reading the state is expected to happen on one thread.
+ */
+public class VehiclePlantModel {
+
+  private static final double GRAVITY = 9.81; // m/s^2
+  private static final double AIR_DENSITY = 1.225; // kg/m^3
+  private static final double SPEED_GAIN = 1.0; // 1/s
+  private static final double ROLLING_RESISTANCE = 0.015;
+  private static final double DRAG_AREA = 0.7; // Drag coefficient times frontal area in m^2 of a passenger car
+
+  private final double wheelbase;
+  private final double mass;
+  private final double wheelRadius;
+  private final double accelTimeConstant;
+  private final double steerTimeConstant;
+  private final double maxAccel;
+  private final double maxDecel;
+  private final double maxSteer;
+
+  // Commands
+  private volatile double targetSpeed = 0;
+  private volatile double accelLimit = 0;
+  private volatile double targetSteer = 0;
+
+  // State
+  private double x = 0;
+  private double y = 0;
+  private double yaw = 0;
+  private double speed = 0;
+  private double accel = 0;
+  private double steer = 0;
+  private double simTime = 0;
+
+  /**
+   * Constructor
+   *
+   * @param wheelbase The distance between the axles in m
+   * @param mass The vehicle mass in kg
+   * @param wheelRadius The driven wheel radius in m
+   * @param accelTimeConstant The time constant of the longitudinal actuators in s
+   * @param steerTimeConstant The time constant of the steering actuator in s
+   * @param maxAccel The largest acceleration in m/s^2
+   * @param maxDecel The largest deceleration in m/s^2 as a positive number
+   * @param maxSteer The largest road wheel angle in rad
+   */
+  public VehiclePlantModel(double wheelbase, double mass, double wheelRadius, double accelTimeConstant,
+    double steerTimeConstant, double maxAccel, double maxDecel, double maxSteer) {
+    this.wheelbase = wheelbase;
+    this.mass = mass;
+    this.wheelRadius = wheelRadius;
+    this.accelTimeConstant = accelTimeConstant;
+    this.steerTimeConstant = steerTimeConstant;
+    this.maxAccel = maxAccel;
+    this.maxDecel = maxDecel;
+    this.maxSteer = maxSteer;
+  }
+
+  /**
+   * Sets the command followed by subsequent steps
+   *
+   * @param speed The target speed in m/s. Negative values are treated as 0
+   * @param accelLimit The largest acceleration magnitude in m/s^2 used to reach the target speed. 0 for no limit
+   *                   beyond the vehicle's own
+   * @param steer The target road wheel angle in rad
+   */
+  public void setCommand(double speed, double accelLimit, double steer) {
+    this.targetSpeed = Math.max(0, speed);
+    this.accelLimit = Math.abs(accelLimit);
+    this.targetSteer = Math.max(-maxSteer, Math.min(maxSteer, steer));
+  }
+
+  /**
+   * Sets the command from a speed and yaw rate such as a twist command
+   *
+   * @param speed The target speed in m/s
+   * @param yawRate The target yaw rate in rad/s
+   */
+  public void setTwistCommand(double speed, double yawRate) {
+    double steerForRate = Math.abs(speed) < 0.1 ? 0 : Math.atan(wheelbase * yawRate / speed);
+    setCommand(speed, 0, steerForRate);
+  }
+
+  /**
+   * Advances the model
+   *
+   * @param dt The step length in s
+   */
+  public void step(double dt) {
+    double desiredAccel = SPEED_GAIN * (targetSpeed - speed);
+    double upper = accelLimit > 0 ? Math.min(maxAccel, accelLimit) : maxAccel;
+    double lower = accelLimit > 0 ? -Math.min(maxDecel, accelLimit) : -maxDecel;
+    desiredAccel = Math.max(lower, Math.min(upper, desiredAccel));
+
+    accel += (desiredAccel - accel) * Math.min(1.0, dt / accelTimeConstant);
+    steer += (targetSteer - steer) * Math.min(1.0, dt / steerTimeConstant);
+
+    speed += accel * dt;
+    if (speed < 0) {
+      // Brakes hold a stopped vehicle rather than reversing it
+      speed = 0;
+      accel = Math.max(accel, 0);
+    }
+    x += speed * Math.cos(yaw) * dt;
+    y += speed * Math.sin(yaw) * dt;
+    yaw += speed / wheelbase * Math.tan(steer) * dt;
+    simTime += dt;
+  }
+
+  /**
+   * Gets the longitudinal force in N the wheels apply to produce the current acceleration
+   */
+  private double tractiveForce() {
+    if (speed <= 0) {
+      return mass * accel;
+    }
+    double resistance = ROLLING_RESISTANCE * mass * GRAVITY + 0.5 * AIR_DENSITY * DRAG_AREA * speed * speed;
+    return mass * accel + resistance;
+  }
+
+  /**
+   * Gets the drive torque in Nm at the wheels. 0 while braking
+   */
+  public double getWheelTorque() {
+    return Math.max(0, tractiveForce()) * wheelRadius;
+  }
+
+  /**
+   * Gets the deceleration in m/s^2 produced by the brakes. 0 while driving
+   */
+  public double getBrakeDecel() {
+    return Math.max(0, -tractiveForce()) / mass;
+  }
+
+  public double getX() {
+    return x;
+  }
+
+  public double getY() {
+    return y;
+  }
+
+  public double getYaw() {
+    return yaw;
+  }
+
+  public double getSpeed() {
+    return speed;
+  }
+
+  public double getAccel() {
+    return accel;
+  }
+
+  public double getSteer() {
+    return steer;
+  }
+
+  /**
+   * Gets the simulated time in s covered by all steps so far
+   */
+  public double getSimTime() {
+    return simTime;
+  }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Compares the values parsed by CsvSampleTokenizer with the standard parsers the drivers used before it.
+ * Each table entry is a single column value. Malformed values must be rejected in the same way.
+ */
+public class CsvSampleTokenizerTest {
+
+  /**
+   * Values whose mantissa fits in 15 significant digits with an exponent small enough to be parsed exactly
+   */
+  private static final String[] EXACT_DOUBLES = {
+    "0", "1", "-1", "+1", "0.0", "-0", "-0.0", "007", "1.5", "-2.25", ".5", "5.", "0.1", "0.3",
+    "123456789012345", "-123456789012345", "0.123456789012345", "1234567.89012345", "99999999999999.9",
+    "1e5", "1E5", "1e+5", "1e-5", "-2.5e+3", "2.5E-3", "1e22", "1e-22", "123456789012345e7", "0e10",
+    "0.000000000000000000001", "100000000000000000000", " 3.5", "3.5 ", "  -4.75  ",
+    "1f", "1d", "1.0F", "2.5D"
+  };
+
+  /**
+   * Values outside the exact range which may differ from Double.parseDouble in the last bits
+   */
+  private static final String[] APPROXIMATE_DOUBLES = {
+    "-0.000221030741930008", "0.00232184410095215", "1234567890123456789", "3.14159265358979323846",
+    "1e100", "-1.7976931348623157e308", "4.9e-300", "1e-300", "1e300", "6.02214076e23"
+  };
+
+  /**
+   * Values handed to Double.parseDouble, either because they are outside the double range or are not plain decimals
+   */
+  private static final String[] SPECIAL_DOUBLES = {
+    "1e400", "-1e400", "1e-400", "4.9e-324", "NaN", "Infinity", "-Infinity", "0x1p3"
+  };
+
+  private static final String[] MALFORMED_DOUBLES = {
+    "", " ", "abc", "1e", "1e+", "e5", ".", "-", "+", "--1", "1.2.3", "1x", "TRUE", "\"1\""
+  };
+
+  private static final String[] INTEGERS = {
+    "0", "7", "-7", "+7", "007", "-0", "127", "-128", "32767", "-32768", "2147483647", "-2147483648",
+    "2147483648", "-2147483649", "999999999999999999", "9999999999999999999", " 12", "12 ",
+    "", "-", "+", "abc", "1.5", "1.0", "1e3", "1_000", "0x10", "\"5\""
+  };
+
+  private static final String[] BOOLEANS = {
+    "true", "TRUE", "True", " true ", "false", "FALSE", "1", "0", "yes", "truex", "t", "", "\"true\""
+  };
+
+  /**
+   * Rows tokenized with three expected columns. Each must split the same way as String.split
+   */
+  private static final String[] ROWS = {
+    "1,2,3",
+    "1,,3",
+    ",,3",
+    " 1 , 2 , 3 ",
+    "1,2,",
+    "1,2,,",
+    "1,2",
+    "1,2,3,4",
+    "1,2,3,",
+    ",,",
+    "a,\"b,c\"",
+    "\"a\",\"b\",\"c\"",
+    "\"a,b\",c,d",
+    "x,\"\",z",
+    "1,2,3\r",
+    "\r",
+    "",
+    "1;2;3"
+  };
+
+  @Test public void exactDoublesMatchParseDouble() {
+    for (String text: EXACT_DOUBLES) {
+      CsvSampleTokenizer tokenizer = tokenizeValue(text);
+      assertEquals("'" + text + "'", Double.parseDouble(text), tokenizer.getDouble(0, 0), 0);
+      assertEquals("'" + text + "' sign", sign(Double.parseDouble(text)), sign(tokenizer.getDouble(0, 0)));
+    }
+  }
+
+  @Test public void approximateDoublesAreCloseToParseDouble() {
+    for (String text: APPROXIMATE_DOUBLES) {
+      double expected = Double.parseDouble(text);
+      assertEquals("'" + text + "'", expected, tokenizeValue(text).getDouble(0, 0), 4 * Math.ulp(expected));
+    }
+  }
+
+  @Test public void specialDoublesMatchParseDouble() {
+    for (String text: SPECIAL_DOUBLES) {
+      assertEquals("'" + text + "'", Double.parseDouble(text), tokenizeValue(text).getDouble(0, 0), 0);
+    }
+  }
+
+  @Test public void malformedDoublesAreRejected() {
+    for (String text: MALFORMED_DOUBLES) {
+      CsvSampleTokenizer tokenizer = tokenizeValue(text);
+      try {
+        double value = tokenizer.getDouble(0, 0);
+        fail("'" + text + "' parsed as " + value);
+      } catch (NumberFormatException e) {
+        // Expected
+      }
+      try {
+        Double.parseDouble(text.trim());
+        fail("Test value '" + text + "' is not malformed");
+      } catch (NumberFormatException e) {
+        // Expected
+      }
+    }
+  }
+
+  @Test public void integersMatchParseInt() {
+    for (String text: INTEGERS) {
+      Integer expected;
+      try {
+        expected = Integer.parseInt(text.trim());
+      } catch (NumberFormatException e) {
+        expected = null;
+      }
+      Integer actual;
+      try {
+        actual = tokenizeValue(text).getInt(0, 0);
+      } catch (NumberFormatException e) {
+        actual = null;
+      }
+      assertEquals("'" + text + "'", expected, actual);
+    }
+  }
+
+  @Test public void booleansMatchParseBoolean() {
+    for (String text: BOOLEANS) {
+      assertEquals("'" + text + "'", Boolean.parseBoolean(text.trim()), tokenizeValue(text).getBoolean(0, 0));
+    }
+  }
+
+  @Test public void rowsSplitLikeStringSplit() {
+    int colCount = 3;
+    StringBuilder group = new StringBuilder();
+    List<String[]> expectedRows = new ArrayList<>();
+    int expectedInvalid = 0;
+    for (String row: ROWS) {
+      group.append(row).append('\n');
+      String line = row.endsWith("\r") ? row.substring(0, row.length() - 1) : row;
+      if (line.isEmpty()) {
+        continue; // Blank lines are not rows
+      }
+      String[] elements = line.split(",");
+      if (elements.length == colCount) {
+        expectedRows.add(elements);
+      } else {
+        expectedInvalid++;
+      }
+    }
+
+    // Tokenize from the middle of a larger buffer to check offsets are respected
+    byte[] groupBytes = group.toString().getBytes(StandardCharsets.UTF_8);
+    byte[] buffer = new byte[groupBytes.length + 8];
+    Arrays.fill(buffer, (byte) ',');
+    System.arraycopy(groupBytes, 0, buffer, 4, groupBytes.length);
+    CsvSampleTokenizer tokenizer = new CsvSampleTokenizer(',', colCount);
+    tokenizer.tokenize(buffer, 4, groupBytes.length);
+
+    assertEquals("row count", expectedRows.size(), tokenizer.getRowCount());
+    assertEquals("invalid row count", expectedInvalid, tokenizer.getInvalidRowCount());
+    assertEquals("column count", colCount, tokenizer.getColCount());
+    for (int row = 0; row < expectedRows.size(); row++) {
+      for (int col = 0; col < colCount; col++) {
+        assertEquals("row " + row + " column " + col, expectedRows.get(row)[col].trim(), tokenizer.getString(row, col));
+      }
+    }
+  }
+
+  @Test public void tokenizingResetsPreviousSample() {
+    CsvSampleTokenizer tokenizer = new CsvSampleTokenizer(',', 2);
+    byte[] first = "1,a\n1,b\n1\n".getBytes(StandardCharsets.UTF_8);
+    tokenizer.tokenize(first, 0, first.length);
+    assertEquals(2, tokenizer.getRowCount());
+    assertEquals(1, tokenizer.getInvalidRowCount());
+
+    byte[] second = "2,c".getBytes(StandardCharsets.UTF_8);
+    tokenizer.tokenize(second, 0, second.length);
+    assertEquals(1, tokenizer.getRowCount());
+    assertEquals(0, tokenizer.getInvalidRowCount());
+    assertEquals("c", tokenizer.getString(0, 1));
+    assertEquals(2, tokenizer.getInt(0, 0));
+  }
+
+  @Test public void manyRowsGrowTheColumnIndex() {
+    StringBuilder group = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      group.append(i).append(',').append(i * 0.5).append('\n');
+    }
+    byte[] bytes = group.toString().getBytes(StandardCharsets.UTF_8);
+    CsvSampleTokenizer tokenizer = new CsvSampleTokenizer(',', 2);
+    tokenizer.tokenize(bytes, 0, bytes.length);
+    assertEquals(1000, tokenizer.getRowCount());
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, tokenizer.getInt(i, 0));
+      assertEquals(i * 0.5, tokenizer.getDouble(i, 1), 0);
+    }
+  }
+
+  private static CsvSampleTokenizer tokenizeValue(String text) {
+    // A second column keeps empty values from being dropped as trailing columns
+    byte[] bytes = (text + ",0").getBytes(StandardCharsets.UTF_8);
+    CsvSampleTokenizer tokenizer = new CsvSampleTokenizer(',', 2);
+    tokenizer.tokenize(bytes, 0, bytes.length);
+    assertEquals("'" + text + "' row count", 1, tokenizer.getRowCount());
+    return tokenizer;
+  }
+
+  private static double sign(double value) {
+    return Math.copySign(1.0, value);
+  }
+}
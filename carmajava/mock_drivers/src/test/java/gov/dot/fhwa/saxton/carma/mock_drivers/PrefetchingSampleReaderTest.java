@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that PrefetchingSampleReader hands over groups in order and keeps reporting a read failure
+ */
+public class PrefetchingSampleReaderTest {
+
+  private static final long TIMEOUT_MS = 5000;
+
+  /**
+   * Returns numbered groups and throws once a set number of groups has been read
+   */
+  private static class FailingReader implements SampleReader {
+    private final int failAfter;
+    private int read = 0;
+
+    FailingReader(int failAfter) {
+      this.failAfter = failAfter;
+    }
+
+    @Override public ByteBuffer nextSample() throws IOException {
+      if (read == failAfter) {
+        throw new IOException("Disk error");
+      }
+      return ByteBuffer.wrap((read++ + ",a").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override public boolean isAtFirstSample() {
+      return read == 0;
+    }
+
+    @Override public String getHeaderLine() {
+      return "sample id,value";
+    }
+
+    @Override public void close() {
+      // Nothing to release
+    }
+  }
+
+  @Test(timeout = TIMEOUT_MS) public void groupsAreReturnedInOrderBeforeTheFailure() throws IOException {
+    try (PrefetchingSampleReader reader = new PrefetchingSampleReader(new FailingReader(3), 2, "prefetch_test")) {
+      for (int i = 0; i < 3; i++) {
+        ByteBuffer sample = reader.nextSample();
+        assertNotNull(sample);
+        assertEquals(i + ",a", new String(sample.array(), sample.arrayOffset(), sample.limit(),
+          StandardCharsets.UTF_8));
+      }
+      assertFailed(reader);
+    }
+  }
+
+  @Test(timeout = TIMEOUT_MS) public void failureIsReportedOnEveryLaterCall() throws IOException {
+    try (PrefetchingSampleReader reader = new PrefetchingSampleReader(new FailingReader(1), 1, "prefetch_test")) {
+      reader.nextSample();
+      // The publishing loop checks for the first sample before reading the next one
+      for (int i = 0; i < 3; i++) {
+        assertFalse(reader.isAtFirstSample());
+        assertFailed(reader);
+      }
+    }
+  }
+
+  @Test(timeout = TIMEOUT_MS) public void failureOnTheFirstReadIsReported() throws IOException {
+    try (PrefetchingSampleReader reader = new PrefetchingSampleReader(new FailingReader(0), 4, "prefetch_test")) {
+      assertFalse(reader.isAtFirstSample());
+      assertFailed(reader);
+      assertFailed(reader);
+    }
+  }
+
+  private static void assertFailed(SampleReader reader) {
+    try {
+      reader.nextSample();
+      fail("Expected the read failure to be reported");
+    } catch (IOException e) {
+      assertEquals("Disk error", e.getMessage());
+    }
+  }
+}
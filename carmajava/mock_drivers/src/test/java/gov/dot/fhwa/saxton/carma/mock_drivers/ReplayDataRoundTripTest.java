@@ -0,0 +1,265 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.apache.commons.logging.LogFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replays every file in config/data, and a file of edge cases, through each data source and checks that the values
+ * read match the csv text. The expected values are the rows of each file split with String.split, which is how the
+ * drivers originally read their data files.
+ */
+public class ReplayDataRoundTripTest {
+
+  private static final Path DATA_DIR = Paths.get("config", "data");
+  private static final int SAMPLE_ID_COL = 0;
+  private static final char DELIMITER = ',';
+
+  /**
+   * Values the shipped data files do not contain. Lowercase booleans and plain numbers are stored as typed columns
+   * by the binary and in-memory sources, which must still reject the same reads as the csv source
+   */
+  private static final String[] EDGE_CASE_LINES = {
+    "sample id,flag,fraction,count,big,text,mixed",
+    "0,true,1.5,7,300,abc,1",
+    "0,false,-2.25,-8,70000,TRUE,1.0",
+    "1,true,0.1,127,3000000000,07,true",
+    "1,false,12345678.5,-128,-1,1e5,x",
+    "2,true,-0.000221,0,99999999999,,2"
+  };
+
+  private Path tempDir;
+
+  @Before public void createTempDir() throws IOException {
+    tempDir = Files.createTempDirectory("replay_data");
+    Files.write(tempDir.resolve("edge_cases.csv"), Arrays.asList(EDGE_CASE_LINES), StandardCharsets.UTF_8);
+  }
+
+  @After public void deleteTempDir() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(tempDir)) {
+      for (Path file: files) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(tempDir);
+  }
+
+  @Test public void csvSourceMatchesDataFiles() throws IOException {
+    for (Path csvFile: dataFiles()) {
+      try (DataSampleSource source = openCsv(csvFile)) {
+        assertMatches(csvFile + " csv", readRows(csvFile), source);
+      }
+    }
+  }
+
+  @Test public void indexedReaderGroupsRowsBySampleId() throws IOException {
+    for (Path csvFile: dataFiles()) {
+      List<String[]> rows = readRows(csvFile);
+      try (IndexedSampleReader reader = new IndexedSampleReader(csvFile.toString(), SAMPLE_ID_COL, DELIMITER)) {
+        assertEquals(csvFile + " sample count", countSamples(rows), reader.getSampleCount());
+        assertTrue(csvFile + " starts at its first sample", reader.isAtFirstSample());
+      }
+    }
+  }
+
+  @Test public void binaryReplayMatchesDataFiles() throws IOException {
+    for (Path csvFile: dataFiles()) {
+      try (DataSampleSource source = openBinary(csvFile)) {
+        assertMatches(csvFile + " binary", readRows(csvFile), source);
+      }
+    }
+  }
+
+  @Test public void inMemoryStoreOfCsvMatchesDataFiles() throws IOException {
+    for (Path csvFile: dataFiles()) {
+      try (DataSampleSource csv = openCsv(csvFile)) {
+        InMemorySampleStore store = InMemorySampleStore.load(csv, Long.MAX_VALUE);
+        assertNotNull(csvFile + " in memory store", store);
+        assertMatches(csvFile + " in memory csv", readRows(csvFile), store);
+      }
+    }
+  }
+
+  @Test public void inMemoryStoreOfBinaryMatchesDataFiles() throws IOException {
+    for (Path csvFile: dataFiles()) {
+      try (DataSampleSource binary = openBinary(csvFile)) {
+        InMemorySampleStore store = InMemorySampleStore.load(binary, Long.MAX_VALUE);
+        assertNotNull(csvFile + " in memory store", store);
+        assertMatches(csvFile + " in memory binary", readRows(csvFile), store);
+      }
+    }
+  }
+
+  @Test public void inMemoryStoreRespectsMemoryCeiling() throws IOException {
+    for (Path csvFile: dataFiles()) {
+      try (DataSampleSource csv = openCsv(csvFile)) {
+        assertNull(csvFile + " store over the ceiling", InMemorySampleStore.load(csv, 1));
+        assertTrue(csvFile + " is left at its first sample", csv.isAtFirstSample());
+      }
+    }
+  }
+
+  private List<Path> dataFiles() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> csvFiles = Files.newDirectoryStream(DATA_DIR, "*.csv")) {
+      for (Path csvFile: csvFiles) {
+        files.add(csvFile);
+      }
+    }
+    assertFalse("No data files found in " + DATA_DIR.toAbsolutePath(), files.isEmpty());
+    files.add(tempDir.resolve("edge_cases.csv"));
+    return files;
+  }
+
+  /**
+   * Reads the data rows of a file, skipping the header and any row without one value per header column
+   */
+  private static List<String[]> readRows(Path csvFile) throws IOException {
+    List<String[]> rows = new ArrayList<>();
+    try (BufferedReader in = Files.newBufferedReader(csvFile, StandardCharsets.UTF_8)) {
+      int colCount = in.readLine().split(String.valueOf(DELIMITER), -1).length;
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] elements = line.split(String.valueOf(DELIMITER));
+        if (elements.length == colCount) {
+          rows.add(elements);
+        }
+      }
+    }
+    return rows;
+  }
+
+  private static int countSamples(List<String[]> rows) {
+    int samples = 0;
+    String prevId = null;
+    for (String[] row: rows) {
+      String id = row[SAMPLE_ID_COL].trim();
+      if (!id.equals(prevId)) {
+        samples++;
+        prevId = id;
+      }
+    }
+    return samples;
+  }
+
+  private static DataSampleSource openCsv(Path csvFile) throws IOException {
+    SampleReader reader = new IndexedSampleReader(csvFile.toString(), SAMPLE_ID_COL, DELIMITER);
+    return new CsvSampleSource(reader, String.valueOf(DELIMITER), 0, LogFactory.getLog(ReplayDataRoundTripTest.class),
+      csvFile.toString());
+  }
+
+  private DataSampleSource openBinary(Path csvFile) throws IOException {
+    Path binaryFile = tempDir.resolve(csvFile.getFileName() + BinaryReplayFormat.FILE_EXTENSION);
+    BinaryReplayConverter.Summary summary = BinaryReplayConverter.convert(csvFile, binaryFile, SAMPLE_ID_COL);
+    List<String[]> rows = readRows(csvFile);
+    assertEquals(binaryFile + " row count", rows.size(), summary.getRowCount());
+    assertEquals(binaryFile + " sample count", countSamples(rows), summary.getSampleCount());
+    assertTrue(binaryFile + " is recognized", MappedBinarySampleSource.isBinaryReplayFile(binaryFile.toString()));
+    return new MappedBinarySampleSource(binaryFile.toString(), 0);
+  }
+
+  /**
+   * Reads one full loop of a source and compares every value and sample boundary with the expected rows
+   */
+  private static void assertMatches(String name, List<String[]> expected, DataSampleSource source)
+    throws IOException {
+    assertTrue(name + " starts at its first sample", source.isAtFirstSample());
+    int row = 0;
+    int samples = 0;
+    do {
+      DataSample sample = source.nextSample();
+      assertNotNull(name + " sample " + samples, sample);
+      samples++;
+      String sampleId = expected.get(row)[SAMPLE_ID_COL].trim();
+      for (int r = 0; r < sample.getRowCount(); r++, row++) {
+        String[] values = expected.get(row);
+        assertEquals(name + " row " + row + " sample id", sampleId, values[SAMPLE_ID_COL].trim());
+        assertEquals(name + " row " + row + " column count", values.length, sample.getColCount());
+        for (int col = 0; col < values.length; col++) {
+          assertValue(name + " row " + row + " column " + col, values[col].trim(), sample, r, col);
+        }
+      }
+    } while (!source.isAtFirstSample());
+    assertEquals(name + " row count", expected.size(), row);
+    assertEquals(name + " sample count", countSamples(expected), samples);
+
+    // Replay loops back to the first sample
+    DataSample first = source.nextSample();
+    assertEquals(name + " first value after looping", expected.get(0)[0].trim(), first.getString(0, 0));
+  }
+
+  private static void assertValue(String name, String text, DataSample sample, int row, int col) {
+    assertEquals(name + " string", text, sample.getString(row, col));
+    assertEquals(name + " boolean", Boolean.parseBoolean(text), sample.getBoolean(row, col));
+
+    Integer expectedInt;
+    try {
+      expectedInt = Integer.parseInt(text);
+    } catch (NumberFormatException e) {
+      expectedInt = null;
+    }
+    Integer actualInt;
+    try {
+      actualInt = sample.getInt(row, col);
+    } catch (NumberFormatException e) {
+      actualInt = null;
+    }
+    assertEquals(name + " int", expectedInt, actualInt);
+
+    Double expected = parseDouble(text);
+    Double actual;
+    try {
+      actual = sample.getDouble(row, col);
+    } catch (NumberFormatException e) {
+      actual = null;
+    }
+    if (expected == null || actual == null) {
+      assertEquals(name + " double", expected, actual);
+    } else {
+      // The csv tokenizer is only exact to 15 significant digits
+      assertEquals(name + " double", expected, actual, 4 * Math.ulp(expected));
+    }
+  }
+
+  private static Double parseDouble(String text) {
+    try {
+      return Double.parseDouble(text);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2018-2020 LEIDOS.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package gov.dot.fhwa.saxton.carma.mock_drivers;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the object churn of RoadwayObjectGenerator
+ */
+public class RoadwayObjectGeneratorTest {
+
+  private static final double DT = 0.1;
+
+  @Test public void replacedObjectsMoveIntoTheView() {
+    RoadwayObjectGenerator generator = new RoadwayObjectGenerator(50, 3, 3.7, 1, 25.0, 150.0, 50.0);
+    int[] previousIds = new int[generator.getObjectCount()];
+    int replaced = 0;
+    for (int step = 0; step < 10000; step++) {
+      for (int i = 0; i < previousIds.length; i++) {
+        previousIds[i] = generator.getId(i);
+      }
+      generator.update(DT);
+      for (int i = 0; i < previousIds.length; i++) {
+        if (generator.getId(i) == previousIds[i]) {
+          continue;
+        }
+        replaced++;
+        double x = generator.getX(i);
+        double relativeSpeed = generator.getRelativeSpeed(i);
+        if (x < 0) {
+          assertTrue("Object entering at the rear is overtaking", relativeSpeed > 0);
+        } else {
+          assertTrue("Object entering at the front is being overtaken", relativeSpeed < 0);
+        }
+        double nextX = x + relativeSpeed * DT;
+        assertTrue("Object stays in view after entering", nextX >= -50.0 && nextX <= 150.0);
+      }
+    }
+    assertTrue("Objects were replaced", replaced > 0);
+  }
+
+  @Test public void objectCountIsConstant() {
+    RoadwayObjectGenerator generator = new RoadwayObjectGenerator(20, 2, 3.5, 0, 30.0, 100.0, 30.0);
+    for (int step = 0; step < 1000; step++) {
+      generator.update(DT);
+      for (int i = 0; i < generator.getObjectCount(); i++) {
+        assertTrue("Object in view", generator.getX(i) >= -30.0 && generator.getX(i) <= 100.0);
+      }
+    }
+    assertEquals(20, generator.getObjectCount());
+  }
+}